@@ -0,0 +1,127 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming JSON encoder used by {@link IncendoPaster} to the
+ * string builder it replaced, on log payloads of different sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class IncendoPasterBenchmark {
+
+    private static final String[] LOG_LINES = {
+        "[12:00:01] [Server thread/INFO]: Loading \"plots.yml\" from C:\\server\\plugins\\PlotSquared\n",
+        "[12:00:02] [Server thread/WARN]: \tat com.example.Plugin.onEnable(Plugin.java:42)\n",
+        "[12:00:03] [Server thread/INFO]: Player Jürgen joined the game – welcome! ✔\n",
+        "[12:00:04] [Server thread/ERROR]: Could not pass event {\"type\": \"move\", \"cancelled\": false}\n"
+    };
+
+    @Param({"1", "16", "100"})
+    public int payloadMegabytes;
+
+    private IncendoPaster paster;
+
+    @Setup
+    public void setup() {
+        final int length = this.payloadMegabytes * 1024 * 1024;
+        final StringBuilder builder = new StringBuilder(length + 128);
+        for (int i = 0; builder.length() < length; i++) {
+            builder.append(LOG_LINES[i % LOG_LINES.length]);
+        }
+        this.paster = new IncendoPaster("kvantum");
+        this.paster.addFile(new IncendoPaster.PasteFile("latest.log", builder.toString()));
+    }
+
+    @Benchmark
+    public void streamingEncoder(final Blackhole blackhole) throws IOException {
+        this.paster.writeJson(new BlackholeOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public byte[] legacyBuilder() {
+        final StringBuilder builder = new StringBuilder("{\n");
+        builder.append("\"paste_application\": \"").append("kvantum").append("\",\n\"files\": \"");
+        Iterator<IncendoPaster.PasteFile> fileIterator = this.paster.getFiles().iterator();
+        while (fileIterator.hasNext()) {
+            final IncendoPaster.PasteFile file = fileIterator.next();
+            builder.append(file.getFileName());
+            if (fileIterator.hasNext()) {
+                builder.append(",");
+            }
+        }
+        builder.append("\",\n");
+        fileIterator = this.paster.getFiles().iterator();
+        while (fileIterator.hasNext()) {
+            final IncendoPaster.PasteFile file = fileIterator.next();
+            builder.append("\"file-").append(file.getFileName()).append("\": \"")
+                .append(file.getContent().replaceAll("\"", "\\\\\"")).append("\"");
+            if (fileIterator.hasNext()) {
+                builder.append(",\n");
+            }
+        }
+        builder.append("\n}");
+        return builder.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static final class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override public void write(final int b) {
+            this.blackhole.consume(b);
+        }
+
+        @Override public void write(final byte[] b, final int off, final int len) {
+            this.blackhole.consume(b);
+        }
+
+    }
+
+}
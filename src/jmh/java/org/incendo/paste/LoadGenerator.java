@@ -0,0 +1,230 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Load generator that drives a paste viewer running on localhost. It first creates
+ * a set of pastes through the upload service, then requests pages, raw pastes and
+ * line ranges of those pastes from several threads, and reports the throughput and
+ * latency percentiles of every request type.
+ * <p>
+ * Options are given as {@code --name value}: {@code url} (http://localhost:1024),
+ * {@code threads} (16), {@code pastes} (32), {@code duration} in seconds (30) and
+ * {@code payload} (LOG_1MB). Every upload claims a different forwarded address, so
+ * the upload throttle doesn't stop the upload phase
+ */
+public final class LoadGenerator {
+
+    private static final Pattern PASTE_ID = Pattern.compile("\"paste_id\"\\s*:\\s*\"(\\w+)\"");
+
+    private LoadGenerator() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", "").toLowerCase(Locale.ENGLISH), args[i + 1]);
+        }
+        final String url = options.getOrDefault("url", "http://localhost:1024").replaceAll("/+$", "");
+        final int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        final int pastes = Integer.parseInt(options.getOrDefault("pastes", "32"));
+        final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        final Payload payload = Payload.valueOf(options.getOrDefault("payload", "LOG_1MB").toUpperCase(Locale.ENGLISH));
+
+        final IncendoPaster paster = new IncendoPaster("kvantum", url + "/paste/upload");
+        payload.generate().forEach((fileName, content) -> paster.addFile(new IncendoPaster.PasteFile(fileName, content)));
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = new GZIPOutputStream(compressed)) {
+            paster.writeJson(outputStream);
+        }
+        final byte[] uploadBody = compressed.toByteArray();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        final Recorder uploads = new Recorder("upload");
+        final AtomicInteger addresses = new AtomicInteger();
+        final long uploadStart = System.nanoTime();
+        for (int i = 0; i < pastes; i++) {
+            executor.execute(() -> uploads.time(() -> {
+                final int address = addresses.incrementAndGet();
+                final String response = new String(request(url + "/paste/upload", uploadBody,
+                    String.format("10.%d.%d.%d", (address >> 16) & 0xFF, (address >> 8) & 0xFF, address & 0xFF)),
+                    StandardCharsets.UTF_8);
+                final Matcher matcher = PASTE_ID.matcher(response);
+                if (!matcher.find()) {
+                    throw new IOException(String.format("Upload rejected: %s", response.trim()));
+                }
+                ids.add(matcher.group(1));
+            }));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1L, TimeUnit.HOURS);
+        uploads.report(System.nanoTime() - uploadStart);
+        if (ids.isEmpty()) {
+            System.out.println("No pastes were created, skipping the view phase");
+            return;
+        }
+
+        final Recorder pages = new Recorder("page"), raw = new Recorder("raw"), ranges = new Recorder("range");
+        final ExecutorService viewExecutor = Executors.newFixedThreadPool(threads);
+        final long viewStart = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            viewExecutor.execute(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() - viewStart < duration) {
+                    final String view = String.format("%s/paste/view/%s", url, ids.get(random.nextInt(ids.size())));
+                    final int type = random.nextInt(10);
+                    if (type < 6) {
+                        pages.time(() -> request(view, null, null));
+                    } else if (type < 8) {
+                        raw.time(() -> request(view + "?raw=true", null, null));
+                    } else {
+                        final int from = random.nextInt(2000);
+                        ranges.time(() -> request(String.format("%s/0?from=%d&to=%d", view, from, from + 500),
+                            null, null));
+                    }
+                }
+            });
+        }
+        viewExecutor.shutdown();
+        viewExecutor.awaitTermination(duration + TimeUnit.MINUTES.toNanos(1L), TimeUnit.NANOSECONDS);
+        final long viewDuration = System.nanoTime() - viewStart;
+        pages.report(viewDuration);
+        raw.report(viewDuration);
+        ranges.report(viewDuration);
+    }
+
+    /**
+     * Perform a request and read the response fully, like a browser would
+     */
+    private static byte[] request(final String url, final byte[] body, final String forwardedFor)
+        throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(10L));
+        connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(60L));
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("X-Forwarded-For", forwardedFor);
+            try (final OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+        final int status = connection.getResponseCode();
+        try (final InputStream inputStream = status >= 400 ? connection.getErrorStream() :
+            connection.getInputStream()) {
+            final byte[] response = inputStream == null ? new byte[0] : inputStream.readAllBytes();
+            if (status >= 400) {
+                throw new IOException(String.format("%s returned status %d", url, status));
+            }
+            return response;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+
+        void run() throws IOException;
+
+    }
+
+    /**
+     * Latency recorder for one request type
+     */
+    private static final class Recorder {
+
+        private final String name;
+        private final List<Long> latencies = new ArrayList<>();
+        private final LongAdder errors = new LongAdder();
+
+        private Recorder(final String name) {
+            this.name = name;
+        }
+
+        private void time(final Request request) {
+            final long start = System.nanoTime();
+            try {
+                request.run();
+            } catch (final IOException e) {
+                if (this.errors.sum() < 5) {
+                    System.out.printf("%s failed: %s%n", this.name, e.getMessage());
+                }
+                this.errors.increment();
+                return;
+            }
+            final long latency = System.nanoTime() - start;
+            synchronized (this.latencies) {
+                this.latencies.add(latency);
+            }
+        }
+
+        private void report(final long durationNanos) {
+            final List<Long> latencies;
+            synchronized (this.latencies) {
+                latencies = new ArrayList<>(this.latencies);
+            }
+            Collections.sort(latencies);
+            final double seconds = durationNanos / 1e9;
+            System.out.printf("%-7s %7d ok %5d errors %9.1f req/s  p50 %8.2f ms  p90 %8.2f ms  p99 %8.2f ms  "
+                    + "max %8.2f ms%n", this.name, latencies.size(), this.errors.sum(), latencies.size() / seconds,
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 1.0));
+        }
+
+        private static double percentile(final List<Long> sorted, final double percentile) {
+            if (sorted.isEmpty()) {
+                return 0.0;
+            }
+            final int index = (int) Math.min(sorted.size() - 1, Math.ceil(percentile * sorted.size()) - 1);
+            return sorted.get(Math.max(0, index)) / 1e6;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Realistic paste payloads used by the benchmarks and the load generator
+ */
+public enum Payload {
+
+    /**
+     * A single small configuration file
+     */
+    SMALL_CONFIG(new String[] {"settings.yml"}, new int[] {4 * 1024}),
+    /**
+     * A single server log
+     */
+    LOG_1MB(new String[] {"latest.log"}, new int[] {1024 * 1024}),
+    /**
+     * A debug paste with a large log, configuration files and a plugin list
+     */
+    MULTI_FILE_16MB(new String[] {"latest.log", "settings.yml", "worlds.yml", "plugins.txt", "debug.json"},
+        new int[] {15 * 1024 * 1024, 256 * 1024, 256 * 1024, 64 * 1024, 448 * 1024});
+
+    private static final String[] LOG_LINES = {
+        "[12:00:01] [Server thread/INFO]: Loading \"plots.yml\" from C:\\server\\plugins\\PlotSquared\n",
+        "[12:00:02] [Server thread/WARN]: Could not pass event PlayerMoveEvent to FastAsyncWorldEdit v1.13.2\n",
+        "java.lang.IllegalStateException: Asynchronous chunk load!\n",
+        "\tat org.bukkit.craftbukkit.v1_13_R2.CraftWorld.getChunkAt(CraftWorld.java:154)\n",
+        "\tat com.boydti.fawe.bukkit.v1_13.BukkitQueue_1_13.loadChunk(BukkitQueue_1_13.java:212)\n",
+        "\t... 12 more\n",
+        "[12:00:03] [Server thread/INFO]: Player Jürgen joined the game – welcome! ✔\n"
+    };
+    private static final String[] YAML_LINES = {
+        "# Settings for world plot generation\n", "worlds:\n", "  plotworld:\n", "    plot:\n",
+        "      height: 64 # ground level\n", "      size: 42\n", "      biome: 'FOREST'\n", "      auto_merge: false\n",
+        "    road:\n", "      block: \"quartz_block\"\n", "      width: 7\n"
+    };
+    private static final String[] JSON_LINES = {
+        "{\"plugin\": \"PlotSquared\", \"version\": \"4.0.0\", \"enabled\": true, \"load\": 1.25},\n",
+        "{\"plugin\": \"FastAsyncWorldEdit\", \"version\": \"1.13.2-r17\", \"enabled\": true, \"load\": null},\n"
+    };
+
+    private final String[] fileNames;
+    private final int[] sizes;
+
+    Payload(final String[] fileNames, final int[] sizes) {
+        this.fileNames = fileNames;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Generate the files of the payload, in upload order
+     *
+     * @return File names mapped to file contents
+     */
+    public Map<String, String> generate() {
+        final Map<String, String> files = new LinkedHashMap<>();
+        for (int i = 0; i < this.fileNames.length; i++) {
+            files.put(this.fileNames[i], generate(this.fileNames[i], this.sizes[i]));
+        }
+        return files;
+    }
+
+    private static String generate(final String fileName, final int size) {
+        final String[] lines;
+        if (fileName.endsWith(".yml")) {
+            lines = YAML_LINES;
+        } else if (fileName.endsWith(".json")) {
+            lines = JSON_LINES;
+        } else if (fileName.endsWith(".txt")) {
+            lines = new String[] {"PlotSquared 4.0.0\n", "FastAsyncWorldEdit 1.13.2-r17\n", "WorldGuard 7.0.0\n"};
+        } else {
+            lines = LOG_LINES;
+        }
+        final StringBuilder builder = new StringBuilder(size + 128);
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append(lines[i % lines.length]);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.incendo.paste.cache.PasteCache;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.storage.FlatFilePasteStore;
+import org.incendo.paste.storage.PasteContainer;
+import org.incendo.paste.storage.PasteStore;
+import org.incendo.paste.template.TemplateFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the view hot paths: loading a paste from disk or from the cache,
+ * rendering its page, and reading its raw representation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ViewBenchmark {
+
+    private static final String PASTE_ID = "0123456789abcdef0123456789abcdef";
+
+    @Param({"SMALL_CONFIG", "LOG_1MB", "MULTI_FILE_16MB"})
+    public Payload payload;
+
+    private Path folder;
+    private PasteStore pasteStore;
+    private PasteCache<StoredPaste> pasteCache;
+    private PasteCache<String> contentCache;
+    private PasteCache<String> fragmentCache;
+    private PasteRenderer renderer;
+
+    @Setup
+    public void setup() throws IOException {
+        final Map<String, String> files = this.payload.generate();
+        this.folder = Files.createTempDirectory("paste-benchmark");
+        this.pasteStore = new FlatFilePasteStore(this.folder.toFile(), PasteContainer.Codec.GZIP);
+        this.pasteStore.write(new StoredPaste(PASTE_ID, System.currentTimeMillis(), "kvantum",
+            files.keySet().toArray(new String[0]), files.values().toArray(new String[0])));
+        this.pasteCache = new PasteCache<>("pastes", 1024L * 1024L * 1024L, 60L, StoredPaste::getWeight);
+        this.contentCache = new PasteCache<>("contents", 1024L * 1024L * 1024L, 60L, String::length);
+        this.fragmentCache = new PasteCache<>("fragments", 1024L * 1024L * 1024L, 60L, String::length);
+        final TemplateFile template = new TemplateFile(Paths.get("kvantum", "templates", "paste_view.html"), () -> {
+        }, "paste_id", "paste_time", "file_list", "file_content");
+        this.renderer = new PasteRenderer(this.pasteStore, this.pasteCache, this.contentCache,
+            this.fragmentCache, template, new PasteMetrics(), 500);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.pasteStore.close();
+        try (final Stream<Path> paths = Files.walk(this.folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private void invalidateAll() {
+        this.pasteCache.invalidate(PASTE_ID);
+        this.contentCache.invalidateAll();
+        this.fragmentCache.invalidateAll();
+    }
+
+    @Benchmark
+    public StoredPaste loadPasteCold() {
+        this.invalidateAll();
+        return this.renderer.loadPaste(PASTE_ID);
+    }
+
+    /**
+     * Load a paste whose files are already cached as part of another paste
+     */
+    @Benchmark
+    public StoredPaste loadPasteSharedFiles() {
+        this.pasteCache.invalidate(PASTE_ID);
+        return this.renderer.loadPaste(PASTE_ID);
+    }
+
+    @Benchmark
+    public StoredPaste loadPasteCached() {
+        return this.renderer.loadPaste(PASTE_ID);
+    }
+
+    @Benchmark
+    public byte[] renderPageCold() {
+        this.invalidateAll();
+        return this.renderer.renderPaste(this.renderer.getPaste(PASTE_ID));
+    }
+
+    @Benchmark
+    public byte[] renderPageSharedFiles() {
+        this.pasteCache.invalidate(PASTE_ID);
+        return this.renderer.renderPaste(this.renderer.getPaste(PASTE_ID));
+    }
+
+    @Benchmark
+    public byte[] renderPageCached() {
+        return this.renderer.renderPaste(this.renderer.getPaste(PASTE_ID));
+    }
+
+    @Benchmark
+    public byte[] readRaw() throws IOException {
+        return this.pasteStore.readRaw(PASTE_ID);
+    }
+
+}
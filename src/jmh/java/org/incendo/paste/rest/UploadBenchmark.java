@@ -0,0 +1,144 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.rest;
+
+import org.incendo.paste.Payload;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.storage.FlatFilePasteStore;
+import org.incendo.paste.storage.PasteCommitQueue;
+import org.incendo.paste.storage.PasteContainer;
+import org.incendo.paste.storage.PasteStore;
+import org.incendo.paste.throttle.RateLimit;
+import org.incendo.paste.throttle.RateLimiter;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks {@link UploadService} from a decoded request body to a stored paste.
+ * Kvantum request parsing is left out, the body is handed over as a member lookup,
+ * like {@link UploadService#generate} does after decoding the request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class UploadBenchmark {
+
+    @Param({"SMALL_CONFIG", "LOG_1MB", "MULTI_FILE_16MB"})
+    public Payload payload;
+
+    private final Map<String, String> body = new HashMap<>();
+    private final AtomicLong uploads = new AtomicLong();
+    private Path folder;
+    private PasteStore pasteStore;
+    private PasteCommitQueue commitQueue;
+    private UploadService uploadService;
+
+    @Setup
+    public void setup() throws IOException {
+        final Map<String, String> files = this.payload.generate();
+        this.body.put("paste_application", "kvantum");
+        this.body.put("files", String.join(",", files.keySet()));
+        files.forEach((fileName, content) -> this.body.put(String.format("file-%s", fileName), content));
+        this.folder = Files.createTempDirectory("paste-benchmark");
+        this.pasteStore = new FlatFilePasteStore(this.folder.toFile(), PasteContainer.Codec.GZIP);
+        // Every upload comes from the same address, so the limit has to be out of reach
+        final RateLimiter rateLimiter = new RateLimiter(applicationId -> new RateLimit(Integer.MAX_VALUE, 1L),
+            16L, TimeUnit.MINUTES.toMillis(1L));
+        final PasteMetrics metrics = new PasteMetrics();
+        this.commitQueue = new PasteCommitQueue(this.pasteStore, 256, Long.MAX_VALUE, 64, metrics.getCommitBatchSize());
+        this.uploadService = new UploadService(this.commitQueue, rateLimiter, Long.MAX_VALUE,
+            TimeUnit.MINUTES.toMillis(1L), null, null, metrics);
+    }
+
+    /**
+     * Remove the pastes created during an iteration, so they don't pile up on disk
+     */
+    @TearDown(Level.Iteration)
+    public void deletePastes() throws IOException {
+        for (final String id : this.pasteStore.getIds()) {
+            this.pasteStore.delete(id);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.commitQueue.close();
+        this.pasteStore.close();
+        try (final Stream<Path> paths = Files.walk(this.folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Upload the payload. Every file is prefixed with a line that is unique to the
+     * invocation, so that files are stored rather than found by their content hash
+     */
+    @Benchmark
+    public JSONObject upload() {
+        final String prefix = String.format("# upload %d%n", this.uploads.incrementAndGet());
+        final JSONObject response = this.uploadService.upload(member -> {
+            final String value = this.body.get(member);
+            return value != null && member.startsWith("file-") ? prefix + value : value;
+        }, "127.0.0.1");
+        if (!response.containsKey("paste_id")) {
+            throw new IllegalStateException(String.format("Upload failed: %s", response.toJSONString()));
+        }
+        return response;
+    }
+
+    /**
+     * Concurrent uploads, which the commit queue stores in shared batches
+     */
+    @Benchmark
+    @Threads(16)
+    public JSONObject uploadConcurrent() {
+        return this.upload();
+    }
+
+}
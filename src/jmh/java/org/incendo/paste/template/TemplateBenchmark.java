@@ -0,0 +1,102 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering the paste view with a {@link CompiledTemplate} to the
+ * sequential {@link String#replace} calls it replaced. Run with the gc
+ * profiler to see the allocations per view
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"64", "4096"})
+    public int contentKilobytes;
+
+    private String source;
+    private CompiledTemplate template;
+    private Collection<String> fileTargets;
+    private Collection<String> fileContent;
+
+    @Setup
+    public void setup() throws IOException {
+        this.source = new String(Files.readAllBytes(Paths.get("kvantum", "templates", "paste_view.html")),
+            StandardCharsets.UTF_8);
+        this.template = CompiledTemplate.compile(this.source, "paste_id", "paste_time", "file_list", "file_content");
+        this.fileTargets = new ArrayList<>();
+        this.fileContent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            this.fileTargets.add(String.format("<li><a data-target='#content-%d'>file-%d.log</a></li>", i, i));
+            final StringBuilder content = new StringBuilder();
+            while (content.length() < this.contentKilobytes * 1024 / 3) {
+                content.append("<span class=\"hljs-meta\">[12:00:01]</span> [Server thread/INFO]: Done &amp; ready\n");
+            }
+            this.fileContent.add(content.toString());
+        }
+    }
+
+    @Benchmark
+    public byte[] compiledTemplate() {
+        final OutputBuffer output = OutputBuffer.acquire();
+        try {
+            this.template.render(output, "4f1e5c", "Wed Jan 02 01:10:55 CET 2019", this.fileTargets, this.fileContent);
+            return output.toByteArray();
+        } finally {
+            output.release();
+        }
+    }
+
+    @Benchmark
+    public byte[] stringReplace() {
+        return this.source.replace("{paste_id}", "4f1e5c")
+            .replace("{paste_time}", "Wed Jan 02 01:10:55 CET 2019")
+            .replace("{file_list}", String.join("\n", this.fileTargets))
+            .replace("{file_content}", String.join("\n", this.fileContent))
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -5,8 +5,19 @@ import com.google.common.base.Charsets;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Single class paster for the Incendo paste service
@@ -27,6 +38,12 @@ public final class IncendoPaster {
 
     private final Collection<PasteFile> files = new ArrayList<>();
     private final String pasteApplication;
+    private final String uploadPath;
+    private int connectTimeout = (int) TimeUnit.SECONDS.toMillis(10);
+    private int readTimeout = (int) TimeUnit.SECONDS.toMillis(30);
+    private int maxRetries = 2;
+    private long retryBackoff = TimeUnit.SECONDS.toMillis(1);
+    private boolean compressed;
 
     /**
      * Construct a new paster
@@ -34,6 +51,20 @@ public final class IncendoPaster {
      * @param pasteApplication The application that is sending the paste
      */
     public IncendoPaster(final String pasteApplication) {
+        this(pasteApplication, UPLOAD_PATH);
+    }
+
+    /**
+     * Construct a new paster that uploads to a custom endpoint
+     *
+     * @param pasteApplication The application that is sending the paste
+     * @param uploadPath Upload service URL
+     */
+    public IncendoPaster(final String pasteApplication, final String uploadPath) {
+        if (uploadPath == null || uploadPath.isEmpty()) {
+            throw new IllegalArgumentException("upload path cannot be null, nor empty");
+        }
+        this.uploadPath = uploadPath;
         if (pasteApplication == null || pasteApplication.isEmpty()) {
             throw new IllegalArgumentException("paste application cannot be null, nor empty");
         }
@@ -43,6 +74,50 @@ public final class IncendoPaster {
         this.pasteApplication = pasteApplication;
     }
 
+    /**
+     * Set the connection and read timeouts
+     *
+     * @param connectTimeout Connect timeout, in milliseconds
+     * @param readTimeout Read timeout, in milliseconds
+     */
+    public void setTimeouts(final int connectTimeout, final int readTimeout) {
+        if (connectTimeout < 0 || readTimeout < 0) {
+            throw new IllegalArgumentException("timeouts cannot be negative");
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Set how often failed uploads are retried. Uploads are retried when the connection
+     * cannot be established, or when the server responds with a 5xx status. Failures
+     * after the body started being sent, such as read timeouts, aren't retried, as the
+     * server may have stored the paste already. The delay starts at the given backoff,
+     * and doubles after every attempt
+     *
+     * @param maxRetries Maximum number of retries, 0 to disable retrying
+     * @param retryBackoff Delay before the first retry, in milliseconds
+     */
+    public void setRetries(final int maxRetries, final long retryBackoff) {
+        if (maxRetries < 0 || retryBackoff < 0) {
+            throw new IllegalArgumentException("retries and backoff cannot be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * Set whether the request body is gzip compressed, which usually makes pastes
+     * 5-10 times smaller to upload. Compressed bodies are sent as {@code application/octet-stream}
+     * with a gzip {@code Content-Encoding}. Compression is off by default, as it requires a
+     * paste service that decodes compressed request bodies
+     *
+     * @param compressed Whether to compress the request body
+     */
+    public void setCompressed(final boolean compressed) {
+        this.compressed = compressed;
+    }
+
     /**
      * Get an immutable collection containing all the files that have been added to this paster
      *
@@ -72,76 +147,484 @@ public final class IncendoPaster {
     }
 
     /**
-     * Create a JSON string from the submitted information
+     * Write the JSON representation of the submitted information as UTF-8
      *
-     * @return compiled JSON string
+     * @param outputStream Target stream
+     * @throws IOException If the stream fails
      */
-    private String toJsonString() {
-        final StringBuilder builder = new StringBuilder("{\n");
-        builder.append("\"paste_application\": \"").append(this.pasteApplication).append("\",\n\"files\": \"");
-        Iterator<PasteFile> fileIterator = this.files.iterator();
+    void writeJson(final OutputStream outputStream) throws IOException {
+        this.writeJson(outputStream, this.files);
+    }
+
+    private void writeJson(final OutputStream outputStream, final Collection<PasteFile> files) throws IOException {
+        final JsonEncoder encoder = new JsonEncoder(outputStream);
+        encoder.writeRaw("{\n\"paste_application\": ");
+        encoder.beginString();
+        encoder.writeChars(this.pasteApplication);
+        encoder.endString();
+        encoder.writeRaw(",\n\"files\": ");
+        encoder.beginString();
+        Iterator<PasteFile> fileIterator = files.iterator();
         while (fileIterator.hasNext()) {
             final PasteFile file = fileIterator.next();
-            builder.append(file.getFileName());
+            encoder.writeChars(file.getFileName());
             if (fileIterator.hasNext()) {
-                builder.append(",");
+                encoder.writeChars(",");
             }
         }
-        builder.append("\",\n");
-        fileIterator = this.files.iterator();
+        encoder.endString();
+        encoder.writeRaw(",\n");
+        fileIterator = files.iterator();
         while (fileIterator.hasNext()) {
             final PasteFile file = fileIterator.next();
-            builder.append("\"file-").append(file.getFileName()).append("\": \"")
-                .append(file.getContent().replaceAll("\"", "\\\\\"")).append("\"");
+            encoder.beginString();
+            encoder.writeChars("file-");
+            encoder.writeChars(file.getFileName());
+            encoder.endString();
+            encoder.writeRaw(": ");
+            encoder.beginString();
+            try (final Reader reader = file.openReader()) {
+                encoder.writeChars(reader);
+            }
+            encoder.endString();
             if (fileIterator.hasNext()) {
-                builder.append(",\n");
+                encoder.writeRaw(",\n");
             }
         }
-        builder.append("\n}");
-        return builder.toString();
+        encoder.writeRaw("\n}");
+        encoder.flush();
     }
 
     /**
-     * Upload the paste and return the status message
+     * Upload the paste and return the status message. This blocks until the upload
+     * has finished; use {@link #uploadAsync(Executor)} from latency sensitive threads
      *
      * @return Status message
      * @throws Throwable any and all exceptions
      */
     public final String upload() throws Throwable {
-        final URL url = new URL(UPLOAD_PATH);
-        final URLConnection connection = url.openConnection();
-        final HttpURLConnection httpURLConnection = (HttpURLConnection) connection;
+        try {
+            return this.uploadAsync(Runnable::run).join().getResponse();
+        } catch (final CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Upload the paste asynchronously. The request body is streamed to the server, and
+     * failed attempts are retried according to {@link #setRetries(int, long)} without
+     * blocking a thread while waiting. Connections are reused between uploads through
+     * the JVM wide HTTP keep-alive cache
+     *
+     * @param executor Executor that performs the upload
+     * @return Future completed with the upload result, or exceptionally if the upload failed
+     */
+    public final CompletableFuture<UploadResult> uploadAsync(final Executor executor) {
+        final CompletableFuture<UploadResult> future = new CompletableFuture<>();
+        this.attemptUpload(executor, future, 0);
+        return future;
+    }
+
+    private void attemptUpload(final Executor executor, final CompletableFuture<UploadResult> future, final int attempt) {
+        final Executor attemptExecutor = attempt == 0 ? executor :
+            CompletableFuture.delayedExecutor(this.retryBackoff << Math.min(attempt - 1, 16), TimeUnit.MILLISECONDS,
+                executor);
+        attemptExecutor.execute(() -> {
+            try {
+                future.complete(this.send());
+            } catch (final RetryableException e) {
+                if (attempt < this.maxRetries) {
+                    this.attemptUpload(executor, future, attempt + 1);
+                } else {
+                    future.completeExceptionally(e.getCause() == null ? e : e.getCause());
+                }
+            } catch (final Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private UploadResult send() throws IOException, RetryableException {
+        // Compressed bodies are small enough to buffer. Otherwise, the length is computed
+        // in a separate pass, so the body never has to be held in memory. Files are read up
+        // to the size they had before the first pass, so that both passes see the same
+        // content while a log file keeps growing
+        final Collection<PasteFile> files = new ArrayList<>(this.files.size());
+        for (final PasteFile file : this.files) {
+            files.add(file.snapshot());
+        }
+        final ByteArrayOutputStream compressedBody;
+        final long contentLength;
+        if (this.compressed) {
+            compressedBody = new ByteArrayOutputStream(8192);
+            try (final OutputStream outputStream = new GZIPOutputStream(compressedBody, 8192)) {
+                this.writeJson(outputStream, files);
+            }
+            contentLength = compressedBody.size();
+        } else {
+            compressedBody = null;
+            final CountingOutputStream counter = new CountingOutputStream();
+            this.writeJson(counter, files);
+            contentLength = counter.getCount();
+        }
+
+        final HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(this.uploadPath).openConnection();
         httpURLConnection.setRequestMethod("POST");
         httpURLConnection.setDoOutput(true);
-        final byte[] content = toJsonString().getBytes(Charsets.UTF_8);
-        httpURLConnection.setFixedLengthStreamingMode(content.length);
-        httpURLConnection.setRequestProperty("Content-Type", "application/json");
+        httpURLConnection.setConnectTimeout(this.connectTimeout);
+        httpURLConnection.setReadTimeout(this.readTimeout);
+        httpURLConnection.setFixedLengthStreamingMode(contentLength);
+        if (compressedBody != null) {
+            // Declared as binary, so that the server hands the body over unparsed
+            httpURLConnection.setRequestProperty("Content-Type", "application/octet-stream");
+            httpURLConnection.setRequestProperty("Content-Encoding", "gzip");
+        } else {
+            httpURLConnection.setRequestProperty("Content-Type", "application/json");
+        }
         httpURLConnection.setRequestProperty("Accept", "*/*");
-        httpURLConnection.connect();
-        try (final OutputStream stream = httpURLConnection.getOutputStream()) {
-            stream.write(content);
+        final OutputStream bodyStream;
+        try {
+            httpURLConnection.connect();
+            bodyStream = httpURLConnection.getOutputStream();
+        } catch (final IOException e) {
+            // Nothing was sent, so the upload can safely be attempted again
+            httpURLConnection.disconnect();
+            throw new RetryableException(e);
+        }
+        try {
+            try (final OutputStream outputStream = bodyStream) {
+                if (compressedBody != null) {
+                    compressedBody.writeTo(outputStream);
+                } else {
+                    this.writeJson(outputStream, files);
+                }
+            }
+            final int status = httpURLConnection.getResponseCode();
+            final InputStream responseStream = status >= 400 ? httpURLConnection.getErrorStream() :
+                httpURLConnection.getInputStream();
+            // Always read the response fully, so the connection can be reused
+            final StringBuilder input = new StringBuilder();
+            if (responseStream != null) {
+                try (final BufferedReader inputStream = new BufferedReader(new InputStreamReader(responseStream,
+                    Charsets.UTF_8))) {
+                    String line;
+                    while ((line = inputStream.readLine()) != null) {
+                        input.append(line).append("\n");
+                    }
+                }
+            }
+            if (status >= 500) {
+                throw new RetryableException(new IllegalStateException(String.format("Server returned status: %d %s",
+                    status, httpURLConnection.getResponseMessage())));
+            }
+            if (status < 200 || status >= 300) {
+                throw new IllegalStateException(String.format("Server returned status: %d %s",
+                    status, httpURLConnection.getResponseMessage()));
+            }
+            return new UploadResult(status, input.toString());
+        } catch (final IOException e) {
+            httpURLConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Result of a successful upload
+     */
+    public static final class UploadResult {
+
+        private final int statusCode;
+        private final String response;
+
+        private UploadResult(final int statusCode, final String response) {
+            this.statusCode = statusCode;
+            this.response = response;
+        }
+
+        /**
+         * Get the HTTP status code returned by the server
+         *
+         * @return Status code
+         */
+        public int getStatusCode() {
+            return this.statusCode;
+        }
+
+        /**
+         * Get the response body, containing the paste ID
+         *
+         * @return Response body
+         */
+        public String getResponse() {
+            return this.response;
+        }
+
+    }
+
+    private static final class RetryableException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private RetryableException(final Throwable cause) {
+            super(cause);
+        }
+
+    }
+
+    /**
+     * Stream that ends after a given number of bytes
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private BoundedInputStream(final InputStream inputStream, final long limit) {
+            super(inputStream);
+            this.remaining = limit;
+        }
+
+        @Override public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int b = super.read();
+            if (b != -1) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int read = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (read > 0) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+
+        @Override public long skip(final long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, this.remaining));
+            this.remaining -= skipped;
+            return skipped;
+        }
+
+        @Override public int available() throws IOException {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+
+    }
+
+    /**
+     * Stream that discards its input, counting the number of bytes written
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override public void write(final int b) {
+            this.count++;
+        }
+
+        @Override public void write(final byte[] b, final int off, final int len) {
+            this.count += len;
+        }
+
+        private long getCount() {
+            return this.count;
+        }
+
+    }
+
+    /**
+     * Streaming JSON encoder that writes UTF-8 straight into a reusable byte buffer. Strings
+     * are escaped according to RFC 8259 in a single pass over their characters. Unpaired
+     * surrogates are written as unicode escapes, so no character is ever lost
+     */
+    static final class JsonEncoder {
+
+        private static final byte[] HEX = "0123456789abcdef".getBytes(Charsets.US_ASCII);
+        /**
+         * Escape character for each ASCII character, 'u' for a unicode escape, or 0 if
+         * the character doesn't need to be escaped
+         */
+        private static final byte[] ESCAPES = new byte[128];
+
+        static {
+            for (int i = 0; i < 0x20; i++) {
+                ESCAPES[i] = 'u';
+            }
+            ESCAPES['"'] = '"';
+            ESCAPES['\\'] = '\\';
+            ESCAPES['\b'] = 'b';
+            ESCAPES['\f'] = 'f';
+            ESCAPES['\n'] = 'n';
+            ESCAPES['\r'] = 'r';
+            ESCAPES['\t'] = 't';
+        }
+
+        private final OutputStream outputStream;
+        private final byte[] buffer = new byte[8192];
+        private final char[] chars = new char[4096];
+        private int position;
+        private char highSurrogate;
+
+        JsonEncoder(final OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        /**
+         * Write structural JSON text as is. The text must only contain ASCII characters
+         *
+         * @param text Text to write
+         * @throws IOException If the stream fails
+         */
+        void writeRaw(final String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                if (this.position == this.buffer.length) {
+                    this.flushBuffer();
+                }
+                this.buffer[this.position++] = (byte) text.charAt(i);
+            }
+        }
+
+        void beginString() throws IOException {
+            this.writeRaw("\"");
+        }
+
+        void endString() throws IOException {
+            if (this.highSurrogate != 0) {
+                this.ensureCapacity();
+                this.writeUnicodeEscape(this.highSurrogate);
+                this.highSurrogate = 0;
+            }
+            this.writeRaw("\"");
+        }
+
+        /**
+         * Write the escaped characters of a string, without quotes
+         *
+         * @param text Characters to write
+         * @throws IOException If the stream fails
+         */
+        void writeChars(final String text) throws IOException {
+            for (int offset = 0; offset < text.length(); ) {
+                final int count = Math.min(this.chars.length, text.length() - offset);
+                text.getChars(offset, offset + count, this.chars, 0);
+                this.encode(this.chars, count);
+                offset += count;
+            }
+        }
+
+        /**
+         * Write the escaped characters of a reader, without quotes
+         *
+         * @param reader Characters to write
+         * @throws IOException If the reader or the stream fails
+         */
+        void writeChars(final Reader reader) throws IOException {
+            int read;
+            while ((read = reader.read(this.chars)) != -1) {
+                this.encode(this.chars, read);
+            }
         }
-        if (!httpURLConnection.getResponseMessage().contains("OK")) {
-            throw new IllegalStateException(String.format("Server returned status: %d %s",
-                httpURLConnection.getResponseCode(), httpURLConnection.getResponseMessage()));
+
+        void flush() throws IOException {
+            this.flushBuffer();
+            this.outputStream.flush();
+        }
+
+        private void encode(final char[] chars, final int length) throws IOException {
+            final byte[] buffer = this.buffer;
+            for (int i = 0; i < length; i++) {
+                this.ensureCapacity();
+                final char c = chars[i];
+                if (this.highSurrogate != 0) {
+                    final char high = this.highSurrogate;
+                    this.highSurrogate = 0;
+                    if (Character.isLowSurrogate(c)) {
+                        final int codePoint = Character.toCodePoint(high, c);
+                        buffer[this.position++] = (byte) (0xF0 | (codePoint >> 18));
+                        buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3F));
+                        continue;
+                    }
+                    this.writeUnicodeEscape(high);
+                }
+                if (c < 0x80) {
+                    final byte escape = ESCAPES[c];
+                    if (escape == 0) {
+                        buffer[this.position++] = (byte) c;
+                    } else if (escape == 'u') {
+                        this.writeUnicodeEscape(c);
+                    } else {
+                        buffer[this.position++] = '\\';
+                        buffer[this.position++] = escape;
+                    }
+                } else if (c < 0x800) {
+                    buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c)) {
+                    this.highSurrogate = c;
+                } else if (Character.isLowSurrogate(c)) {
+                    this.writeUnicodeEscape(c);
+                } else {
+                    buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void writeUnicodeEscape(final char c) {
+            final byte[] buffer = this.buffer;
+            buffer[this.position++] = '\\';
+            buffer[this.position++] = 'u';
+            buffer[this.position++] = HEX[(c >> 12) & 0xF];
+            buffer[this.position++] = HEX[(c >> 8) & 0xF];
+            buffer[this.position++] = HEX[(c >> 4) & 0xF];
+            buffer[this.position++] = HEX[c & 0xF];
+        }
+
+        /**
+         * Make room for the longest sequence a single character can produce: an
+         * escaped unpaired surrogate followed by the escape of the next character
+         */
+        private void ensureCapacity() throws IOException {
+            if (this.position > this.buffer.length - 12) {
+                this.flushBuffer();
+            }
         }
-        final StringBuilder input = new StringBuilder();
-        try (final BufferedReader inputStream = new BufferedReader(new InputStreamReader(httpURLConnection.getInputStream()))) {
-            String line;
-            while ((line = inputStream.readLine()) != null) {
-                input.append(line).append("\n");
+
+        private void flushBuffer() throws IOException {
+            if (this.position > 0) {
+                this.outputStream.write(this.buffer, 0, this.position);
+                this.position = 0;
             }
         }
-        return input.toString();
+
     }
 
     /**
-     * Simple class that represents a paste file
+     * Simple class that represents a paste file. File contents can either be given as a string, or
+     * be read lazily from a path or a stream while the paste is uploaded, in which case they are
+     * never held in memory in full. Lazily read contents are expected to be UTF-8 encoded
      */
     public static class PasteFile {
 
         private final String fileName;
         private final String content;
+        private final Path path;
+        private final Supplier<InputStream> streamSupplier;
+        private final long tailBytes;
+        private final int tailLines;
+        /**
+         * Number of bytes of the file that are read, or -1 to read it up to its end
+         */
+        private final long sizeLimit;
 
         /**
          * Construct a new paste file
@@ -150,14 +633,99 @@ public final class IncendoPaster {
          * @param content File content, cannot be empty, nor null
          */
         public PasteFile(final String fileName, final String content) {
-            if (fileName == null || fileName.isEmpty()) {
-                throw new IllegalArgumentException("file name cannot be null, nor empty");
-            }
+            this(fileName, content, null, null, -1L, -1, -1L);
             if (content == null || content.isEmpty()) {
                 throw new IllegalArgumentException("content cannot be null, nor empty");
             }
+        }
+
+        private PasteFile(final String fileName, final String content, final Path path,
+            final Supplier<InputStream> streamSupplier, final long tailBytes, final int tailLines, final long sizeLimit) {
+            if (fileName == null || fileName.isEmpty()) {
+                throw new IllegalArgumentException("file name cannot be null, nor empty");
+            }
             this.fileName = fileName;
             this.content = content;
+            this.path = path;
+            this.streamSupplier = streamSupplier;
+            this.tailBytes = tailBytes;
+            this.tailLines = tailLines;
+            this.sizeLimit = sizeLimit;
+        }
+
+        /**
+         * Create a paste file that is read from disk during the upload
+         *
+         * @param fileName File name, cannot be empty, nor null
+         * @param path File to read, must be a regular file
+         * @return Paste file
+         */
+        public static PasteFile ofPath(final String fileName, final Path path) {
+            if (path == null || !Files.isRegularFile(path)) {
+                throw new IllegalArgumentException(String.format("%s is not a regular file", path));
+            }
+            return new PasteFile(fileName, null, path, null, -1L, -1, -1L);
+        }
+
+        /**
+         * Create a paste file that is read from a stream during the upload. The supplier
+         * may be called more than once per upload, and must return a new stream each time
+         *
+         * @param fileName File name, cannot be empty, nor null
+         * @param streamSupplier Supplier of the file content
+         * @return Paste file
+         */
+        public static PasteFile ofStream(final String fileName, final Supplier<InputStream> streamSupplier) {
+            if (streamSupplier == null) {
+                throw new IllegalArgumentException("stream supplier cannot be null");
+            }
+            return new PasteFile(fileName, null, null, streamSupplier, -1L, -1, -1L);
+        }
+
+        /**
+         * Get a copy of this file that only contains its last bytes. The cut is moved
+         * forward to the next character boundary. For files created from a string, the
+         * limit is applied to characters instead
+         *
+         * @param maxBytes Maximum number of bytes to include
+         * @return Truncated paste file
+         */
+        public PasteFile tailBytes(final long maxBytes) {
+            if (maxBytes < 1 || (this.content == null && this.path == null && maxBytes > Integer.MAX_VALUE - 8)) {
+                throw new IllegalArgumentException(String.format("Invalid byte limit: %d", maxBytes));
+            }
+            return new PasteFile(this.fileName, this.content, this.path, this.streamSupplier, maxBytes, this.tailLines,
+                this.sizeLimit);
+        }
+
+        /**
+         * Get a copy of this file that only contains its last lines. When combined with
+         * {@link #tailBytes(long)}, both limits apply
+         *
+         * @param maxLines Maximum number of lines to include
+         * @return Truncated paste file
+         */
+        public PasteFile tailLines(final int maxLines) {
+            if (maxLines < 1) {
+                throw new IllegalArgumentException(String.format("Invalid line limit: %d", maxLines));
+            }
+            return new PasteFile(this.fileName, this.content, this.path, this.streamSupplier, this.tailBytes, maxLines,
+                this.sizeLimit);
+        }
+
+        /**
+         * Get a copy of this file that is only read up to its current size, so that it has
+         * the same content every time it is read, even if it is appended to in the meantime
+         *
+         * @return Paste file of a fixed size
+         * @throws IOException If the size of the file cannot be read
+         */
+        PasteFile snapshot() throws IOException {
+            if (this.path == null) {
+                return this;
+            }
+            return new PasteFile(this.fileName, null, this.path, null, this.tailBytes, this.tailLines,
+                Files.size(this.path));
         }
 
         /**
@@ -170,13 +738,195 @@ public final class IncendoPaster {
         }
 
         /**
-         * Get the file content as a single string
+         * Get the file content as a single string. For lazily read files, this reads
+         * the entire (truncated) content into memory
          *
          * @return File content
          */
         public String getContent() {
-            return this.content;
+            if (this.content != null && this.tailBytes < 0 && this.tailLines < 0) {
+                return this.content;
+            }
+            final StringWriter writer = new StringWriter();
+            try (final Reader reader = this.openReader()) {
+                reader.transferTo(writer);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+
+        /**
+         * Open a reader over the (truncated) file content
+         *
+         * @return Content reader
+         * @throws IOException If the content cannot be read
+         */
+        public Reader openReader() throws IOException {
+            if (this.content != null) {
+                String content = this.content;
+                if (this.tailLines > 0) {
+                    int index = content.endsWith("\n") ? content.length() - 1 : content.length();
+                    for (int i = 0; i < this.tailLines && index >= 0; i++) {
+                        index = index == 0 ? -1 : content.lastIndexOf('\n', index - 1);
+                    }
+                    content = content.substring(index + 1);
+                }
+                if (this.tailBytes > 0 && content.length() > this.tailBytes) {
+                    content = content.substring(content.length() - (int) this.tailBytes);
+                }
+                return new StringReader(content);
+            }
+            final InputStream inputStream = this.path != null ? this.openPath() : this.openStream();
+            return new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8), 8192);
+        }
+
+        private InputStream openPath() throws IOException {
+            final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ);
+            try {
+                final long size = this.sizeLimit >= 0 ? Math.min(this.sizeLimit, channel.size()) : channel.size();
+                long start = this.tailBytes > 0 ? Math.max(0L, size - this.tailBytes) : 0L;
+                if (this.tailLines > 0) {
+                    start = findTailLines(channel, size, this.tailLines, start);
+                }
+                channel.position(start);
+                final InputStream inputStream = new BufferedInputStream(new BoundedInputStream(
+                    Channels.newInputStream(channel), size - start), 8192);
+                if (start > 0) {
+                    skipContinuationBytes(inputStream);
+                }
+                return inputStream;
+            } catch (final IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private InputStream openStream() throws IOException {
+            final InputStream inputStream = this.streamSupplier.get();
+            if (inputStream == null) {
+                throw new IOException(String.format("No content available for %s", this.fileName));
+            }
+            if (this.tailBytes < 0 && this.tailLines < 0) {
+                return inputStream;
+            }
+            final byte[] tail;
+            final boolean truncated;
+            try (final InputStream stream = inputStream) {
+                if (this.tailBytes > 0) {
+                    final byte[] ring = new byte[(int) this.tailBytes];
+                    final byte[] buffer = new byte[8192];
+                    long total = 0L;
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        for (int offset = 0; offset < read; ) {
+                            final int position = (int) (total % ring.length);
+                            final int count = Math.min(read - offset, ring.length - position);
+                            System.arraycopy(buffer, offset, ring, position, count);
+                            offset += count;
+                            total += count;
+                        }
+                    }
+                    truncated = total > ring.length;
+                    if (truncated) {
+                        final int position = (int) (total % ring.length);
+                        tail = new byte[ring.length];
+                        System.arraycopy(ring, position, tail, 0, ring.length - position);
+                        System.arraycopy(ring, 0, tail, ring.length - position, position);
+                    } else {
+                        tail = Arrays.copyOf(ring, (int) total);
+                    }
+                } else {
+                    // Keep only the last lines, so memory use is bounded by the lines that are kept
+                    final ArrayDeque<byte[]> lines = new ArrayDeque<>(this.tailLines + 1);
+                    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    final BufferedInputStream bufferedStream = new BufferedInputStream(stream, 8192);
+                    int b;
+                    while ((b = bufferedStream.read()) != -1) {
+                        line.write(b);
+                        if (b == '\n') {
+                            lines.addLast(line.toByteArray());
+                            line.reset();
+                            if (lines.size() > this.tailLines) {
+                                lines.removeFirst();
+                            }
+                        }
+                    }
+                    if (line.size() > 0) {
+                        lines.addLast(line.toByteArray());
+                        if (lines.size() > this.tailLines) {
+                            lines.removeFirst();
+                        }
+                    }
+                    final ByteArrayOutputStream joined = new ByteArrayOutputStream();
+                    for (final byte[] bytes : lines) {
+                        joined.write(bytes);
+                    }
+                    return new ByteArrayInputStream(joined.toByteArray());
+                }
+            }
+            int start = 0;
+            if (this.tailLines > 0) {
+                int index = tail.length > 0 && tail[tail.length - 1] == '\n' ? tail.length - 1 : tail.length;
+                int found = 0;
+                while (--index >= 0) {
+                    if (tail[index] == '\n' && ++found == this.tailLines) {
+                        break;
+                    }
+                }
+                start = index + 1;
+            }
+            if (start == 0 && truncated) {
+                while (start < Math.min(3, tail.length) && (tail[start] & 0xC0) == 0x80) {
+                    start++;
+                }
+            }
+            return new ByteArrayInputStream(tail, start, tail.length - start);
+        }
+
+        /**
+         * Find the offset at which the last lines of a file start, scanning backwards
+         * from its end, but never before the given minimum offset
+         */
+        private static long findTailLines(final FileChannel channel, final long size, final int lines,
+            final long minimum) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long position = size;
+            int found = 0;
+            while (position > minimum) {
+                final int length = (int) Math.min(buffer.capacity(), position - minimum);
+                position -= length;
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) == -1) {
+                        throw new EOFException(String.format("Unexpected end of file at %d", position));
+                    }
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    // A trailing line break doesn't start a new line
+                    if (buffer.get(i) == '\n' && position + i != size - 1 && ++found == lines) {
+                        return position + i + 1;
+                    }
+                }
+            }
+            return minimum;
         }
+
+        /**
+         * Skip UTF-8 continuation bytes, so a stream that starts in the middle
+         * of a character begins at the next character instead
+         */
+        private static void skipContinuationBytes(final InputStream inputStream) throws IOException {
+            for (int i = 0; i < 3; i++) {
+                inputStream.mark(1);
+                final int b = inputStream.read();
+                if (b == -1 || (b & 0xC0) != 0x80) {
+                    inputStream.reset();
+                    return;
+                }
+            }
+        }
+
     }
 
 }
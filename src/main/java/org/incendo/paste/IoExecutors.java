@@ -0,0 +1,123 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking disk reads, kept apart from Kvantum's request workers
+ */
+final class IoExecutors {
+
+    private IoExecutors() {
+    }
+
+    /**
+     * Create an executor for blocking I/O. On a JDK with virtual threads every task gets
+     * its own virtual thread, otherwise a fixed pool of daemon threads is used. Either way,
+     * at most {@code threads} tasks run at the same time, so that a burst of requests
+     * doesn't open an unbounded number of files at once
+     *
+     * @param name Thread name prefix
+     * @param threads Maximum number of concurrently running tasks
+     * @return Executor
+     */
+    static ExecutorService newExecutor(final String name, final int threads) {
+        try {
+            // Looked up reflectively, as the viewer is still built for Java 10
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            final ExecutorService executor = (ExecutorService) method.invoke(null);
+            Logger.info("Reading pastes on virtual threads, at most {} at a time", Math.max(1, threads));
+            return new BoundedExecutorService(executor, Math.max(1, threads));
+        } catch (final ReflectiveOperationException ignored) {
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            final Thread thread = new Thread(runnable, String.format("%s-%d", name, counter.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor that runs at most a fixed number of tasks of another executor at a time. The
+     * permit is taken on the thread running the task, so submitting never blocks
+     */
+    private static final class BoundedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService executor;
+        private final Semaphore permits;
+
+        private BoundedExecutorService(final ExecutorService executor, final int permits) {
+            this.executor = executor;
+            this.permits = new Semaphore(permits);
+        }
+
+        @Override public void execute(final Runnable command) {
+            this.executor.execute(() -> {
+                try {
+                    this.permits.acquire();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    this.permits.release();
+                }
+            });
+        }
+
+        @Override public void shutdown() {
+            this.executor.shutdown();
+        }
+
+        @Override public List<Runnable> shutdownNow() {
+            return this.executor.shutdownNow();
+        }
+
+        @Override public boolean isShutdown() {
+            return this.executor.isShutdown();
+        }
+
+        @Override public boolean isTerminated() {
+            return this.executor.isTerminated();
+        }
+
+        @Override public boolean awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+            return this.executor.awaitTermination(timeout, unit);
+        }
+
+    }
+
+}
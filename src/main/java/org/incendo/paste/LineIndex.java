@@ -0,0 +1,80 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+/**
+ * Line offset index of a file, used to serve line ranges without scanning the file
+ */
+public final class LineIndex {
+
+    /**
+     * Start offset of every line, followed by the length of the content
+     */
+    private final int[] offsets;
+
+    private LineIndex(final int[] offsets) {
+        this.offsets = offsets;
+    }
+
+    /**
+     * Build the index of a file. A trailing line break doesn't start a new line
+     *
+     * @param content File content
+     * @return Line index
+     */
+    public static LineIndex of(final String content) {
+        int lines = content.isEmpty() ? 0 : 1;
+        for (int index = content.indexOf('\n'); index != -1 && index + 1 < content.length();
+             index = content.indexOf('\n', index + 1)) {
+            lines++;
+        }
+        final int[] offsets = new int[lines + 1];
+        int line = 1;
+        for (int index = content.indexOf('\n'); index != -1 && index + 1 < content.length();
+             index = content.indexOf('\n', index + 1)) {
+            offsets[line++] = index + 1;
+        }
+        offsets[lines] = content.length();
+        return new LineIndex(offsets);
+    }
+
+    /**
+     * Get the number of lines
+     *
+     * @return Line count
+     */
+    public int getLineCount() {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * Get the offset at which a line starts. The line count may be
+     * passed to get the length of the content
+     *
+     * @param line Line number, starting at 0
+     * @return Start offset
+     */
+    public int getStart(final int line) {
+        return this.offsets[line];
+    }
+
+}
@@ -34,6 +34,5 @@ public class Paste {
     private final String time;
     private final Collection<String> file_targets;
     private final Collection<String> file_content;
-    private final String rawContent;
 
 }
@@ -0,0 +1,240 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.incendo.paste.retention.RetentionPolicy;
+import org.incendo.paste.throttle.RateLimit;
+import org.yaml.snakeyaml.Yaml;
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paste specific settings, read from the {@code paste} section
+ * of the Kvantum server configuration
+ */
+@Getter
+public final class PasteConfig {
+
+    private final long pasteCacheMaxBytes;
+    private final long renderedCacheMaxBytes;
+    private final long contentCacheMaxBytes;
+    private final long fragmentCacheMaxBytes;
+    private final long rawCacheMaxBytes;
+    private final long cacheExpiryMinutes;
+    private final String storageType;
+    private final String storageCompression;
+    private final String sqliteFile;
+    private final int sqlitePoolSize;
+    private final long throttleMaximumKeys;
+    private final RateLimit defaultRateLimit;
+    private final long uploadMaxDecodedBytes;
+    private final int uploadQueueCapacity;
+    private final long uploadQueueMaxBytes;
+    private final int uploadCommitBatchSize;
+    private final long uploadCommitTimeoutMillis;
+    private final int viewPageLines;
+    private final int viewMaxRangeLines;
+    private final int viewIoThreads;
+    private final long viewLoadTimeoutMillis;
+    private final boolean metricsEnabled;
+    private final String metricsAddress;
+    private final int metricsPort;
+    private final boolean retentionEnabled;
+    private final long retentionIntervalMillis;
+    private final int retentionBatchSize;
+    private final String retentionArchiveFolder;
+    private final RetentionPolicy defaultRetentionPolicy;
+    private final boolean searchEnabled;
+    private final String searchAccessToken;
+    private final int searchMaxTokensPerFile;
+    private final int searchMaxLinesPerHit;
+    private final long searchMaxMemoryBytes;
+    @Getter(AccessLevel.NONE) private final Map<String, RateLimit> applicationRateLimits = new HashMap<>();
+    @Getter(AccessLevel.NONE) private final Map<String, RetentionPolicy> applicationRetentionPolicies = new HashMap<>();
+
+    private PasteConfig(final Map<?, ?> section) {
+        this.pasteCacheMaxBytes = getLong(section, "cache.pasteMaxBytes", 128L * 1024L * 1024L);
+        this.renderedCacheMaxBytes = getLong(section, "cache.renderedMaxBytes", 64L * 1024L * 1024L);
+        this.contentCacheMaxBytes = getLong(section, "cache.contentMaxBytes", 64L * 1024L * 1024L);
+        this.fragmentCacheMaxBytes = getLong(section, "cache.fragmentMaxBytes", 32L * 1024L * 1024L);
+        this.rawCacheMaxBytes = getLong(section, "cache.rawMaxBytes", 32L * 1024L * 1024L);
+        this.cacheExpiryMinutes = getLong(section, "cache.expiryMinutes", 60L);
+        this.storageType = getString(section, "storage.type", "file");
+        this.storageCompression = getString(section, "storage.compression", "gzip");
+        this.sqliteFile = getString(section, "storage.sqliteFile", "pastes.db");
+        this.sqlitePoolSize = (int) getLong(section, "storage.sqlitePoolSize", 4L);
+        this.throttleMaximumKeys = getLong(section, "throttle.maximumKeys", 100000L);
+        this.defaultRateLimit = getRateLimit(section, "throttle.default", new RateLimit(1, TimeUnit.MINUTES.toMillis(5L)));
+        this.uploadMaxDecodedBytes = getLong(section, "upload.maxDecodedBytes", 64L * 1024L * 1024L);
+        this.uploadQueueCapacity = (int) Math.max(1L, getLong(section, "upload.queueCapacity", 256L));
+        this.uploadQueueMaxBytes = getLong(section, "upload.queueMaxBytes", 256L * 1024L * 1024L);
+        this.uploadCommitBatchSize = (int) Math.max(1L, getLong(section, "upload.commitBatchSize", 64L));
+        this.uploadCommitTimeoutMillis = Math.max(1L, getLong(section, "upload.commitTimeoutMillis", 10000L));
+        this.viewPageLines = (int) Math.max(1L, getLong(section, "view.pageLines", 500L));
+        this.viewMaxRangeLines = (int) Math.max(1L, getLong(section, "view.maxRangeLines", 5000L));
+        this.viewIoThreads = (int) Math.max(1L, getLong(section, "view.ioThreads", 16L));
+        this.viewLoadTimeoutMillis = Math.max(1L, getLong(section, "view.loadTimeoutMillis", 2000L));
+        this.metricsEnabled = Boolean.parseBoolean(getString(section, "metrics.enabled", "true"));
+        this.metricsAddress = getString(section, "metrics.address", "127.0.0.1");
+        this.metricsPort = (int) getLong(section, "metrics.port", 9180L);
+        final Object applications = get(section, "throttle.applications");
+        if (applications instanceof Map) {
+            for (final Object applicationId : ((Map<?, ?>) applications).keySet()) {
+                this.applicationRateLimits.put(applicationId.toString().toLowerCase(Locale.ENGLISH),
+                    getRateLimit(section, String.format("throttle.applications.%s", applicationId), this.defaultRateLimit));
+            }
+        }
+        this.retentionEnabled = Boolean.parseBoolean(getString(section, "retention.enabled", "false"));
+        this.retentionIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1L,
+            getLong(section, "retention.intervalSeconds", 60L)));
+        this.retentionBatchSize = (int) Math.max(1L, getLong(section, "retention.batchSize", 200L));
+        this.retentionArchiveFolder = getString(section, "retention.archiveFolder", "archive");
+        this.defaultRetentionPolicy = getRetentionPolicy(section, "retention.default",
+            new RetentionPolicy(TimeUnit.DAYS.toMillis(30L), 0L));
+        final Object retentionApplications = get(section, "retention.applications");
+        if (retentionApplications instanceof Map) {
+            for (final Object applicationId : ((Map<?, ?>) retentionApplications).keySet()) {
+                this.applicationRetentionPolicies.put(applicationId.toString().toLowerCase(Locale.ENGLISH),
+                    getRetentionPolicy(section, String.format("retention.applications.%s", applicationId),
+                        this.defaultRetentionPolicy));
+            }
+        }
+        this.searchEnabled = Boolean.parseBoolean(getString(section, "search.enabled", "false"));
+        this.searchAccessToken = getString(section, "search.accessToken", "");
+        this.searchMaxTokensPerFile = (int) Math.max(1L, getLong(section, "search.maxTokensPerFile", 100000L));
+        this.searchMaxLinesPerHit = (int) Math.max(1L, getLong(section, "search.maxLinesPerHit", 5L));
+        this.searchMaxMemoryBytes = getLong(section, "search.maxMemoryBytes", 256L * 1024L * 1024L);
+    }
+
+    /**
+     * Load the paste configuration from the server configuration file. Missing
+     * values fall back to their defaults
+     *
+     * @param configFile Server configuration file
+     * @return Loaded configuration
+     */
+    public static PasteConfig load(final File configFile) {
+        Map<?, ?> section = Collections.emptyMap();
+        if (configFile.exists()) {
+            try (final Reader reader = Files.newBufferedReader(configFile.toPath(), StandardCharsets.UTF_8)) {
+                final Object root = new Yaml().load(reader);
+                if (root instanceof Map && ((Map<?, ?>) root).get("paste") instanceof Map) {
+                    section = (Map<?, ?>) ((Map<?, ?>) root).get("paste");
+                }
+            } catch (final IOException e) {
+                e.printStackTrace();
+                Logger.error("Failed to read paste configuration from {}, using defaults", configFile.getName());
+            }
+        }
+        return new PasteConfig(section);
+    }
+
+    /**
+     * Get the upload rate limit that applies to an application
+     *
+     * @param applicationId Application ID
+     * @return Rate limit
+     */
+    public RateLimit getRateLimit(final String applicationId) {
+        return this.applicationRateLimits.getOrDefault(applicationId, this.defaultRateLimit);
+    }
+
+    /**
+     * Get the retention policy that applies to an application
+     *
+     * @param applicationId Application ID
+     * @return Retention policy
+     */
+    public RetentionPolicy getRetentionPolicy(final String applicationId) {
+        return this.applicationRetentionPolicies.getOrDefault(applicationId, this.defaultRetentionPolicy);
+    }
+
+    /**
+     * Get the longest time it takes any upload rate limit bucket to refill completely
+     *
+     * @return Refill time, in milliseconds
+     */
+    public long getMaximumRateLimitWindow() {
+        long window = this.defaultRateLimit.getCapacity() * this.defaultRateLimit.getIntervalMillis();
+        for (final RateLimit rateLimit : this.applicationRateLimits.values()) {
+            window = Math.max(window, rateLimit.getCapacity() * rateLimit.getIntervalMillis());
+        }
+        return window;
+    }
+
+    private static RateLimit getRateLimit(final Map<?, ?> section, final String path, final RateLimit defaultValue) {
+        final int capacity = (int) getLong(section, String.format("%s.capacity", path), defaultValue.getCapacity());
+        final long intervalSeconds = getLong(section, String.format("%s.intervalSeconds", path),
+            TimeUnit.MILLISECONDS.toSeconds(defaultValue.getIntervalMillis()));
+        return new RateLimit(Math.max(1, capacity), TimeUnit.SECONDS.toMillis(Math.max(1L, intervalSeconds)));
+    }
+
+    private static RetentionPolicy getRetentionPolicy(final Map<?, ?> section, final String path,
+        final RetentionPolicy defaultValue) {
+        final long archiveAfterDays = getLong(section, String.format("%s.archiveAfterDays", path),
+            TimeUnit.MILLISECONDS.toDays(defaultValue.getArchiveAfterMillis()));
+        final long expireAfterDays = getLong(section, String.format("%s.expireAfterDays", path),
+            TimeUnit.MILLISECONDS.toDays(defaultValue.getExpireAfterMillis()));
+        return new RetentionPolicy(TimeUnit.DAYS.toMillis(Math.max(0L, archiveAfterDays)),
+            TimeUnit.DAYS.toMillis(Math.max(0L, expireAfterDays)));
+    }
+
+    private static Object get(final Map<?, ?> section, final String path) {
+        Object current = section;
+        for (final String part : path.split("\\.")) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<?, ?>) current).get(part);
+        }
+        return current;
+    }
+
+    private static long getLong(final Map<?, ?> section, final String path, final long defaultValue) {
+        final Object value = get(section, path);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return defaultValue;
+    }
+
+    private static String getString(final Map<?, ?> section, final String path, final String defaultValue) {
+        final Object value = get(section, path);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value.toString();
+    }
+
+}
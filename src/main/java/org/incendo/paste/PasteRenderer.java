@@ -0,0 +1,267 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.incendo.paste.cache.PasteCache;
+import org.incendo.paste.highlight.Highlighter;
+import org.incendo.paste.highlight.Highlighters;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.storage.PasteStore;
+import org.incendo.paste.template.OutputBuffer;
+import org.incendo.paste.template.TemplateFile;
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads pastes and renders their view pages. This holds everything needed to turn
+ * a paste ID into a page, independent of the Kvantum request handling around it
+ */
+public final class PasteRenderer {
+
+    /**
+     * View model of pastes that don't exist
+     */
+    static final Paste MISSING_PASTE = new Paste("", "", Collections.emptyList(), Collections.emptyList());
+
+    private final PasteStore pasteStore;
+    private final PasteCache<StoredPaste> pasteCache;
+    private final PasteCache<String> contentCache;
+    private final PasteCache<String> fragmentCache;
+    private final TemplateFile viewTemplate;
+    private final PasteMetrics metrics;
+    private final int pageLines;
+
+    /**
+     * Construct a new renderer
+     *
+     * @param pasteStore Paste store
+     * @param pasteCache Cache of loaded pastes
+     * @param contentCache Cache of file contents, keyed by content hash
+     * @param fragmentCache Cache of the highlighted first page of files, keyed by content hash and language
+     * @param viewTemplate View page template
+     * @param metrics Metrics to record load failures and missing pastes in
+     * @param pageLines Number of lines of the active file included in the page
+     */
+    public PasteRenderer(final PasteStore pasteStore, final PasteCache<StoredPaste> pasteCache,
+        final PasteCache<String> contentCache, final PasteCache<String> fragmentCache, final TemplateFile viewTemplate, final PasteMetrics metrics, final int pageLines) {
+        this.pasteStore = pasteStore;
+        this.pasteCache = pasteCache;
+        this.contentCache = contentCache;
+        this.fragmentCache = fragmentCache;
+        this.viewTemplate = viewTemplate;
+        this.metrics = metrics;
+        this.pageLines = pageLines;
+    }
+
+    /**
+     * Load a paste from the paste cache, or from the store if it isn't cached. Files that
+     * are shared with other loaded pastes are taken from the content cache, so that they
+     * are neither read again nor kept in memory twice. The paste is read on the calling
+     * thread, unless it is already being read by another one
+     *
+     * @param id Paste ID
+     * @return The paste, or null if it doesn't exist or cannot be read
+     */
+    public StoredPaste loadPaste(final String id) {
+        return this.loadPaste(id, Runnable::run).join();
+    }
+
+    /**
+     * Load a paste like {@link #loadPaste(String)}, reading it on an executor if it isn't
+     * cached. Concurrent requests for the same paste share a single read
+     *
+     * @param id Paste ID
+     * @param executor Executor that reads the paste
+     * @return Future completed with the paste, or with null if it doesn't exist or cannot be read
+     */
+    public CompletableFuture<StoredPaste> loadPaste(final String id, final Executor executor) {
+        return this.pasteCache.getAsync(id, this::readPaste, executor);
+    }
+
+    /**
+     * Load a single file of a paste for a caller that only needs it briefly, such as search.
+     * Files of cached pastes are used as they are, other files are read on the executor
+     * without being cached, so that they don't push pastes that are being viewed out of
+     * the cache. Only the requested file is read, not the whole paste
+     *
+     * @param id Paste ID
+     * @param fileName File name
+     * @param executor Executor that reads the file
+     * @return Future completed with the file content, or with null if it doesn't exist or cannot be read
+     */
+    public CompletableFuture<String> peekFile(final String id, final String fileName, final Executor executor) {
+        final StoredPaste cached = this.pasteCache.peek(id);
+        if (cached != null) {
+            for (int i = 0; i < cached.getFileCount(); i++) {
+                if (cached.getFileNames()[i].equals(fileName)) {
+                    return CompletableFuture.completedFuture(cached.getFileContents()[i]);
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.pasteStore.readFile(id, fileName);
+            } catch (final Throwable throwable) {
+                throwable.printStackTrace();
+                Logger.error("Couldn't parse paste with ID {}", id);
+                this.metrics.getStoreParseFailures().increment();
+                return null;
+            }
+        }, executor);
+    }
+
+    private StoredPaste readPaste(final String id) {
+        final StoredPaste storedPaste;
+        try {
+            storedPaste = this.pasteStore.read(id, this.contentCache::getIfPresent);
+        } catch (final Throwable throwable) {
+            throwable.printStackTrace();
+            Logger.error("Couldn't parse paste with ID {}", id);
+            this.metrics.getStoreParseFailures().increment();
+            return null;
+        }
+        if (storedPaste == null) {
+            Logger.debug("Unknown paste ID requested: {}", id);
+            this.metrics.getPastesNotFound().increment();
+            return null;
+        }
+        for (int i = 0; i < storedPaste.getFileCount(); i++) {
+            if (storedPaste.getFileHash(i) != null) {
+                this.contentCache.put(storedPaste.getFileHash(i), storedPaste.getFileContents()[i]);
+            }
+        }
+        // Built before the paste is cached, so that the cache weighs them
+        storedPaste.indexLines();
+        Logger.debug("Read paste {} from disk!", id);
+        return storedPaste;
+    }
+
+    /**
+     * Build the view model of a paste. Only the first page of the first file is included
+     *
+     * @param id Paste ID
+     * @return View model, with an empty ID if the paste doesn't exist
+     */
+    public Paste getPaste(final String id) {
+        final StoredPaste storedPaste = loadPaste(id);
+        if (storedPaste == null) {
+            return MISSING_PASTE;
+        }
+
+        final String time = storedPaste.getTimestamp() > 0L ? new Date(storedPaste.getTimestamp()).toString() : "";
+        final Collection<String> file_targets = new ArrayList<>(), file_content = new ArrayList<>();
+        boolean first = true;
+        for (int currentIndex = 0; currentIndex < storedPaste.getFileCount(); currentIndex++) {
+            final String fileName = storedPaste.getFileNames()[currentIndex];
+
+            final String language = Highlighters.getLanguage(fileName);
+            final LineIndex lineIndex = storedPaste.getLineIndex(currentIndex);
+            // Only the first page of the active file is part of the page, the rest is loaded on demand
+            final int loadedLines = first ? Math.min(this.pageLines, lineIndex.getLineCount()) : 0;
+            final StringBuilder codeBlock = new StringBuilder();
+            if (Highlighters.getHighlighter(language) != null) {
+                codeBlock.append("<code class='hljs ").append(language).append("' data-highlighted='server'>");
+            } else {
+                codeBlock.append("<code class='").append(language).append("'>");
+            }
+            codeBlock.append(this.getFirstPage(storedPaste, currentIndex, language, lineIndex, loadedLines));
+            codeBlock.append("</code>");
+
+            file_targets.add(String.format("<li %s><a data-target='#content-%d'>%s</a></li>",
+                first ? "class='active'" : "", currentIndex, StringEscapeUtils.escapeHtml4(fileName)));
+            file_content.add(String.format("<div style='max-height: 93vh; overflow: auto' %s id='content-%d' data-file='%d' "
+                    + "data-line-count='%d' data-loaded='%d' data-page-lines='%d'><pre class='%s'>%s</pre></div>",
+                first ? "" : "class='content-hide'", currentIndex, currentIndex, lineIndex.getLineCount(), loadedLines,
+                this.pageLines, language, codeBlock));
+            if (first)  {
+                first = false;
+            }
+        }
+        return new Paste(id, time, file_targets, file_content);
+    }
+
+    /**
+     * Get the highlighted first page of a file. Pages of deduplicated files are cached by
+     * content hash, so a file that is part of many pastes is only highlighted once
+     */
+    private String getFirstPage(final StoredPaste storedPaste, final int file, final String language,
+        final LineIndex lineIndex, final int loadedLines) {
+        if (loadedLines == 0) {
+            return "";
+        }
+        final String key = storedPaste.getFileHash(file) == null ? null :
+            String.format("%s:%s", storedPaste.getFileHash(file), language);
+        String page = key == null ? null : this.fragmentCache.getIfPresent(key);
+        if (page == null) {
+            final StringBuilder builder = new StringBuilder();
+            appendLines(language, storedPaste.getFileContents()[file], lineIndex, 0, loadedLines, builder);
+            page = builder.toString();
+            if (key != null) {
+                this.fragmentCache.put(key, page);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Render the view page of a paste
+     *
+     * @param paste View model
+     * @return UTF-8 encoded page
+     */
+    public byte[] renderPaste(final Paste paste) {
+        final OutputBuffer output = OutputBuffer.acquire();
+        try {
+            this.viewTemplate.get().render(output, StringEscapeUtils.escapeHtml4(paste.getId()),
+                StringEscapeUtils.escapeHtml4(paste.getTime()), paste.getFile_targets(), paste.getFile_content());
+            return output.toByteArray();
+        } finally {
+            output.release();
+        }
+    }
+
+    /**
+     * Append the HTML of a range of lines, highlighted if the language is supported by the server
+     */
+    static void appendLines(final String language, final String content, final LineIndex lineIndex,
+        final int from, final int to, final StringBuilder output) {
+        if (from >= to) {
+            return;
+        }
+        final String lines = content.substring(lineIndex.getStart(from), lineIndex.getStart(to));
+        final Highlighter highlighter = Highlighters.getHighlighter(language);
+        if (highlighter != null) {
+            highlighter.highlight(lines, output);
+        } else {
+            output.append(StringEscapeUtils.escapeHtml4(lines));
+        }
+    }
+
+}
@@ -21,15 +21,29 @@
  */
 package org.incendo.paste;
 
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.rest.SearchService;
 import org.incendo.paste.rest.UploadService;
+import org.incendo.paste.search.SearchIndex;
+import org.incendo.paste.storage.PasteCommitQueue;
+import org.incendo.paste.throttle.RateLimiter;
 import xyz.kvantum.server.api.views.rest.RestHandler;
 
-import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
 
 final class PasteRestService extends RestHandler {
 
-    PasteRestService(final File baseFolder) {
-        this.registerHandler(new UploadService(new File(baseFolder, "pastes")));
+    PasteRestService(final PasteCommitQueue commitQueue, final RateLimiter rateLimiter, final SearchIndex searchIndex,
+        final Executor indexExecutor, final BiFunction<String, String, CompletableFuture<String>> fileLoader,
+        final PasteConfig config, final PasteMetrics metrics) {
+        this.registerHandler(new UploadService(commitQueue, rateLimiter, config.getUploadMaxDecodedBytes(),
+            config.getUploadCommitTimeoutMillis(), searchIndex, indexExecutor, metrics));
+        if (searchIndex != null) {
+            this.registerHandler(new SearchService(searchIndex, fileLoader, config.getViewLoadTimeoutMillis(),
+                config.getSearchAccessToken(), config.getSearchMaxLinesPerHit(), metrics));
+        }
     }
 
 }
@@ -21,20 +21,31 @@
  */
 package org.incendo.paste;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import org.apache.commons.lang3.StringEscapeUtils;
-import org.json.simple.JSONArray;
+import lombok.RequiredArgsConstructor;
+import org.incendo.paste.cache.PasteCache;
+import org.incendo.paste.highlight.Highlighters;
+import org.incendo.paste.metrics.MetricsServer;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.retention.RetentionScheduler;
+import org.incendo.paste.search.SearchIndex;
+import org.incendo.paste.storage.ArchivingPasteStore;
+import org.incendo.paste.storage.IndexedPasteStore;
+import org.incendo.paste.storage.InstrumentedPasteStore;
+import org.incendo.paste.storage.PasteArchive;
+import org.incendo.paste.storage.PasteCommitQueue;
+import org.incendo.paste.storage.PasteMigration;
+import org.incendo.paste.storage.PasteStore;
+import org.incendo.paste.storage.PasteStores;
+import org.incendo.paste.template.TemplateFile;
+import org.incendo.paste.throttle.RateLimiter;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import xyz.kvantum.server.api.config.CoreConfig;
 import xyz.kvantum.server.api.core.Kvantum;
-import xyz.kvantum.server.api.core.ServerImplementation;
 import xyz.kvantum.server.api.logging.Logger;
 import xyz.kvantum.server.api.request.AbstractRequest;
 import xyz.kvantum.server.api.response.Header;
 import xyz.kvantum.server.api.response.Response;
-import xyz.kvantum.server.api.util.CollectionUtil;
+import xyz.kvantum.server.api.util.AsciiString;
 import xyz.kvantum.server.api.util.RequestManager;
 import xyz.kvantum.server.api.views.annotatedviews.ViewMatcher;
 import xyz.kvantum.server.implementation.DefaultLogWrapper;
@@ -42,11 +53,16 @@ import xyz.kvantum.server.implementation.ServerContext;
 import xyz.kvantum.server.implementation.StandaloneServer;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.Reader;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Launcher and main class
@@ -60,115 +76,617 @@ public final class PasteViewer {
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        new PasteViewer();
+        final File coreFolder = new File("kvantum");
+        if (args.length > 0 && (args[0].equalsIgnoreCase("shard") || args[0].equalsIgnoreCase("migrate"))) {
+            final PasteConfig config = PasteConfig.load(new File(coreFolder, "config/server.yml"));
+            try {
+                if (args[0].equalsIgnoreCase("shard")) {
+                    PasteMigration.shard(coreFolder, config);
+                } else {
+                    PasteMigration.migrate(coreFolder, config);
+                }
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        new PasteViewer(coreFolder);
     }
 
-    private final JSONParser jsonParser = new JSONParser();
-    private final Cache<String, JSONObject> fileCache = CacheBuilder.newBuilder().maximumSize(5L)
-        .expireAfterAccess(1, TimeUnit.HOURS).build();
+    /**
+     * Responses are compressed here rather than by Kvantum, so their encoding depends on the request
+     */
+    private static final AsciiString HEADER_VARY = AsciiString.of("Vary");
+
+    private final PasteCache<StoredPaste> pasteCache;
+    private final PasteCache<RenderedPaste> renderedCache;
+    private final PasteCache<String> contentCache;
+    private final PasteCache<String> fragmentCache;
+    private final PasteCache<RawContent> rawCache;
 
-    private final File pasteFolder;
+    private final PasteStore pasteStore;
+    private final PasteCommitQueue commitQueue;
+    private final PasteMetrics metrics = new PasteMetrics();
+    private final PasteRenderer renderer;
+    private final StaticAssets assets;
+    private final RetentionScheduler retentionScheduler;
+    private final MetricsServer metricsServer;
+    private final ExecutorService ioExecutor;
+    private final long loadTimeoutMillis;
+    private final int pageLines;
+    private final int maxRangeLines;
+    /**
+     * Page served for unknown pastes, rendered once per template
+     */
+    private volatile RenderedPaste missingPage;
 
-    private PasteViewer() {
+    private PasteViewer(final File coreFolder) {
         // Create server context
         final ServerContext serverContext = ServerContext.builder().standalone(true)
             .logWrapper(new DefaultLogWrapper())
-            .coreFolder(new File("kvantum"))
+            .coreFolder(coreFolder)
             .serverSupplier(StandaloneServer::new)
             .router(RequestManager.builder().build()).build();
         final Optional<Kvantum> serverOptional = serverContext.create();
-        this.pasteFolder = new File(serverContext.getCoreFolder(), "pastes");
+        final PasteConfig config = PasteConfig.load(new File(serverContext.getCoreFolder(), "config/server.yml"));
+        final ArchivingPasteStore archivingStore;
+        final IndexedPasteStore indexedStore;
+        try {
+            // Unknown IDs are rejected by the index, archived pastes are found in the archive index
+            indexedStore = new IndexedPasteStore(PasteStores.create(config, serverContext.getCoreFolder()));
+            Logger.info("Indexed {} pastes", indexedStore.getIndex().getSize());
+            // Archived pastes stay readable even while retention is disabled
+            archivingStore = new ArchivingPasteStore(indexedStore, new PasteArchive(new File(serverContext.getCoreFolder(), config.getRetentionArchiveFolder()).toPath()));
+            this.pasteStore = new InstrumentedPasteStore(archivingStore, this.metrics.getStorageBytesRead(),
+                this.metrics.getStorageBytesWritten());
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to open the paste store", e);
+        }
+        // Cache misses are read here rather than on the request workers
+        this.ioExecutor = IoExecutors.newExecutor("paste-io", config.getViewIoThreads());
+        this.loadTimeoutMillis = config.getViewLoadTimeoutMillis();
+        this.pageLines = config.getViewPageLines();
+        this.maxRangeLines = Math.max(config.getViewPageLines(), config.getViewMaxRangeLines());
+        final RateLimiter uploadRateLimiter = new RateLimiter(config::getRateLimit, config.getThrottleMaximumKeys(),
+            config.getMaximumRateLimitWindow());
+        this.pasteCache = new PasteCache<>("pastes", config.getPasteCacheMaxBytes(),
+            config.getCacheExpiryMinutes(), StoredPaste::getWeight);
+        this.renderedCache = new PasteCache<>("rendered", config.getRenderedCacheMaxBytes(),
+            config.getCacheExpiryMinutes(), RenderedPaste::getWeight);
+        // Shared by every paste that contains the same file
+        this.contentCache = new PasteCache<>("contents", config.getContentCacheMaxBytes(),
+            config.getCacheExpiryMinutes(), content -> 40 + content.length());
+        this.fragmentCache = new PasteCache<>("fragments", config.getFragmentCacheMaxBytes(),
+            config.getCacheExpiryMinutes(), fragment -> 40 + fragment.length());
+        // Raw JSON is assembled from the blobs of deduplicated pastes, and compressed, on every read
+        this.rawCache = new PasteCache<>("raw", config.getRawCacheMaxBytes(), config.getCacheExpiryMinutes(),
+            raw -> 40 + raw.content.length);
+        this.assets = new StaticAssets(new File(serverContext.getCoreFolder(), "paste/assets").toPath());
+        this.metrics.registerCache(this.pasteCache);
+        this.metrics.registerCache(this.renderedCache);
+        this.metrics.registerCache(this.contentCache);
+        this.metrics.registerCache(this.fragmentCache);
+        this.metrics.registerCache(this.rawCache);
+        // Uploads are group committed by a single writer
+        this.commitQueue = new PasteCommitQueue(this.pasteStore, config.getUploadQueueCapacity(),
+            config.getUploadQueueMaxBytes(), config.getUploadCommitBatchSize(), this.metrics.getCommitBatchSize());
+        this.metrics.registerRateLimiter("upload", uploadRateLimiter);
+        this.metrics.registerCommitQueue(this.commitQueue);
+        this.metrics.registerIdIndex(indexedStore.getIndex());
+        final SearchIndex searchIndex;
+        final ExecutorService indexExecutor;
+        if (config.isSearchEnabled() && !config.getSearchAccessToken().isEmpty()) {
+            searchIndex = new SearchIndex(config.getSearchMaxTokensPerFile(), config.getSearchMaxMemoryBytes());
+            indexExecutor = newIndexExecutor();
+            this.metrics.registerSearchIndex(searchIndex);
+            startSearchIndexRebuild(searchIndex, this.pasteStore);
+        } else {
+            if (config.isSearchEnabled()) {
+                Logger.warn("Search is enabled, but search.accessToken isn't set. Paste search is disabled");
+            }
+            searchIndex = null;
+            indexExecutor = null;
+        }
+        if (config.isRetentionEnabled()) {
+            this.retentionScheduler = new RetentionScheduler(archivingStore, config::getRetentionPolicy,
+                config.getRetentionBatchSize(), config.getRetentionIntervalMillis(), id -> {
+                    this.pasteCache.invalidate(id);
+                    this.renderedCache.invalidate(id);
+                    this.rawCache.invalidate(id);
+                    this.rawCache.invalidate(getRawKey(id, true));
+                    if (searchIndex != null) {
+                        searchIndex.remove(id);
+                    }
+                });
+        } else {
+            this.retentionScheduler = null;
+        }
+        MetricsServer metricsServer = null;
+        if (config.isMetricsEnabled()) {
+            try {
+                metricsServer = new MetricsServer(this.metrics.getRegistry(), config.getMetricsAddress(), config.getMetricsPort());
+                Logger.info("Serving metrics on {}:{}/metrics", config.getMetricsAddress(), config.getMetricsPort());
+            } catch (final IOException e) {
+                e.printStackTrace();
+                Logger.error("Failed to start the metrics server on {}:{}", config.getMetricsAddress(),
+                    config.getMetricsPort());
+            }
+        }
+        this.metricsServer = metricsServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "paste-shutdown"));
+        try {
+            // Pages rendered with the previous template are dropped when it changes
+            final TemplateFile viewTemplate = new TemplateFile(new File(serverContext.getCoreFolder(), "templates/paste_view.html")
+                .toPath(), () -> {
+                    this.renderedCache.invalidateAll();
+                    this.missingPage = null;
+                }, "paste_id", "paste_time", "file_list", "file_content");
+            this.renderer = new PasteRenderer(this.pasteStore, this.pasteCache, this.contentCache,
+                this.fragmentCache, viewTemplate, this.metrics,
+                this.pageLines);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to load the paste view template", e);
+        }
         serverOptional.ifPresent(server -> {
             server.getRouter().scanAndAdd(this);
-            server.getRouter().add(new PasteRestService(server.getCoreFolder()));
+            server.getRouter().add(new PasteRestService(this.commitQueue, uploadRateLimiter, searchIndex, indexExecutor,
+                (id, fileName) -> this.renderer.peekFile(id, fileName, this.ioExecutor), config, this.metrics));
             // Otherwise shit doesn't work when running through gradle
             CoreConfig.enableInputThread = false;
             server.start();
         });
     }
 
-    private Paste getPaste(final String id) {
-        File file = null;
-        JSONObject object = fileCache.getIfPresent(id);
-
-        // Check if the file exists in cache, or on disk
-        if (object == null && !(file = new File(pasteFolder, String.format("%s.json", id))).exists()) {
-            Logger.error("Unknown paste ID requested: {}", id);
-            return new Paste("", "", Collections.emptyList(), Collections.emptyList(), "");
+    /**
+     * Stop in dependency order: queued uploads are written first, then retention and
+     * pending reads finish, before the store they use is closed. The metrics server goes
+     * last, and releases its port so that a restarted viewer can bind it right away
+     */
+    private void shutdown() {
+        this.commitQueue.close();
+        if (this.retentionScheduler != null) {
+            this.retentionScheduler.close();
         }
-
-        // If we didn't fetch the object from cache, read and parse it
-        if (object == null) {
-            try (final Reader reader = new FileReader(file)) {
-                object = (JSONObject) jsonParser.parse(reader);
-                fileCache.put(id, object);
-                Logger.info("Read paste{} from disk!", id);
-            } catch (final Throwable throwable) {
-                throwable.printStackTrace();
-                Logger.error("Couldn't parse paste with ID {}", id);
-                return new Paste("", "", Collections.emptyList(), Collections.emptyList(), "");
-            }
-        } else {
-            Logger.info("Read paste {} from cache!", id);
-        }
-
-        final String time = object.getOrDefault("created", "").toString();
-        final JSONObject jsonFiles = (JSONObject) object.get("files");
-        final JSONArray jsonFileNames = (JSONArray) object.get("file_names");
-        final Collection<String> file_targets = new ArrayList<>(), file_content = new ArrayList<>();
-        int index = 0;
-        boolean first = true;
-        for (final Object fileName : jsonFileNames) {
-            final int currentIndex = index++;
-
-            final String language;
-            if (fileName.toString().contains(".")) {
-                final String[] parts = fileName.toString().split("\\.");
-                final String rawLanguage = parts[parts.length - 1].toLowerCase(Locale.ENGLISH);
-                if (rawLanguage.equals("yml"))  {
-                    language = "yaml";
-                } else if (rawLanguage.equals("log")) {
-                    language = "plaintext";
-                } else {
-                    language = rawLanguage;
-                }
-            } else {
-                language = "plaintext";
+        this.ioExecutor.shutdown();
+        try {
+            if (!this.ioExecutor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                Logger.warn("Paste reads didn't finish within 30 seconds of shutting down");
             }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.pasteStore.close();
+        } catch (final IOException e) {
+            e.printStackTrace();
+            Logger.error("Failed to close the paste store");
+        }
+        if (this.metricsServer != null) {
+            this.metricsServer.close();
+        }
+    }
 
-            String filteredContent = StringEscapeUtils.escapeHtml4(jsonFiles.get(fileName.toString()).toString());
+    /**
+     * Create the executor that adds uploaded pastes to the search index. A single thread
+     * keeps up with uploads, which are limited by the commit queue anyway. Should it fall
+     * behind regardless, the threads completing uploads index their pastes themselves,
+     * rather than letting pastes pile up in memory
+     */
+    private static ExecutorService newIndexExecutor() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024), runnable -> {
+            final Thread thread = new Thread(runnable, "paste-search-indexer");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
 
-            file_targets.add(String.format("<li %s><a data-target='#content-%d'>%s</a></li>",
-                first ? "class='active'" : "", currentIndex, StringEscapeUtils.escapeHtml4(fileName.toString())));
-            file_content.add(String.format("<div style='max-height: 93vh' %s id='content-%d'><pre class='%s'><code class='%s'>%s</code></pre></div>",
-                first ? "" : "class='content-hide'", currentIndex, language, language, filteredContent));
-            if (first)  {
-                first = false;
+    /**
+     * Index every stored paste for search, in the background. Uploads and searches are
+     * served while this runs, searches just may not find older pastes yet
+     */
+    private static void startSearchIndexRebuild(final SearchIndex searchIndex, final PasteStore pasteStore) {
+        final Thread thread = new Thread(() -> {
+            final long start = System.currentTimeMillis();
+            try {
+                final int indexed = searchIndex.rebuild(pasteStore);
+                Logger.info("Indexed {} pastes for search in {}ms", indexed, System.currentTimeMillis() - start);
+            } catch (final IOException e) {
+                e.printStackTrace();
+                Logger.error("Failed to build the search index");
             }
-        }
-        return new Paste(id, time, file_targets, file_content, object.toJSONString());
+        }, "paste-search-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Get the paste cache
+     *
+     * @return Paste cache
+     */
+    public PasteCache<StoredPaste> getPasteCache() {
+        return this.pasteCache;
+    }
+
+    /**
+     * Get the rendered page cache
+     *
+     * @return Rendered page cache
+     */
+    public PasteCache<RenderedPaste> getRenderedCache() {
+        return this.renderedCache;
+    }
+
+    /**
+     * Get the viewer metrics
+     *
+     * @return Metrics
+     */
+    public PasteMetrics getMetrics() {
+        return this.metrics;
     }
 
     @ViewMatcher(filter = "paste/view/<paste>", name = "incendo-paste-main")
     public void servePaste(final AbstractRequest request, final Response response) {
+        final long start = System.nanoTime();
         final String pasteId = getNullable(request.get("paste"));
         final boolean raw = request.getQuery().getParameters().containsKey("raw") &&
             request.getQuery().getParameters().get("raw").equalsIgnoreCase("true");
-        final Paste paste = getPaste(pasteId);
         if (raw) {
-            response.setResponse(paste.getRawContent());
-            response.getHeader().set(Header.HEADER_CONTENT_TYPE, Header.CONTENT_TYPE_JSON);
+            try {
+                serveRaw(pasteId, request, response);
+            } finally {
+                this.metrics.getRawViewLatency().recordSince(start);
+            }
+            return;
+        }
+        try {
+            serveRendered(pasteId, request, response);
+        } finally {
+            this.metrics.getHtmlViewLatency().recordSince(start);
+        }
+    }
+
+    private void serveRendered(final String pasteId, final AbstractRequest request, final Response response) {
+        // Unknown IDs are answered from the index, without queueing a load
+        if (!isValidId(pasteId) || !this.pasteStore.exists(pasteId)) {
+            Logger.debug("Unknown paste ID requested: {}", pasteId);
+            this.metrics.getPastesNotFound().increment();
+            send(this.getMissingPage(), request, response);
+            return;
+        }
+        // Pastes never change after upload, so the rendered page can be served as is
+        RenderedPaste rendered;
+        try {
+            rendered = this.await(this.renderedCache.getAsync(pasteId, this::renderPage, this.ioExecutor), pasteId);
+        } catch (final TimeoutException e) {
+            serviceUnavailable(response);
+            return;
+        }
+        if (rendered != null) {
+            recordAccess(pasteId);
+        } else {
+            rendered = this.getMissingPage();
+        }
+        send(rendered, request, response);
+    }
+
+    private RenderedPaste getMissingPage() {
+        RenderedPaste missingPage = this.missingPage;
+        if (missingPage == null) {
+            // Rendering it twice on a race is harmless
+            missingPage = this.missingPage = RenderedPaste.of(this.renderer.renderPaste(PasteRenderer.MISSING_PASTE));
+        }
+        return missingPage;
+    }
+
+    /**
+     * Send a pre-compressed response body, in the encoding the client accepts
+     */
+    private static void send(final RenderedPaste body, final AbstractRequest request, final Response response) {
+        response.getHeader().set(HEADER_VARY, "Accept-Encoding");
+        if (acceptsGzip(request)) {
+            response.getHeader().set(Header.HEADER_CONTENT_ENCODING, "gzip");
+            response.setResponse(body.getCompressed());
         } else {
-            String fileContent = ServerImplementation.getImplementation().getFileSystem().getPath("/templates/paste_view.html").readFile();
-            // Hacky, because I couldn't get kvantum to work :p
-            fileContent = fileContent.replace("{paste_id}", paste.getId())
-                .replace("{paste_time}", paste.getTime())
-                .replace("{file_list}", CollectionUtil.join(paste.getFile_targets(), "\n"))
-                .replace("{file_content}", CollectionUtil.join(paste.getFile_content(), "\n"));
-            response.setResponse(fileContent.getBytes(StandardCharsets.UTF_8));
+            response.setResponse(body.getContent());
+        }
+    }
+
+    /**
+     * Render the view page of a paste
+     *
+     * @return Rendered page, or null if the paste doesn't exist or cannot be read
+     */
+    private RenderedPaste renderPage(final String pasteId) {
+        final Paste paste = this.renderer.getPaste(pasteId);
+        // Unknown and broken pastes are rendered as empty pages, these shouldn't occupy the cache
+        if (paste.getId().isEmpty()) {
+            return null;
+        }
+        return RenderedPaste.of(this.renderer.renderPaste(paste));
+    }
+
+    /**
+     * Serve a range of lines of a paste file, as highlighted HTML. The range is
+     * given by the {@code from} (inclusive) and {@code to} (exclusive) line numbers,
+     * and is widened to whole pages, so that clients can't fill the cache with
+     * arbitrary ranges. The served range is part of the response
+     */
+    @ViewMatcher(filter = "paste/view/<paste>/<file>", name = "incendo-paste-range")
+    public void servePasteRange(final AbstractRequest request, final Response response) {
+        final long start = System.nanoTime();
+        try {
+            serveRange(request, response);
+        } finally {
+            this.metrics.getRangeViewLatency().recordSince(start);
+        }
+    }
+
+    private void serveRange(final AbstractRequest request, final Response response) {
+        final String pasteId = getNullable(request.get("paste"));
+        final StoredPaste storedPaste;
+        try {
+            storedPaste = isValidId(pasteId) ? this.await(this.renderer.loadPaste(pasteId, this.ioExecutor), pasteId) : null;
+        } catch (final TimeoutException e) {
+            serviceUnavailable(response);
+            return;
+        }
+        final int file = parseInt(getNullable(request.get("file")), -1);
+        if (storedPaste == null || file < 0 || file >= storedPaste.getFileCount()) {
+            response.getHeader().setStatus(Header.STATUS_NOT_FOUND);
+            response.setResponse("");
+            return;
+        }
+        recordAccess(pasteId);
+        final LineIndex lineIndex = storedPaste.getLineIndex(file);
+        final Map<String, String> parameters = request.getQuery().getParameters();
+        final int requestedFrom = Math.max(0, Math.min(lineIndex.getLineCount(), parseInt(parameters.get("from"), 0)));
+        final int from = requestedFrom - requestedFrom % this.pageLines;
+        final long requestedLines = (long) parseInt(parameters.get("to"), requestedFrom + this.pageLines) - from;
+        final long pages = Math.max(1L, Math.min(this.maxRangeLines / this.pageLines,
+            (requestedLines + this.pageLines - 1) / this.pageLines));
+        final int to = (int) Math.min(lineIndex.getLineCount(), from + pages * this.pageLines);
+        final String language = Highlighters.getLanguage(storedPaste.getFileNames()[file]);
+        // Responses are cached along with their compressed form, so a range is only highlighted and
+        // compressed once. Ranges of deduplicated files are shared by every paste containing the file
+        final String fileHash = storedPaste.getFileHash(file);
+        final String key = String.format("%s:%d:%d", fileHash == null ? String.format("%s/%d", pasteId, file) :
+            String.format("%s:%s", fileHash, language), from, to);
+        RenderedPaste rendered = this.renderedCache.getIfPresent(key);
+        if (rendered == null) {
+            final StringBuilder html = new StringBuilder();
+            PasteRenderer.appendLines(language, storedPaste.getFileContents()[file], lineIndex, from, to, html);
+
+            final JSONObject range = new JSONObject();
+            range.put("from", from);
+            range.put("to", to);
+            range.put("line_count", lineIndex.getLineCount());
+            range.put("html", html.toString());
+            rendered = RenderedPaste.of(range.toJSONString().getBytes(StandardCharsets.UTF_8));
+            this.renderedCache.put(key, rendered);
+        }
+        response.getHeader().set(Header.HEADER_CONTENT_TYPE, Header.CONTENT_TYPE_JSON);
+        send(rendered, request, response);
+    }
+
+    @ViewMatcher(filter = "paste/assets/js/<file>.js", name = "incendo-paste-script")
+    public void serveScript(final AbstractRequest request, final Response response) {
+        this.serveAsset("js", getNullable(request.get("file")) + ".js", "application/javascript; charset=UTF-8",
+            request, response);
+    }
+
+    @ViewMatcher(filter = "paste/assets/style/<file>.css", name = "incendo-paste-style")
+    public void serveStyle(final AbstractRequest request, final Response response) {
+        this.serveAsset("style", getNullable(request.get("file")) + ".css", "text/css; charset=UTF-8",
+            request, response);
+    }
+
+    private void serveAsset(final String folder, final String fileName, final String contentType,
+        final AbstractRequest request, final Response response) {
+        final RenderedPaste asset = this.assets.get(folder, fileName);
+        if (asset == null) {
+            response.getHeader().setStatus(Header.STATUS_NOT_FOUND);
+            response.setResponse("");
+            return;
+        }
+        response.getHeader().set(Header.HEADER_CONTENT_TYPE, contentType);
+        send(asset, request, response);
+    }
+
+    /**
+     * Serve the stored JSON representation of a paste. As pastes are immutable,
+     * the paste ID doubles as the entity tag. The tag is weak, as the gzip and
+     * identity encodings of the JSON share it
+     */
+    private void serveRaw(final String pasteId, final AbstractRequest request, final Response response) {
+        if (!isValidId(pasteId) || !pasteStore.exists(pasteId)) {
+            Logger.debug("Unknown paste ID requested: {}", pasteId);
+            this.metrics.getPastesNotFound().increment();
+            response.getHeader().setStatus(Header.STATUS_NOT_FOUND);
+            response.setResponse("");
+            return;
+        }
+        recordAccess(pasteId);
+        response.getHeader().set(Header.HEADER_ETAG, String.format("W/\"%s\"", pasteId));
+        response.getHeader().set(HEADER_VARY, "Accept-Encoding");
+        if (matchesEntityTag(getNullable(request.getHeader("if-none-match")), pasteId)) {
+            response.getHeader().setStatus(Header.STATUS_NOT_MODIFIED);
+            response.setResponse(new byte[0]);
+            return;
+        }
+        final boolean gzip = acceptsGzip(request);
+        final RawContent raw;
+        try {
+            // Concurrent requests for the same paste and encoding share a single read
+            raw = this.await(this.rawCache.getAsync(getRawKey(pasteId, gzip),
+                key -> this.readStoredRaw(pasteId, gzip), this.ioExecutor), pasteId);
+        } catch (final TimeoutException e) {
+            serviceUnavailable(response);
+            return;
+        }
+        if (raw == null) {
+            response.getHeader().setStatus(Header.STATUS_NOT_FOUND);
+            response.setResponse("");
+            return;
+        }
+        final byte[] content = raw.content;
+        if (raw.compressed) {
+            response.getHeader().set(Header.HEADER_CONTENT_ENCODING, "gzip");
+        }
+        response.getHeader().set(Header.HEADER_CONTENT_TYPE, Header.CONTENT_TYPE_JSON);
+        response.getHeader().set(Header.HEADER_CONTENT_LENGTH, Integer.toString(content.length));
+        response.setResponse(content);
+    }
+
+    private static String getRawKey(final String pasteId, final boolean gzip) {
+        return gzip ? pasteId + ":gzip" : pasteId;
+    }
+
+    /**
+     * Read the stored JSON representation of a paste. Pastes are immutable, so the
+     * content is cached, separately for gzip and identity encoded responses
+     *
+     * @return Content, or null if the paste doesn't exist or cannot be read
+     */
+    private RawContent readStoredRaw(final String pasteId, final boolean gzip) {
+        try {
+            // Prefer the stored gzip payload, so that it doesn't have to be decompressed and recompressed
+            if (gzip) {
+                final byte[] compressed = pasteStore.readRawCompressed(pasteId);
+                if (compressed != null) {
+                    return new RawContent(compressed, true);
+                }
+            }
+            final byte[] content = pasteStore.readRaw(pasteId);
+            return content == null ? null : new RawContent(content, false);
+        } catch (final IOException e) {
+            e.printStackTrace();
+            Logger.error("Couldn't read paste with ID {}", pasteId);
+            return null;
+        }
+    }
+
+    /**
+     * Wait for a paste to be loaded by the I/O executor. Kvantum expects the response
+     * to be set before the handler returns, so the request worker has to wait, but
+     * only up to the load timeout
+     *
+     * @return Loaded value, or null if loading failed
+     * @throws TimeoutException If the value wasn't loaded in time
+     */
+    private <T> T await(final CompletableFuture<T> future, final String pasteId) throws TimeoutException {
+        try {
+            return future.get(this.loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final ExecutionException e) {
+            e.printStackTrace();
+            Logger.error("Couldn't load paste with ID {}", pasteId);
+            return null;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException(String.format("Interrupted while loading paste %s", pasteId));
+        } catch (final TimeoutException e) {
+            Logger.warn("Timed out loading paste with ID {}", pasteId);
+            this.metrics.getViewTimeouts().increment();
+            throw e;
         }
     }
 
+    /**
+     * Check whether an If-None-Match header lists the entity tag of a paste. Tags are
+     * compared weakly, as required for If-None-Match, and token by token, so that the
+     * ID of one paste never matches inside the tag of another
+     */
+    private static boolean matchesEntityTag(final String ifNoneMatch, final String pasteId) {
+        for (final String token : ifNoneMatch.split(",")) {
+            String tag = token.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.length() == pasteId.length() + 2 && tag.charAt(0) == '"' && tag.endsWith("\"") &&
+                tag.regionMatches(1, pasteId, 0, pasteId.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void serviceUnavailable(final Response response) {
+        response.getHeader().setStatus(Header.STATUS_SERVICE_UNAVAILABLE);
+        response.setResponse("");
+    }
+
+    /**
+     * Record a view of an existing paste, for the retention policy
+     */
+    private void recordAccess(final String pasteId) {
+        if (this.retentionScheduler != null) {
+            this.retentionScheduler.recordAccess(pasteId);
+        }
+    }
+
+    private static boolean isValidId(final String id) {
+        if (id.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isLetterOrDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(final String value, final int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Check whether the client accepts gzip, either by name or through a wildcard. Codings
+     * with a quality of zero are refused, as in {@code Accept-Encoding: gzip;q=0}
+     */
+    private static boolean acceptsGzip(final AbstractRequest request) {
+        final AsciiString acceptEncoding = request.getHeader("accept-encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzipQuality = -1.0, wildcardQuality = -1.0;
+        for (final String coding : acceptEncoding.toString().split(",")) {
+            final String[] parameters = coding.split(";");
+            final String name = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+            double quality = 1.0;
+            for (int i = 1; i < parameters.length; i++) {
+                final String parameter = parameters[i].trim();
+                if (parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q'
+                    && parameter.charAt(1) == '=') {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (final NumberFormatException e) {
+                        quality = 0.0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (name.equals("*")) {
+                wildcardQuality = Math.max(wildcardQuality, quality);
+            }
+        }
+        // The wildcard only applies to codings that aren't listed by name
+        return (gzipQuality >= 0.0 ? gzipQuality : wildcardQuality) > 0.0;
+    }
+
     private static String getNullable(final Object object) {
         if (object == null) {
             return "";
@@ -176,4 +694,12 @@ public final class PasteViewer {
         return object.toString();
     }
 
+    @RequiredArgsConstructor
+    private static final class RawContent {
+
+        private final byte[] content;
+        private final boolean compressed;
+
+    }
+
 }
@@ -0,0 +1,78 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fully rendered paste page, stored as UTF-8 bytes alongside a
+ * pre-compressed gzip variant
+ */
+@Getter
+@RequiredArgsConstructor
+public final class RenderedPaste {
+
+    private final byte[] content;
+    private final byte[] compressed;
+
+    /**
+     * Create a rendered paste from the page content, compressing it once up front
+     *
+     * @param content UTF-8 encoded page
+     * @return Rendered paste
+     */
+    public static RenderedPaste of(final byte[] content) {
+        return new RenderedPaste(content, compress(content));
+    }
+
+    /**
+     * Compress a response body with gzip
+     *
+     * @param content Response body
+     * @return Gzip compressed body
+     */
+    private static byte[] compress(final byte[] content) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(512, content.length / 4));
+        try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(content);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Get the approximate number of bytes retained by this object
+     *
+     * @return Retained bytes
+     */
+    public int getWeight() {
+        return this.content.length + this.compressed.length;
+    }
+
+}
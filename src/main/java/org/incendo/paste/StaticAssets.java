@@ -0,0 +1,135 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Static files served by the viewer itself, such as the highlight.js bundle and the
+ * page stylesheet. Kvantum's response compression is disabled, as it would compress
+ * the pre-compressed pages a second time, so these files are compressed once when
+ * they are first requested and kept in memory along with their gzip variant. Like
+ * templates, files are read again when their modification time changes, which is
+ * checked at most once per second
+ */
+final class StaticAssets {
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000L;
+
+    private final Path folder;
+    private final ConcurrentMap<String, Asset> assets = new ConcurrentHashMap<>();
+
+    /**
+     * @param folder Folder the asset paths are resolved against
+     */
+    StaticAssets(final Path folder) {
+        this.folder = folder;
+    }
+
+    private static boolean isValidName(final String name) {
+        if (name.isEmpty() || name.charAt(0) == '.') {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get an asset, reading it the first time it is requested, and again once it has changed
+     *
+     * @param subfolder Folder of the asset, relative to the assets folder
+     * @param fileName File name
+     * @return The asset, or null if the file doesn't exist or cannot be read
+     */
+    RenderedPaste get(final String subfolder, final String fileName) {
+        if (!isValidName(fileName)) {
+            return null;
+        }
+        final String key = subfolder + '/' + fileName;
+        final long now = System.currentTimeMillis();
+        Asset asset = this.assets.get(key);
+        if (asset == null || now >= asset.nextCheck) {
+            // Missing files aren't remembered, so requests for made up names can't fill the map
+            asset = this.assets.compute(key, (ignored, current) ->
+                this.load(key, this.folder.resolve(subfolder).resolve(fileName), current, now));
+        }
+        return asset == null ? null : asset.content;
+    }
+
+    private Asset load(final String key, final Path path, final Asset current, final long now) {
+        // Another request may have checked the file while this one was waiting
+        if (current != null && now < current.nextCheck) {
+            return current;
+        }
+        try {
+            final long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (current != null && current.lastModified == lastModified) {
+                current.nextCheck = now + CHECK_INTERVAL_MILLIS;
+                return current;
+            }
+            final Asset asset = new Asset(RenderedPaste.of(Files.readAllBytes(path)), lastModified,
+                now + CHECK_INTERVAL_MILLIS);
+            if (current != null) {
+                Logger.info("Reloaded asset {}", key);
+            }
+            return asset;
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            e.printStackTrace();
+            if (current != null) {
+                Logger.error("Failed to reload asset {}, keeping the previous version", key);
+                current.nextCheck = now + CHECK_INTERVAL_MILLIS;
+                return current;
+            }
+            Logger.error("Couldn't read asset {}", key);
+            return null;
+        }
+    }
+
+    private static final class Asset {
+
+        private final RenderedPaste content;
+        private final long lastModified;
+        private volatile long nextCheck;
+
+        private Asset(final RenderedPaste content, final long lastModified, final long nextCheck) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.nextCheck = nextCheck;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Compact, immutable representation of a stored paste
+ */
+@Getter
+@RequiredArgsConstructor
+public final class StoredPaste {
+
+    /**
+     * Fixed overhead per object, and per referenced string
+     */
+    private static final int OBJECT_OVERHEAD = 64, STRING_OVERHEAD = 40;
+
+    @NonNull private final String id;
+    private final long timestamp;
+    @NonNull private final String applicationId;
+    @NonNull private final String[] fileNames;
+    @NonNull private final String[] fileContents;
+    /**
+     * Content hashes of the files, or null if the paste was stored before files were
+     * deduplicated. Individual hashes are null for files that weren't deduplicated
+     */
+    @Getter(AccessLevel.NONE) private final String[] fileHashes;
+    @Getter(AccessLevel.NONE) private volatile LineIndex[] lineIndices;
+
+    public StoredPaste(final String id, final long timestamp, final String applicationId, final String[] fileNames,
+        final String[] fileContents) {
+        this(id, timestamp, applicationId, fileNames, fileContents, null);
+    }
+
+    /**
+     * Get the number of files in this paste
+     *
+     * @return File count
+     */
+    public int getFileCount() {
+        return this.fileNames.length;
+    }
+
+    /**
+     * Get the content hash of a file
+     *
+     * @param file File index
+     * @return Content hash, or null if the file isn't stored by its hash
+     */
+    public String getFileHash(final int file) {
+        return this.fileHashes == null ? null : this.fileHashes[file];
+    }
+
+    /**
+     * Build the line indices of all files. Pastes are indexed before they are
+     * cached, so that the indices are included in their weight
+     */
+    public void indexLines() {
+        for (int i = 0; i < this.fileContents.length; i++) {
+            this.getLineIndex(i);
+        }
+    }
+
+    /**
+     * Get the line index of a file, building it if {@link #indexLines()} hasn't been called
+     *
+     * @param file File index
+     * @return Line index
+     */
+    public LineIndex getLineIndex(final int file) {
+        LineIndex[] lineIndices = this.lineIndices;
+        if (lineIndices == null) {
+            lineIndices = this.lineIndices = new LineIndex[this.fileContents.length];
+        }
+        LineIndex lineIndex = lineIndices[file];
+        if (lineIndex == null) {
+            lineIndex = lineIndices[file] = LineIndex.of(this.fileContents[file]);
+        }
+        return lineIndex;
+    }
+
+    /**
+     * Get the number of bytes a string takes up when encoded as UTF-8, without encoding it.
+     * Unpaired surrogates count as the single replacement byte the encoder writes for them
+     *
+     * @param string String
+     * @return UTF-8 encoded length
+     */
+    public static long getEncodedLength(final String string) {
+        long length = 0L;
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Get the total number of bytes the file contents take up when encoded as UTF-8
+     *
+     * @return UTF-8 encoded content length
+     */
+    public long getEncodedSize() {
+        long size = 0L;
+        for (final String content : this.fileContents) {
+            size += getEncodedLength(content);
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the number of heap bytes retained by this paste. Strings are
+     * assumed to be compact (one byte per character), which holds for the
+     * logs and configuration files that make up most pastes. Line indices are
+     * included once they have been built
+     *
+     * @return Estimated retained bytes
+     */
+    public int getWeight() {
+        long weight = OBJECT_OVERHEAD + STRING_OVERHEAD * 2 + this.id.length() + this.applicationId.length();
+        for (int i = 0; i < this.fileNames.length; i++) {
+            weight += STRING_OVERHEAD * 2 + this.fileNames[i].length() + this.fileContents[i].length();
+        }
+        final LineIndex[] lineIndices = this.lineIndices;
+        if (lineIndices != null) {
+            for (final LineIndex lineIndex : lineIndices) {
+                if (lineIndex != null) {
+                    weight += OBJECT_OVERHEAD + 4L * (lineIndex.getLineCount() + 1);
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+}
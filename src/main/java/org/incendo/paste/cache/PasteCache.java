@@ -0,0 +1,179 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cache bounded by the estimated number of bytes retained by its values, rather
+ * than by entry count. Admission uses Caffeine's W-TinyLFU policy, so a burst of
+ * one-off lookups won't push frequently requested entries out of the cache.
+ * Concurrent misses for the same key can be coalesced into a single load, see
+ * {@link #getAsync(String, Function, Executor)}
+ *
+ * @param <V> Value type
+ */
+public final class PasteCache<V> {
+
+    @Getter private final String name;
+    private final Cache<String, V> cache;
+    private final ConcurrentMap<String, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a new cache
+     *
+     * @param name Cache name, used when reporting statistics
+     * @param maximumBytes Maximum number of retained bytes
+     * @param expiryMinutes Minutes after which entries that haven't been accessed expire
+     * @param weigher Function estimating the retained bytes of a value
+     */
+    public PasteCache(final String name, final long maximumBytes, final long expiryMinutes,
+        final ToIntFunction<V> weigher) {
+        this.name = name;
+        this.cache = Caffeine.newBuilder().maximumWeight(maximumBytes)
+            .weigher((String key, V value) -> weigher.applyAsInt(value))
+            .expireAfterAccess(expiryMinutes, TimeUnit.MINUTES).recordStats().build();
+    }
+
+    public V getIfPresent(final String key) {
+        return this.cache.getIfPresent(key);
+    }
+
+    /**
+     * Get a cached value without counting the lookup in the cache statistics, for
+     * lookups that aren't made on behalf of viewers
+     *
+     * @param key Key
+     * @return Cached value, or null
+     */
+    public V peek(final String key) {
+        return this.cache.asMap().get(key);
+    }
+
+    /**
+     * Get a value, loading it on the executor if it isn't cached. While a value is
+     * being loaded, every other request for the same key waits for that load instead
+     * of starting its own. Loads run outside of the cache, so a slow load never
+     * blocks lookups of other keys. Loaded values are cached unless they are null
+     *
+     * @param key Key
+     * @param loader Function loading the value, may return null
+     * @param executor Executor that runs the loader
+     * @return Future completed with the value, or exceptionally if the loader failed
+     */
+    public CompletableFuture<V> getAsync(final String key, final Function<String, V> loader,
+        final Executor executor) {
+        final V cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = this.loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> this.load(key, loader, future));
+        } catch (final RuntimeException e) {
+            this.loading.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void load(final String key, final Function<String, V> loader, final CompletableFuture<V> future) {
+        try {
+            // Another load may have finished between the lookup and claiming the key. The
+            // lookup already counted as a miss, so this check must not count again
+            V value = this.peek(key);
+            if (value == null) {
+                value = loader.apply(key);
+            }
+            if (value != null) {
+                this.cache.put(key, value);
+            }
+            future.complete(value);
+        } catch (final Throwable throwable) {
+            future.completeExceptionally(throwable);
+        } finally {
+            this.loading.remove(key, future);
+        }
+    }
+
+    public void put(final String key, final V value) {
+        this.cache.put(key, value);
+    }
+
+    public void invalidate(final String key) {
+        this.cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Get a snapshot of the hit, miss and eviction counters
+     *
+     * @return Cache statistics
+     */
+    public CacheStats getStats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Get the number of cached entries
+     *
+     * @return Approximate entry count
+     */
+    public long getSize() {
+        return this.cache.estimatedSize();
+    }
+
+    /**
+     * Get the estimated number of bytes currently retained by the cache
+     *
+     * @return Retained bytes
+     */
+    public long getWeightedSize() {
+        return this.cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    @Override public String toString() {
+        final CacheStats stats = this.getStats();
+        return String.format("%s: %d entries, %d bytes, %d hits, %d misses, %d evictions (%.2f hit ratio)",
+            this.name, this.getSize(), this.getWeightedSize(), stats.hitCount(), stats.missCount(),
+            stats.evictionCount(), stats.hitRate());
+    }
+
+}
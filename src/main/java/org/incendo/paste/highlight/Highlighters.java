@@ -0,0 +1,144 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+import java.util.Locale;
+
+/**
+ * Language detection and highlighter lookup
+ */
+public final class Highlighters {
+
+    private static final Highlighter LOG = new LogHighlighter();
+    private static final Highlighter YAML = new YamlHighlighter();
+    private static final Highlighter PROPERTIES = new PropertiesHighlighter();
+    private static final Highlighter JSON = new JsonHighlighter();
+
+    private Highlighters() {
+    }
+
+    /**
+     * Get the highlight.js language of a file, based on its extension
+     *
+     * @param fileName File name
+     * @return Language name
+     */
+    public static String getLanguage(final String fileName) {
+        final int index = fileName.lastIndexOf('.');
+        if (index == -1) {
+            return "plaintext";
+        }
+        final String extension = fileName.substring(index + 1).toLowerCase(Locale.ENGLISH);
+        // The language ends up in a class attribute
+        for (int i = 0; i < extension.length(); i++) {
+            if (!Character.isLetterOrDigit(extension.charAt(i))) {
+                return "plaintext";
+            }
+        }
+        switch (extension) {
+            case "yml":
+                return "yaml";
+            case "":
+            case "log":
+            case "txt":
+                return "plaintext";
+            default:
+                return extension;
+        }
+    }
+
+    /**
+     * Get the server side highlighter for a language
+     *
+     * @param language Language name, as returned by {@link #getLanguage(String)}
+     * @return Highlighter, or null if the language has to be highlighted by the browser
+     */
+    public static Highlighter getHighlighter(final String language) {
+        switch (language) {
+            case "plaintext":
+                // Plain text files are almost always logs, which are full of levels and stack traces
+                return LOG;
+            case "yaml":
+                return YAML;
+            case "properties":
+                return PROPERTIES;
+            case "json":
+                return JSON;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Append an HTML escaped part of a string
+     *
+     * @param content Source string
+     * @param start Start index, inclusive
+     * @param end End index, exclusive
+     * @param output Output builder
+     */
+    static void escape(final String content, final int start, final int end, final StringBuilder output) {
+        int last = start;
+        for (int i = start; i < end; i++) {
+            final String replacement;
+            switch (content.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            output.append(content, last, i).append(replacement);
+            last = i + 1;
+        }
+        output.append(content, last, end);
+    }
+
+    /**
+     * Append an HTML escaped part of a string, wrapped in a highlight.js span
+     *
+     * @param type highlight.js class name, without the {@code hljs-} prefix
+     * @param content Source string
+     * @param start Start index, inclusive
+     * @param end End index, exclusive
+     * @param output Output builder
+     */
+    static void span(final String type, final String content, final int start, final int end,
+        final StringBuilder output) {
+        if (start >= end) {
+            return;
+        }
+        output.append("<span class=\"hljs-").append(type).append("\">");
+        escape(content, start, end, output);
+        output.append("</span>");
+    }
+
+}
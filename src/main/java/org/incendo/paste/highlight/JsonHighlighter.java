@@ -0,0 +1,90 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+/**
+ * Highlighter for JSON documents. This is a tokenizer, not a parser, so
+ * malformed documents are highlighted as far as they make sense
+ */
+final class JsonHighlighter implements Highlighter {
+
+    @Override public void highlight(final String content, final StringBuilder output) {
+        final int length = content.length();
+        int index = 0;
+        while (index < length) {
+            final char c = content.charAt(index);
+            if (c == '"') {
+                final int end = findStringEnd(content, index);
+                // Strings followed by a colon are object keys
+                int next = end;
+                while (next < length && Character.isWhitespace(content.charAt(next))) {
+                    next++;
+                }
+                Highlighters.span(next < length && content.charAt(next) == ':' ? "attr" : "string",
+                    content, index, end, output);
+                index = end;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int end = index + 1;
+                while (end < length && isNumberPart(content.charAt(end))) {
+                    end++;
+                }
+                Highlighters.span("number", content, index, end, output);
+                index = end;
+            } else if (content.startsWith("true", index) || content.startsWith("null", index)) {
+                Highlighters.span("literal", content, index, index + 4, output);
+                index += 4;
+            } else if (content.startsWith("false", index)) {
+                Highlighters.span("literal", content, index, index + 5, output);
+                index += 5;
+            } else {
+                int end = index + 1;
+                while (end < length && !isTokenStart(content, end)) {
+                    end++;
+                }
+                Highlighters.escape(content, index, end, output);
+                index = end;
+            }
+        }
+    }
+
+    private static int findStringEnd(final String content, final int start) {
+        for (int index = start + 1; index < content.length(); index++) {
+            final char c = content.charAt(index);
+            if (c == '\\') {
+                index++;
+            } else if (c == '"' || c == '\n') {
+                return c == '"' ? index + 1 : index;
+            }
+        }
+        return content.length();
+    }
+
+    private static boolean isNumberPart(final char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+    private static boolean isTokenStart(final String content, final int index) {
+        final char c = content.charAt(index);
+        return c == '"' || c == '-' || (c >= '0' && c <= '9') || c == 't' || c == 'f' || c == 'n';
+    }
+
+}
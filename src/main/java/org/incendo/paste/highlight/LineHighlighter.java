@@ -0,0 +1,69 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+/**
+ * Highlighter for line oriented formats. Every line is highlighted
+ * on its own, which keeps the cost linear in the content size
+ */
+abstract class LineHighlighter implements Highlighter {
+
+    @Override public final void highlight(final String content, final StringBuilder output) {
+        boolean continuation = false;
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            if (end == -1) {
+                end = content.length();
+            }
+            // Keep carriage returns out of the highlighted text
+            final int lineEnd = end > start && content.charAt(end - 1) == '\r' ? end - 1 : end;
+            continuation = this.highlightLine(content, start, lineEnd, continuation, output);
+            output.append(content, lineEnd, Math.min(end + 1, content.length()));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Highlight a single line, without its line terminator
+     *
+     * @param content Entire content
+     * @param start Line start index, inclusive
+     * @param end Line end index, exclusive
+     * @param continuation Whether the previous line continues into this one
+     * @param output Output builder
+     * @return Whether this line continues into the next one
+     */
+    protected abstract boolean highlightLine(String content, int start, int end, boolean continuation,
+        StringBuilder output);
+
+    /**
+     * Get the index of the first non whitespace character in a range
+     */
+    static int skipWhitespace(final String content, int index, final int end) {
+        while (index < end && Character.isWhitespace(content.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+}
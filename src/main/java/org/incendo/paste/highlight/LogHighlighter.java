@@ -0,0 +1,105 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Highlighter for server logs: timestamps, log levels and Java stack traces
+ */
+final class LogHighlighter extends LineHighlighter {
+
+    private static final Pattern TIMESTAMP =
+        Pattern.compile("\\[[^\\]]{1,40}]|\\d{4}-\\d{2}-\\d{2}[ T]\\d{2}:\\d{2}:\\d{2}[.,\\d]*");
+    private static final Pattern LEVEL =
+        Pattern.compile("\\b(?:FATAL|SEVERE|ERROR|WARNING|WARN|INFO|DEBUG|TRACE|FINEST|FINER|FINE)\\b");
+    private static final Pattern STACK_FRAME = Pattern.compile("(\\s*)(at)(\\s+)([^\\s(]+)(\\(.*\\))?.*");
+    private static final Pattern EXCEPTION =
+        Pattern.compile("(\\s*)((?:Caused by|Suppressed): )?((?:[\\w$]+\\.)+[\\w$]*(?:Exception|Error|Throwable))(:.*)?");
+    private static final Pattern MORE_FRAMES = Pattern.compile("\\s*\\.\\.\\. \\d+ more");
+
+    @Override protected boolean highlightLine(final String content, final int start, final int end,
+        final boolean continuation, final StringBuilder output) {
+        final Matcher frame = STACK_FRAME.matcher(content).region(start, end);
+        if (frame.matches()) {
+            output.append(content, frame.start(1), frame.end(1));
+            Highlighters.span("keyword", content, frame.start(2), frame.end(2), output);
+            output.append(content, frame.start(3), frame.end(3));
+            Highlighters.span("title", content, frame.start(4), frame.end(4), output);
+            if (frame.start(5) != -1) {
+                Highlighters.span("comment", content, frame.start(5), frame.end(5), output);
+            }
+            Highlighters.escape(content, Math.max(frame.end(4), frame.end(5)), end, output);
+            return false;
+        }
+        final Matcher exception = EXCEPTION.matcher(content).region(start, end);
+        if (exception.matches()) {
+            output.append(content, exception.start(1), exception.end(1));
+            if (exception.start(2) != -1) {
+                Highlighters.span("keyword", content, exception.start(2), exception.end(2), output);
+            }
+            Highlighters.span("type", content, exception.start(3), exception.end(3), output);
+            if (exception.start(4) != -1) {
+                Highlighters.escape(content, exception.start(4), exception.end(4), output);
+            }
+            return false;
+        }
+        if (MORE_FRAMES.matcher(content).region(start, end).matches()) {
+            Highlighters.span("comment", content, start, end, output);
+            return false;
+        }
+        int index = start;
+        final Matcher timestamp = TIMESTAMP.matcher(content).region(start, end);
+        if (timestamp.lookingAt()) {
+            Highlighters.span("meta", content, start, timestamp.end(), output);
+            index = timestamp.end();
+        }
+        // Levels are only looked for near the start of the line, messages may contain the same words
+        final Matcher level = LEVEL.matcher(content).region(index, Math.min(end, index + 64));
+        if (level.find()) {
+            Highlighters.escape(content, index, level.start(), output);
+            Highlighters.span(getLevelType(content, level.start()), content, level.start(), level.end(),
+                output);
+            index = level.end();
+        }
+        Highlighters.escape(content, index, end, output);
+        return false;
+    }
+
+    private static String getLevelType(final String content, final int index) {
+        switch (content.charAt(index)) {
+            case 'S':
+            case 'E':
+                return "deletion";
+            case 'F':
+                return content.startsWith("FATAL", index) ? "deletion" : "comment";
+            case 'W':
+                return "built_in";
+            case 'I':
+                return "string";
+            default:
+                return "comment";
+        }
+    }
+
+}
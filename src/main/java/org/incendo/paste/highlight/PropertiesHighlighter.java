@@ -0,0 +1,79 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+/**
+ * Highlighter for Java properties files
+ */
+final class PropertiesHighlighter extends LineHighlighter {
+
+    @Override protected boolean highlightLine(final String content, final int start, final int end,
+        final boolean continuation, final StringBuilder output) {
+        if (continuation) {
+            Highlighters.span("string", content, start, end, output);
+            return endsWithContinuation(content, start, end);
+        }
+        int index = skipWhitespace(content, start, end);
+        output.append(content, start, index);
+        if (index == end) {
+            return false;
+        }
+        if (content.charAt(index) == '#' || content.charAt(index) == '!') {
+            Highlighters.span("comment", content, index, end, output);
+            return false;
+        }
+        // The key ends at the first unescaped separator or whitespace
+        int keyEnd = index;
+        while (keyEnd < end) {
+            final char c = content.charAt(keyEnd);
+            if (c == '\\') {
+                keyEnd += 2;
+                continue;
+            }
+            if (c == '=' || c == ':' || Character.isWhitespace(c)) {
+                break;
+            }
+            keyEnd++;
+        }
+        keyEnd = Math.min(keyEnd, end);
+        Highlighters.span("attr", content, index, keyEnd, output);
+        int valueStart = skipWhitespace(content, keyEnd, end);
+        if (valueStart < end && (content.charAt(valueStart) == '=' || content.charAt(valueStart) == ':')) {
+            valueStart = skipWhitespace(content, valueStart + 1, end);
+        }
+        Highlighters.escape(content, keyEnd, valueStart, output);
+        Highlighters.span("string", content, valueStart, end, output);
+        return endsWithContinuation(content, start, end);
+    }
+
+    /**
+     * A line continues onto the next one if it ends with an odd number of backslashes
+     */
+    private static boolean endsWithContinuation(final String content, final int start, final int end) {
+        int backslashes = 0;
+        for (int index = end - 1; index >= start && content.charAt(index) == '\\'; index--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+}
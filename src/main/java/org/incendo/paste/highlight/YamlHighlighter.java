@@ -0,0 +1,153 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+import java.util.regex.Pattern;
+
+/**
+ * Highlighter for YAML configuration files
+ */
+final class YamlHighlighter extends LineHighlighter {
+
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(?:\\d[\\d_]*(?:\\.\\d*)?(?:[eE][-+]?\\d+)?|0x[\\da-fA-F]+|\\.inf|\\.nan)");
+    private static final Pattern LITERAL = Pattern.compile("(?i:true|false|yes|no|on|off|null)|~");
+
+    @Override protected boolean highlightLine(final String content, final int start, final int end,
+        final boolean continuation, final StringBuilder output) {
+        int index = skipWhitespace(content, start, end);
+        output.append(content, start, index);
+        if (index == end) {
+            return false;
+        }
+        if (content.charAt(index) == '#') {
+            Highlighters.span("comment", content, index, end, output);
+            return false;
+        }
+        if ((content.startsWith("---", index) || content.startsWith("...", index))
+            && skipWhitespace(content, index + 3, end) == end) {
+            Highlighters.span("meta", content, index, end, output);
+            return false;
+        }
+        // Sequence entries, possibly nested on a single line
+        while (index < end && content.charAt(index) == '-' && (index + 1 == end || content.charAt(index + 1) == ' ')) {
+            Highlighters.span("bullet", content, index, index + 1, output);
+            final int next = skipWhitespace(content, index + 1, end);
+            output.append(content, index + 1, next);
+            index = next;
+        }
+        final int keyEnd = findKeyEnd(content, index, end);
+        if (keyEnd != -1) {
+            Highlighters.span("attr", content, index, keyEnd, output);
+            final int next = skipWhitespace(content, keyEnd + 1, end);
+            output.append(content, keyEnd, next);
+            index = next;
+        }
+        highlightValue(content, index, end, output);
+        return false;
+    }
+
+    /**
+     * Find the colon that ends a mapping key, or -1 if the line has no key
+     */
+    private static int findKeyEnd(final String content, final int start, final int end) {
+        int index = start;
+        if (index < end && (content.charAt(index) == '"' || content.charAt(index) == '\'')) {
+            index = findQuoteEnd(content, index, end);
+        }
+        for (; index < end; index++) {
+            final char c = content.charAt(index);
+            if (c == ':' && (index + 1 == end || content.charAt(index + 1) == ' ' || content.charAt(index + 1) == '\t')) {
+                return index;
+            }
+            if (c == '#' && index > start && Character.isWhitespace(content.charAt(index - 1))) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the index after the quote that closes a quoted scalar
+     */
+    private static int findQuoteEnd(final String content, final int start, final int end) {
+        final char quote = content.charAt(start);
+        for (int index = start + 1; index < end; index++) {
+            final char c = content.charAt(index);
+            if (quote == '"' && c == '\\') {
+                index++;
+            } else if (c == quote) {
+                // Single quotes are escaped by doubling them
+                if (quote == '\'' && index + 1 < end && content.charAt(index + 1) == '\'') {
+                    index++;
+                } else {
+                    return index + 1;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static void highlightValue(final String content, final int start, final int end,
+        final StringBuilder output) {
+        if (start == end) {
+            return;
+        }
+        int valueEnd;
+        final char first = content.charAt(start);
+        if (first == '"' || first == '\'') {
+            valueEnd = findQuoteEnd(content, start, end);
+            Highlighters.span("string", content, start, valueEnd, output);
+        } else {
+            valueEnd = end;
+            for (int index = start + 1; index < end; index++) {
+                if (content.charAt(index) == '#' && Character.isWhitespace(content.charAt(index - 1))) {
+                    valueEnd = index;
+                    break;
+                }
+            }
+            while (valueEnd > start && Character.isWhitespace(content.charAt(valueEnd - 1))) {
+                valueEnd--;
+            }
+            final String type;
+            if (first == '&' || first == '*') {
+                type = "variable";
+            } else if (first == '|' || first == '>') {
+                type = "meta";
+            } else if (NUMBER.matcher(content).region(start, valueEnd).matches()) {
+                type = "number";
+            } else if (LITERAL.matcher(content).region(start, valueEnd).matches()) {
+                type = "literal";
+            } else {
+                type = "string";
+            }
+            Highlighters.span(type, content, start, valueEnd, output);
+        }
+        final int comment = skipWhitespace(content, valueEnd, end);
+        output.append(content, valueEnd, comment);
+        if (comment < end && content.charAt(comment) == '#') {
+            Highlighters.span("comment", content, comment, end, output);
+        } else {
+            Highlighters.escape(content, comment, end, output);
+        }
+    }
+
+}
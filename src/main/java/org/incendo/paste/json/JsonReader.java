@@ -0,0 +1,436 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Minimal pull parser for JSON documents. Values are read one token at a time
+ * straight from the underlying reader, so documents never have to be materialized
+ * as a tree. Instances are cheap and are not thread safe; create one per document
+ */
+public final class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int SCOPE_EMPTY_ARRAY = 1;
+    private static final int SCOPE_ARRAY = 2;
+    private static final int SCOPE_EMPTY_OBJECT = 3;
+    private static final int SCOPE_DANGLING_NAME = 4;
+    private static final int SCOPE_OBJECT = 5;
+    private static final int SCOPE_EMPTY_DOCUMENT = 6;
+    private static final int SCOPE_DOCUMENT = 7;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder scratch = new StringBuilder();
+    private int position;
+    private int limit;
+    private long consumed;
+
+    private int[] scopes = new int[16];
+    private int scopeCount;
+    private Token peeked;
+
+    /**
+     * Construct a new reader. The reader is buffered internally, so there
+     * is no need to wrap the source in a {@link java.io.BufferedReader}
+     *
+     * @param reader Source reader
+     */
+    public JsonReader(final Reader reader) {
+        this.reader = reader;
+        this.scopes[this.scopeCount++] = SCOPE_EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Get the type of the next token, without consuming it
+     *
+     * @return Next token
+     * @throws IOException If the document is malformed or cannot be read
+     */
+    public Token peek() throws IOException {
+        if (this.peeked != null) {
+            return this.peeked;
+        }
+        final int scope = this.scopes[this.scopeCount - 1];
+        int c;
+        switch (scope) {
+            case SCOPE_EMPTY_ARRAY:
+                this.scopes[this.scopeCount - 1] = SCOPE_ARRAY;
+                if ((c = this.nextNonWhitespace()) == ']') {
+                    return this.peeked = Token.END_ARRAY;
+                } else if (c == -1) {
+                    throw this.syntaxError("Unterminated array");
+                }
+                this.position--;
+                break;
+            case SCOPE_ARRAY:
+                if ((c = this.nextNonWhitespace()) == ']') {
+                    return this.peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw this.syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_OBJECT:
+                this.scopes[this.scopeCount - 1] = SCOPE_DANGLING_NAME;
+                c = this.nextNonWhitespace();
+                if (c == '}') {
+                    return this.peeked = Token.END_OBJECT;
+                }
+                if (scope == SCOPE_OBJECT) {
+                    if (c != ',') {
+                        throw this.syntaxError("Expected ',' or '}'");
+                    }
+                    c = this.nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw this.syntaxError("Expected name");
+                }
+                return this.peeked = Token.NAME;
+            case SCOPE_DANGLING_NAME:
+                this.scopes[this.scopeCount - 1] = SCOPE_OBJECT;
+                if (this.nextNonWhitespace() != ':') {
+                    throw this.syntaxError("Expected ':'");
+                }
+                break;
+            case SCOPE_EMPTY_DOCUMENT:
+                this.scopes[this.scopeCount - 1] = SCOPE_DOCUMENT;
+                break;
+            default:
+                if (this.nextNonWhitespace() != -1) {
+                    throw this.syntaxError("Expected end of document");
+                }
+                return this.peeked = Token.END_DOCUMENT;
+        }
+        c = this.nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return this.peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return this.peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return this.peeked = Token.STRING;
+            case 't':
+            case 'f':
+                this.position--;
+                return this.peeked = Token.BOOLEAN;
+            case 'n':
+                this.position--;
+                return this.peeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    this.position--;
+                    return this.peeked = Token.NUMBER;
+                }
+                throw this.syntaxError("Expected value");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        this.expect(Token.BEGIN_OBJECT);
+        this.push(SCOPE_EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        this.expect(Token.END_OBJECT);
+        this.scopeCount--;
+    }
+
+    public void beginArray() throws IOException {
+        this.expect(Token.BEGIN_ARRAY);
+        this.push(SCOPE_EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        this.expect(Token.END_ARRAY);
+        this.scopeCount--;
+    }
+
+    /**
+     * Check whether the current object or array has more elements
+     *
+     * @return True if there are more elements
+     * @throws IOException If the document is malformed or cannot be read
+     */
+    public boolean hasNext() throws IOException {
+        final Token token = this.peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        this.expect(Token.NAME);
+        this.scratch.setLength(0);
+        this.readString(null);
+        return this.scratch.toString();
+    }
+
+    /**
+     * Read the next string value. Numbers and booleans are returned
+     * in their literal form
+     *
+     * @return String value
+     * @throws IOException If the document is malformed or cannot be read
+     */
+    public String nextString() throws IOException {
+        final Token token = this.peek();
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            this.peeked = null;
+            return this.readLiteral();
+        }
+        this.expect(Token.STRING);
+        this.scratch.setLength(0);
+        this.readString(null);
+        return this.scratch.toString();
+    }
+
+    /**
+     * Stream the next string value to a writer, without
+     * keeping it in memory
+     *
+     * @param writer Target writer
+     * @throws IOException If the document is malformed or cannot be read,
+     *                     or if the writer fails
+     */
+    public void nextString(final Writer writer) throws IOException {
+        this.expect(Token.STRING);
+        this.readString(writer);
+    }
+
+    public long nextLong() throws IOException {
+        final String value = this.nextString();
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw this.syntaxError(String.format("Expected a long, got %s", value));
+        }
+    }
+
+    public void nextNull() throws IOException {
+        this.expect(Token.NULL);
+        if (!"null".equals(this.readLiteral())) {
+            throw this.syntaxError("Expected null");
+        }
+    }
+
+    /**
+     * Skip the next value, including any nested values. Skipped strings
+     * are not kept in memory
+     *
+     * @throws IOException If the document is malformed or cannot be read
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (this.peek()) {
+                case BEGIN_OBJECT:
+                    this.beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    this.beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    this.endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    this.endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    this.peeked = null;
+                    this.skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw this.syntaxError("Unexpected end of document");
+                default:
+                    this.peeked = null;
+                    this.readLiteral();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private void expect(final Token expected) throws IOException {
+        final Token token = this.peek();
+        if (token != expected) {
+            throw this.syntaxError(String.format("Expected %s but was %s", expected, token));
+        }
+        this.peeked = null;
+    }
+
+    private void push(final int scope) {
+        if (this.scopeCount == this.scopes.length) {
+            final int[] scopes = new int[this.scopes.length * 2];
+            System.arraycopy(this.scopes, 0, scopes, 0, this.scopeCount);
+            this.scopes = scopes;
+        }
+        this.scopes[this.scopeCount++] = scope;
+    }
+
+    private boolean fill() throws IOException {
+        if (this.position < this.limit) {
+            return true;
+        }
+        this.consumed += this.limit;
+        this.position = this.limit = 0;
+        final int read = this.reader.read(this.buffer, 0, this.buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        this.limit = read;
+        return true;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (this.fill()) {
+            final char c = this.buffer[this.position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private char nextChar() throws IOException {
+        if (!this.fill()) {
+            throw this.syntaxError("Unterminated string");
+        }
+        return this.buffer[this.position++];
+    }
+
+    /**
+     * Read a string whose opening quote has been consumed, appending it
+     * either to the writer or, if that is null, to the scratch buffer
+     */
+    private void readString(final Writer writer) throws IOException {
+        while (true) {
+            if (!this.fill()) {
+                throw this.syntaxError("Unterminated string");
+            }
+            final int start = this.position;
+            int end = start;
+            char c = 0;
+            while (end < this.limit && (c = this.buffer[end]) != '"' && c != '\\') {
+                end++;
+            }
+            if (end > start) {
+                if (writer == null) {
+                    this.scratch.append(this.buffer, start, end - start);
+                } else {
+                    writer.write(this.buffer, start, end - start);
+                }
+            }
+            this.position = end;
+            if (end == this.limit) {
+                continue;
+            }
+            this.position++;
+            if (c == '"') {
+                return;
+            }
+            final char escaped = this.readEscape();
+            if (writer == null) {
+                this.scratch.append(escaped);
+            } else {
+                writer.write(escaped);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            final char c = this.nextChar();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                this.readEscape();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final char c = this.nextChar();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(this.nextChar(), 16);
+                    if (digit == -1) {
+                        throw this.syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw this.syntaxError(String.format("Invalid escape sequence \\%c", c));
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        this.scratch.setLength(0);
+        while (this.fill()) {
+            final char c = this.buffer[this.position];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ':') {
+                break;
+            }
+            this.scratch.append(c);
+            this.position++;
+        }
+        if (this.scratch.length() == 0) {
+            throw this.syntaxError("Expected literal");
+        }
+        return this.scratch.toString();
+    }
+
+    private IOException syntaxError(final String message) {
+        return new IOException(String.format("%s at character %d", message, this.consumed + this.position));
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streaming JSON writer, counterpart to {@link JsonReader}. Strings are escaped
+ * as they are written, so values never have to be copied into an intermediate
+ * buffer. Instances are not thread safe
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final char[] buffer = new char[1024];
+    private boolean[] hasElements = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Construct a new writer. Output is not buffered by the writer itself,
+     * so the target should be buffered
+     *
+     * @param writer Target writer
+     */
+    public JsonWriter(final Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        this.beforeValue();
+        this.writer.write('{');
+        this.push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        this.depth--;
+        this.writer.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        this.beforeValue();
+        this.writer.write('[');
+        this.push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        this.depth--;
+        this.writer.write(']');
+        return this;
+    }
+
+    public JsonWriter name(final String name) throws IOException {
+        this.beforeValue();
+        this.writeString(name);
+        this.writer.write(':');
+        this.afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(final String value) throws IOException {
+        this.beforeValue();
+        this.writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(final long value) throws IOException {
+        this.beforeValue();
+        this.writer.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a string value read from a reader, escaping it
+     * while it is being copied
+     *
+     * @param reader Source of the string value
+     * @return This writer
+     * @throws IOException If the reader or writer fails
+     */
+    public JsonWriter value(final Reader reader) throws IOException {
+        this.beforeValue();
+        this.writer.write('"');
+        final char[] chars = new char[8192];
+        int read;
+        while ((read = reader.read(chars, 0, chars.length)) != -1) {
+            this.writeEscaped(chars, read);
+        }
+        this.writer.write('"');
+        return this;
+    }
+
+    @Override public void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    @Override public void close() throws IOException {
+        this.writer.close();
+    }
+
+    private void push() {
+        if (this.depth == this.hasElements.length) {
+            final boolean[] hasElements = new boolean[this.depth * 2];
+            System.arraycopy(this.hasElements, 0, hasElements, 0, this.depth);
+            this.hasElements = hasElements;
+        }
+        this.hasElements[this.depth++] = false;
+    }
+
+    private void beforeValue() throws IOException {
+        if (this.afterName) {
+            this.afterName = false;
+            return;
+        }
+        if (this.depth > 0) {
+            if (this.hasElements[this.depth - 1]) {
+                this.writer.write(',');
+            } else {
+                this.hasElements[this.depth - 1] = true;
+            }
+        }
+    }
+
+    private void writeString(final String value) throws IOException {
+        this.writer.write('"');
+        final int length = value.length();
+        for (int offset = 0; offset < length; offset += this.buffer.length) {
+            final int count = Math.min(this.buffer.length, length - offset);
+            value.getChars(offset, offset + count, this.buffer, 0);
+            this.writeEscaped(this.buffer, count);
+        }
+        this.writer.write('"');
+    }
+
+    /**
+     * Write characters, escaping them according to RFC 8259. Runs of
+     * characters that need no escaping are written in bulk
+     */
+    private void writeEscaped(final char[] chars, final int length) throws IOException {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = chars[i];
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            if (i > start) {
+                this.writer.write(chars, start, i - start);
+            }
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    this.writer.write("\\\"");
+                    break;
+                case '\\':
+                    this.writer.write("\\\\");
+                    break;
+                case '\n':
+                    this.writer.write("\\n");
+                    break;
+                case '\r':
+                    this.writer.write("\\r");
+                    break;
+                case '\t':
+                    this.writer.write("\\t");
+                    break;
+                case '\b':
+                    this.writer.write("\\b");
+                    break;
+                case '\f':
+                    this.writer.write("\\f");
+                    break;
+                default:
+                    this.writer.write("\\u00");
+                    this.writer.write(HEX[c >> 4]);
+                    this.writer.write(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        if (length > start) {
+            this.writer.write(chars, start, length - start);
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.json;
+
+import org.incendo.paste.StoredPaste;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader and writer for the JSON paste format. All methods
+ * are stateless, and may be called concurrently
+ */
+public final class PasteFormat {
+
+    private PasteFormat() {
+    }
+
+    /**
+     * Read a stored paste in a single pass
+     *
+     * @param id Paste ID
+     * @param path Paste file
+     * @return Parsed paste
+     * @throws IOException If the file cannot be read, or isn't a valid paste
+     */
+    public static StoredPaste read(final String id, final Path path) throws IOException {
+        try (final JsonReader reader = open(path)) {
+            return read(id, reader);
+        }
+    }
+
+    /**
+     * Read a stored paste in a single pass
+     *
+     * @param id Paste ID
+     * @param inputStream UTF-8 encoded paste, which is not closed
+     * @return Parsed paste
+     * @throws IOException If the stream cannot be read, or isn't a valid paste
+     */
+    public static StoredPaste read(final String id, final InputStream inputStream) throws IOException {
+        return read(id, new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read a stored paste in a single pass. Deduplicated pastes only list the
+     * hashes of their files, and are returned with empty file contents that the
+     * store fills in
+     *
+     * @param id Paste ID
+     * @param reader Reader positioned before the paste object
+     * @return Parsed paste
+     * @throws IOException If the paste cannot be read, or isn't valid
+     */
+    public static StoredPaste read(final String id, final JsonReader reader) throws IOException {
+        return read(id, reader, true);
+    }
+
+    /**
+     * Read the metadata and file names of a stored paste, skipping over the file
+     * contents without keeping them in memory. The paste is returned with empty
+     * file contents
+     *
+     * @param id Paste ID
+     * @param path Paste file
+     * @return Parsed paste, without file contents
+     * @throws IOException If the file cannot be read, or isn't a valid paste
+     */
+    public static StoredPaste readWithoutContents(final String id, final Path path) throws IOException {
+        try (final JsonReader reader = open(path)) {
+            return read(id, reader, false);
+        }
+    }
+
+    /**
+     * Read the metadata and file names of a stored paste, skipping over the file
+     * contents without keeping them in memory. The paste is returned with empty
+     * file contents
+     *
+     * @param id Paste ID
+     * @param inputStream UTF-8 encoded paste, which is not closed
+     * @return Parsed paste, without file contents
+     * @throws IOException If the stream cannot be read, or isn't a valid paste
+     */
+    public static StoredPaste readWithoutContents(final String id, final InputStream inputStream)
+        throws IOException {
+        return read(id, new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), false);
+    }
+
+    private static StoredPaste read(final String id, final JsonReader reader, final boolean readContents)
+        throws IOException {
+        long timestamp = 0L;
+        String applicationId = "";
+        List<String> fileNames = null;
+        List<String> fileHashes = null;
+        final Map<String, String> files = new HashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "timestamp":
+                    timestamp = reader.nextLong();
+                    break;
+                case "application_id":
+                    applicationId = reader.nextString();
+                    break;
+                case "file_names":
+                    fileNames = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        fileNames.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "file_hashes":
+                    fileHashes = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        fileHashes.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "files":
+                    if (!readContents) {
+                        reader.skipValue();
+                        break;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        files.put(reader.nextName(), reader.nextString());
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (fileNames == null) {
+            throw new IOException(String.format("Paste %s is missing its file list", id));
+        }
+        if (fileHashes != null && fileHashes.size() != fileNames.size()) {
+            throw new IOException(String.format("Paste %s has %d file hashes for %d files", id, fileHashes.size(),
+                fileNames.size()));
+        }
+        final String[] names = fileNames.toArray(new String[0]);
+        final String[] contents = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            contents[i] = files.getOrDefault(names[i], "");
+        }
+        return new StoredPaste(id, timestamp, applicationId, names, contents,
+            fileHashes == null ? null : fileHashes.toArray(new String[0]));
+    }
+
+    /**
+     * Stream the content of a single file in a stored paste, skipping
+     * over all other files without keeping them in memory
+     *
+     * @param path Paste file
+     * @param fileName Name of the file to stream
+     * @param writer Writer that receives the file content
+     * @return True if the file was found, false if not
+     * @throws IOException If the paste cannot be read, or if the writer fails
+     */
+    public static boolean streamFile(final Path path, final String fileName, final Writer writer) throws IOException {
+        try (final JsonReader reader = open(path)) {
+            return streamFile(reader, fileName, writer);
+        }
+    }
+
+    /**
+     * Stream the content of a single file in a stored paste, skipping
+     * over all other files without keeping them in memory
+     *
+     * @param inputStream UTF-8 encoded paste, which is not closed
+     * @param fileName Name of the file to stream
+     * @param writer Writer that receives the file content
+     * @return True if the file was found, false if not
+     * @throws IOException If the paste cannot be read, or if the writer fails
+     */
+    public static boolean streamFile(final InputStream inputStream, final String fileName, final Writer writer)
+        throws IOException {
+        return streamFile(new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), fileName, writer);
+    }
+
+    private static boolean streamFile(final JsonReader reader, final String fileName, final Writer writer)
+        throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("files")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(fileName)) {
+                    reader.nextString(writer);
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Write a paste in the stored JSON format
+     *
+     * @param paste Paste to write
+     * @param outputStream Target stream, which is not closed
+     * @throws IOException If the paste cannot be written
+     */
+    public static void write(final StoredPaste paste, final OutputStream outputStream) throws IOException {
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream,
+            StandardCharsets.UTF_8)));
+        writer.beginObject().name("files").beginObject();
+        for (int i = 0; i < paste.getFileCount(); i++) {
+            writer.name(paste.getFileNames()[i]).value(paste.getFileContents()[i]);
+        }
+        writer.endObject().name("file_names").beginArray();
+        for (final String fileName : paste.getFileNames()) {
+            writer.value(fileName);
+        }
+        writer.endArray().name("timestamp").value(paste.getTimestamp())
+            .name("application_id").value(paste.getApplicationId()).endObject();
+        writer.flush();
+    }
+
+    /**
+     * Write the manifest of a deduplicated paste, which lists the hashes of its
+     * files in place of their contents
+     *
+     * @param fileNames File names
+     * @param fileHashes Content hashes, in the same order as the file names
+     * @param timestamp Creation timestamp
+     * @param applicationId Application that created the paste
+     * @param outputStream Target stream, which is not closed
+     * @throws IOException If the manifest cannot be written
+     */
+    public static void writeManifest(final List<String> fileNames, final List<String> fileHashes,
+        final long timestamp, final String applicationId, final OutputStream outputStream) throws IOException {
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream,
+            StandardCharsets.UTF_8)));
+        writer.beginObject().name("file_names").beginArray();
+        for (final String fileName : fileNames) {
+            writer.value(fileName);
+        }
+        writer.endArray().name("file_hashes").beginArray();
+        for (final String fileHash : fileHashes) {
+            writer.value(fileHash);
+        }
+        writer.endArray().name("timestamp").value(timestamp)
+            .name("application_id").value(applicationId).endObject();
+        writer.flush();
+    }
+
+    private static JsonReader open(final Path path) throws IOException {
+        return new JsonReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8));
+    }
+
+}
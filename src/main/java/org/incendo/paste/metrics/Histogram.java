@@ -0,0 +1,111 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.metrics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with log-linear buckets: every power of two is split into two
+ * buckets, so any recorded value is off by at most 50% from its bucket bound,
+ * whatever its magnitude. Recording is a binary search over the bounds and a
+ * striped increment, without locks or allocation
+ */
+public final class Histogram {
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Construct a new histogram
+     *
+     * @param minimum Smallest value that gets a bucket of its own
+     * @param maximum Largest value that gets a bucket of its own, larger values are only counted in +Inf
+     */
+    Histogram(final long minimum, final long maximum) {
+        final List<Long> bounds = new ArrayList<>();
+        for (long bound = Long.highestOneBit(Math.max(1L, minimum)); bound <= maximum && bound > 0; bound <<= 1) {
+            bounds.add(bound);
+            if (bound > 1L && bound + bound / 2 <= maximum) {
+                bounds.add(bound + bound / 2);
+            }
+        }
+        this.bounds = bounds.stream().mapToLong(Long::longValue).toArray();
+        this.buckets = new LongAdder[this.bounds.length + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value
+     *
+     * @param value Value to record
+     */
+    public void record(final long value) {
+        int index = Arrays.binarySearch(this.bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        this.buckets[index].increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * Record the time that has passed since a {@link System#nanoTime()} timestamp
+     *
+     * @param startNanos Start timestamp
+     */
+    public void recordSince(final long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Format a scaled bucket bound without floating point noise, so 24576 ns becomes 0.000024576
+     */
+    private static String formatBound(final long bound, final double scale) {
+        return BigDecimal.valueOf(bound).multiply(BigDecimal.valueOf(scale)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Write the buckets, sum and count in the Prometheus text format
+     */
+    void write(final String name, final String labels, final double scale, final StringBuilder output) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+        long count = 0L;
+        for (int i = 0; i < this.buckets.length; i++) {
+            count += this.buckets[i].sum();
+            output.append(name).append("_bucket{").append(prefix).append("le=\"")
+                .append(i < this.bounds.length ? formatBound(this.bounds[i], scale) : "+Inf")
+                .append("\"} ").append(count).append('\n');
+        }
+        output.append(name).append("_sum").append(labels.isEmpty() ? "" : "{" + labels + "}").append(' ')
+            .append(this.sum.sum() * scale).append('\n');
+        output.append(name).append("_count").append(labels.isEmpty() ? "" : "{" + labels + "}").append(' ')
+            .append(count).append('\n');
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Collection of metrics, exported in the Prometheus text format. Metrics with
+ * the same name form a family and differ by their labels, which are given in
+ * exposition syntax, like {@code mode="raw"}
+ */
+public final class MetricsRegistry {
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Register a counter
+     *
+     * @param name Metric name
+     * @param help Metric description
+     * @param labels Label pairs, or an empty string
+     * @return Registered counter
+     */
+    public synchronized Counter counter(final String name, final String help, final String labels) {
+        final Counter counter = new Counter();
+        this.register(name, help, "counter", labels, (metricName, metricLabels, output) ->
+            writeSample(metricName, metricLabels, counter.get(), output));
+        return counter;
+    }
+
+    /**
+     * Register a counter that is maintained elsewhere
+     *
+     * @param name Metric name
+     * @param help Metric description
+     * @param labels Label pairs, or an empty string
+     * @param value Counter value supplier
+     */
+    public synchronized void counter(final String name, final String help, final String labels,
+        final LongSupplier value) {
+        this.register(name, help, "counter", labels, (metricName, metricLabels, output) ->
+            writeSample(metricName, metricLabels, value.getAsLong(), output));
+    }
+
+    /**
+     * Register a gauge
+     *
+     * @param name Metric name
+     * @param help Metric description
+     * @param labels Label pairs, or an empty string
+     * @param value Gauge value supplier
+     */
+    public synchronized void gauge(final String name, final String help, final String labels,
+        final DoubleSupplier value) {
+        this.register(name, help, "gauge", labels, (metricName, metricLabels, output) ->
+            writeSample(metricName, metricLabels, value.getAsDouble(), output));
+    }
+
+    /**
+     * Register a histogram
+     *
+     * @param name Metric name
+     * @param help Metric description
+     * @param labels Label pairs, or an empty string
+     * @param minimum Smallest bucket bound, in recorded units
+     * @param maximum Largest bucket bound, in recorded units
+     * @param scale Factor that converts recorded units to exported units
+     * @return Registered histogram
+     */
+    public synchronized Histogram histogram(final String name, final String help, final String labels,
+        final long minimum, final long maximum, final double scale) {
+        final Histogram histogram = new Histogram(minimum, maximum);
+        this.register(name, help, "histogram", labels, (metricName, metricLabels, output) ->
+            histogram.write(metricName, metricLabels, scale, output));
+        return histogram;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format
+     *
+     * @param output Output builder
+     */
+    public synchronized void write(final StringBuilder output) {
+        for (final Map.Entry<String, Family> entry : this.families.entrySet()) {
+            final Family family = entry.getValue();
+            output.append("# HELP ").append(entry.getKey()).append(' ').append(family.help).append('\n');
+            output.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+            for (int i = 0; i < family.labels.size(); i++) {
+                family.writers.get(i).write(entry.getKey(), family.labels.get(i), output);
+            }
+        }
+    }
+
+    private void register(final String name, final String help, final String type, final String labels,
+        final SampleWriter writer) {
+        final Family family = this.families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(String.format("Metric %s is already registered as a %s",
+                name, family.type));
+        }
+        if (family.labels.contains(labels)) {
+            throw new IllegalArgumentException(String.format("Metric %s{%s} is already registered", name, labels));
+        }
+        family.labels.add(labels);
+        family.writers.add(writer);
+    }
+
+    private static void writeSample(final String name, final String labels, final Object value,
+        final StringBuilder output) {
+        output.append(name);
+        if (!labels.isEmpty()) {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ').append(value).append('\n');
+    }
+
+    @FunctionalInterface
+    private interface SampleWriter {
+
+        void write(String name, String labels, StringBuilder output);
+
+    }
+
+    private static final class Family {
+
+        private final String help;
+        private final String type;
+        private final List<String> labels = new ArrayList<>();
+        private final List<SampleWriter> writers = new ArrayList<>();
+
+        private Family(final String help, final String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP server exposing a {@link MetricsRegistry} on {@code /metrics}. It runs
+ * separately from Kvantum, so it can be bound to a local address only and scrapes
+ * don't take worker threads from paste requests
+ */
+public final class MetricsServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Start a metrics server
+     *
+     * @param registry Metrics to expose
+     * @param address Address to bind to
+     * @param port Port to bind to
+     * @throws IOException If the server cannot be bound
+     */
+    public MetricsServer(final MetricsRegistry registry, final String address, final int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        this.server.createContext("/metrics", exchange -> {
+            try {
+                final StringBuilder builder = new StringBuilder(8192);
+                registry.write(builder);
+                final byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "paste-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    @Override public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.metrics;
+
+import lombok.Getter;
+import org.incendo.paste.cache.PasteCache;
+import org.incendo.paste.search.SearchIndex;
+import org.incendo.paste.storage.PasteCommitQueue;
+import org.incendo.paste.storage.PasteIdIndex;
+import org.incendo.paste.throttle.RateLimiter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the paste viewer and upload service
+ */
+@Getter
+public final class PasteMetrics {
+
+    private static final long MIN_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(16L);
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60L);
+    private static final double NANOS_TO_SECONDS = 1e-9;
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    private final Histogram htmlViewLatency = this.viewLatency("html");
+    private final Histogram rawViewLatency = this.viewLatency("raw");
+    private final Histogram rangeViewLatency = this.viewLatency("range");
+    private final Counter pastesNotFound = this.registry.counter("paste_not_found_total",
+        "Requests for pastes that don't exist", "");
+    private final Counter viewTimeouts = this.registry.counter("paste_view_timeouts_total",
+        "Views that gave up waiting for a paste to be read", "");
+
+    private final Histogram uploadLatency = this.registry.histogram("paste_upload_duration_seconds",
+        "Time taken to handle upload requests", "", MIN_LATENCY_NANOS, MAX_LATENCY_NANOS, NANOS_TO_SECONDS);
+    private final Counter uploadsCreated = this.uploadResult("created");
+    private final Counter uploadsRejected = this.uploadResult("rejected");
+    private final Counter uploadsFailed = this.uploadResult("failed");
+    private final Counter uploadsBusy = this.uploadResult("busy");
+    private final Histogram commitBatchSize = this.registry.histogram("paste_commit_batch_pastes",
+        "Number of pastes stored by each group commit", "", 1L, 4096L, 1.0);
+    private final Histogram uploadSize = this.registry.histogram("paste_upload_size_bytes",
+        "Total UTF-8 encoded size of the files of created pastes", "", 256L, 1L << 30, 1.0);
+
+    private final Histogram searchLatency = this.registry.histogram("paste_search_duration_seconds",
+        "Time taken to handle search requests", "", MIN_LATENCY_NANOS, MAX_LATENCY_NANOS, NANOS_TO_SECONDS);
+
+    private final Counter storageBytesRead = this.registry.counter("paste_storage_read_bytes_total",
+        "Paste content read from storage, parsed pastes are counted in UTF-8 bytes", "");
+    private final Counter storageBytesWritten = this.registry.counter("paste_storage_written_bytes_total",
+        "Paste content written to storage, counted in UTF-8 bytes", "");
+    private final Counter storeParseFailures = this.parseFailures("store");
+    private final Counter uploadParseFailures = this.parseFailures("upload");
+
+    private Histogram viewLatency(final String mode) {
+        return this.registry.histogram("paste_view_duration_seconds", "Time taken to serve paste views",
+            String.format("mode=\"%s\"", mode), MIN_LATENCY_NANOS, MAX_LATENCY_NANOS, NANOS_TO_SECONDS);
+    }
+
+    private Counter uploadResult(final String result) {
+        return this.registry.counter("paste_uploads_total", "Upload requests by result",
+            String.format("result=\"%s\"", result));
+    }
+
+    private Counter parseFailures(final String source) {
+        return this.registry.counter("paste_parse_failures_total", "Pastes or request bodies that could not be parsed",
+            String.format("source=\"%s\"", source));
+    }
+
+    /**
+     * Export the statistics of a cache
+     *
+     * @param cache Cache to export
+     */
+    public void registerCache(final PasteCache<?> cache) {
+        final String labels = String.format("cache=\"%s\"", cache.getName());
+        this.registry.counter("paste_cache_hits_total", "Cache hits", labels, () -> cache.getStats().hitCount());
+        this.registry.counter("paste_cache_misses_total", "Cache misses", labels, () -> cache.getStats().missCount());
+        this.registry.counter("paste_cache_evictions_total", "Cache evictions", labels,
+            () -> cache.getStats().evictionCount());
+        this.registry.gauge("paste_cache_hit_ratio", "Ratio of cache lookups that were hits", labels,
+            () -> cache.getStats().hitRate());
+        this.registry.gauge("paste_cache_entries", "Number of cached entries", labels, cache::getSize);
+        this.registry.gauge("paste_cache_weight_bytes", "Estimated bytes retained by the cache", labels,
+            cache::getWeightedSize);
+    }
+
+    /**
+     * Export the length of the upload commit queue
+     *
+     * @param commitQueue Queue to export
+     */
+    public void registerCommitQueue(final PasteCommitQueue commitQueue) {
+        this.registry.gauge("paste_commit_queue_pastes", "Pastes waiting to be stored", "",
+            commitQueue::getQueuedPastes);
+        this.registry.gauge("paste_commit_queue_bytes", "Estimated size of the pastes waiting to be stored", "",
+            commitQueue::getQueuedBytes);
+    }
+
+    /**
+     * Export the size of the paste ID index
+     *
+     * @param index Index to export
+     */
+    public void registerIdIndex(final PasteIdIndex index) {
+        this.registry.gauge("paste_index_ids", "Paste IDs held by the in-memory index", "", index::getSize);
+    }
+
+    /**
+     * Export the size of the search index
+     *
+     * @param searchIndex Index to export
+     */
+    public void registerSearchIndex(final SearchIndex searchIndex) {
+        this.registry.gauge("paste_search_pastes", "Pastes held by the search index", "", searchIndex::getPasteCount);
+        this.registry.gauge("paste_search_tokens", "Distinct tokens held by the search index", "",
+            searchIndex::getTokenCount);
+        this.registry.gauge("paste_search_truncated_files", "Indexed files with more distinct tokens than were indexed",
+            "", searchIndex::getTruncatedFileCount);
+        this.registry.gauge("paste_search_weight_bytes", "Estimated bytes retained by the search index", "",
+            searchIndex::getEstimatedBytes);
+    }
+
+    /**
+     * Export the statistics of a rate limiter
+     *
+     * @param name Limiter name
+     * @param rateLimiter Limiter to export
+     */
+    public void registerRateLimiter(final String name, final RateLimiter rateLimiter) {
+        final String labels = String.format("limiter=\"%s\"", name);
+        this.registry.counter("paste_throttle_rejections_total", "Requests rejected by a rate limiter", labels,
+            rateLimiter::getRejections);
+        this.registry.gauge("paste_throttle_tracked_keys", "Keys tracked by a rate limiter", labels,
+            rateLimiter::getTrackedKeys);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.rest;
+
+import org.incendo.paste.json.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoder for compressed request bodies, sent with a {@code Content-Encoding}
+ * header. The body is inflated and parsed in a single streaming pass, and the
+ * decompressed size limit is enforced while inflating, so a small body that
+ * expands to an enormous payload is rejected as soon as it crosses the limit
+ */
+final class RequestBodyDecoder {
+
+    private RequestBodyDecoder() {
+    }
+
+    /**
+     * Check whether a content encoding requires the body to be decoded
+     *
+     * @param contentEncoding Content encoding header value, may be null
+     * @return True if the body is encoded
+     */
+    static boolean isEncoded(final String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.trim().isEmpty()
+            && !"identity".equalsIgnoreCase(contentEncoding.trim());
+    }
+
+    /**
+     * Decode a JSON object body, and return its top level string members. Members
+     * of any other type are skipped
+     *
+     * @param contentEncoding Content encoding header value
+     * @param body Raw body, one char per byte as received by the server
+     * @param maxDecodedBytes Maximum number of decompressed bytes
+     * @return String members
+     * @throws DecodeException If the body cannot be decoded
+     */
+    static Map<String, String> decode(final String contentEncoding, final String body, final long maxDecodedBytes)
+        throws DecodeException {
+        final InputStream rawStream = new ByteArrayInputStream(toBytes(body));
+        final Map<String, String> members = new HashMap<>();
+        try (final InputStream inputStream = new LimitedInputStream(openDecoder(contentEncoding, rawStream),
+            maxDecodedBytes); final JsonReader reader = new JsonReader(new InputStreamReader(inputStream,
+            StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonReader.Token.STRING) {
+                    members.put(name, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (final LimitExceededException e) {
+            throw new DecodeException(String.format("request body exceeds %d bytes when decompressed",
+                maxDecodedBytes));
+        } catch (final IOException e) {
+            throw new DecodeException(String.format("malformed request body: %s", e.getMessage()));
+        }
+        return members;
+    }
+
+    /**
+     * Restore the bytes of a body that was read as one char per byte. A body that
+     * was decoded as text instead holds chars that don't fit a byte, such as the
+     * replacement characters of invalid UTF-8 sequences, and is rejected rather
+     * than decompressed from corrupted bytes
+     *
+     * @param body Raw body
+     * @return Body bytes
+     * @throws DecodeException If the body holds chars that don't fit a byte
+     */
+    private static byte[] toBytes(final String body) throws DecodeException {
+        final byte[] bytes = new byte[body.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            final char c = body.charAt(i);
+            if (c > 0xFF) {
+                throw new DecodeException("request body was not received as binary data");
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    private static InputStream openDecoder(final String contentEncoding, final InputStream inputStream)
+        throws IOException, DecodeException {
+        switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(inputStream, 8192);
+            case "deflate":
+                return new InflaterInputStream(inputStream, new Inflater(), 8192);
+            default:
+                throw new DecodeException(String.format("unsupported content encoding: %s", contentEncoding));
+        }
+    }
+
+    /**
+     * Thrown when a request body cannot be decoded. The message is
+     * meant to be returned to the client
+     */
+    static final class DecodeException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        DecodeException(final String message) {
+            super(message);
+        }
+
+    }
+
+    private static final class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    /**
+     * Stream that fails once more than a given number of bytes have been read from it
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(final InputStream inputStream, final long limit) {
+            super(inputStream);
+            this.remaining = limit;
+        }
+
+        @Override public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1 && --this.remaining < 0) {
+                throw new LimitExceededException();
+            }
+            return b;
+        }
+
+        @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+            // Read at most one byte past the limit, which is enough to detect that it was crossed
+            final int read = super.read(b, off, (int) Math.min(len, Math.max(1L, this.remaining + 1L)));
+            if (read > 0 && (this.remaining -= read) < 0) {
+                throw new LimitExceededException();
+            }
+            return read;
+        }
+
+        @Override public long skip(final long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, this.remaining + 1L));
+            if ((this.remaining -= skipped) < 0) {
+                throw new LimitExceededException();
+            }
+            return skipped;
+        }
+
+    }
+
+}
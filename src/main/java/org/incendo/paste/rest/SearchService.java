@@ -0,0 +1,256 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.rest;
+
+import org.incendo.paste.LineIndex;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.search.SearchHit;
+import org.incendo.paste.search.SearchIndex;
+import org.incendo.paste.search.SearchQuery;
+import org.incendo.paste.search.SearchResults;
+import org.incendo.paste.search.Tokenizer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import xyz.kvantum.server.api.matching.ViewPattern;
+import xyz.kvantum.server.api.request.AbstractRequest;
+import xyz.kvantum.server.api.request.HttpMethod;
+import xyz.kvantum.server.api.util.AsciiString;
+import xyz.kvantum.server.api.util.MapBuilder;
+import xyz.kvantum.server.api.views.rest.RestResponse;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Searches the files of stored pastes. Pastes are unlisted, so every request has to
+ * carry the configured access token as a bearer token. Query parameters:
+ * <ul>
+ *     <li>{@code q}: text that a single file must contain every token of</li>
+ *     <li>{@code application}: application ID filter</li>
+ *     <li>{@code file}: file name filter, for example {@code latest.log}</li>
+ *     <li>{@code since} and {@code until}: upload time filter, in epoch milliseconds</li>
+ *     <li>{@code days}: shorthand for a {@code since} the given number of days ago</li>
+ *     <li>{@code page} and {@code size}: page number, starting at 0, and page size</li>
+ * </ul>
+ * Each result lists the first lines of the file that contain a query token, with
+ * the character ranges of the matching tokens. Only the matching files are read, not
+ * their whole pastes. The lines are left out of results whose file couldn't be read
+ * within the load timeout
+ */
+public final class SearchService extends RestResponse {
+
+    private static final JSONObject REQUEST_UNAUTHORIZED =
+        new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", "request must contain a valid search token").get());
+    private static final JSONObject REQUEST_MISSING_QUERY =
+        new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", "request must contain a query").get());
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAXIMUM_PAGE_SIZE = 50;
+    /**
+     * Longer lines are cut off in results, along with the matches past the cut
+     */
+    private static final int MAXIMUM_LINE_LENGTH = 500;
+
+    private final SearchIndex searchIndex;
+    private final BiFunction<String, String, CompletableFuture<String>> fileLoader;
+    private final long loadTimeoutMillis;
+    private final byte[] accessToken;
+    private final int maximumLinesPerHit;
+    private final PasteMetrics metrics;
+
+    /**
+     * Construct a new search service
+     *
+     * @param searchIndex Index to search
+     * @param fileLoader Function loading a file, by paste ID and file name, to find the matching lines in,
+     *                   off the request worker. Futures complete with null for missing files
+     * @param loadTimeoutMillis Maximum time to wait for the pastes of a page of results
+     * @param accessToken Token that requests must carry
+     * @param maximumLinesPerHit Maximum number of matching lines listed per result
+     * @param metrics Search metrics
+     */
+    public SearchService(final SearchIndex searchIndex, final BiFunction<String, String, CompletableFuture<String>> fileLoader,
+        final long loadTimeoutMillis, final String accessToken, final int maximumLinesPerHit, final PasteMetrics metrics) {
+        super(HttpMethod.GET, new ViewPattern("paste/search"));
+        this.searchIndex = searchIndex;
+        this.fileLoader = fileLoader;
+        this.loadTimeoutMillis = loadTimeoutMillis;
+        this.accessToken = accessToken.getBytes(StandardCharsets.UTF_8);
+        this.maximumLinesPerHit = maximumLinesPerHit;
+        this.metrics = metrics;
+    }
+
+    @Override public JSONObject generate(@Nonnull AbstractRequest request) {
+        final long start = System.nanoTime();
+        try {
+            if (!this.isAuthorized(request.getHeader("authorization"))) {
+                return REQUEST_UNAUTHORIZED;
+            }
+            return this.search(request.getQuery().getParameters());
+        } finally {
+            this.metrics.getSearchLatency().recordSince(start);
+        }
+    }
+
+    private boolean isAuthorized(final AsciiString authorization) {
+        if (authorization == null || !authorization.toString().startsWith("Bearer ")) {
+            return false;
+        }
+        final byte[] token = authorization.toString().substring("Bearer ".length()).trim()
+            .getBytes(StandardCharsets.UTF_8);
+        // Constant time, so the token can't be guessed one character at a time
+        return MessageDigest.isEqual(token, this.accessToken);
+    }
+
+    /**
+     * Run a search
+     *
+     * @param parameters Query parameters
+     * @return Response object
+     */
+    JSONObject search(final Map<String, String> parameters) {
+        final String text = parameters.get("q");
+        if (text == null || text.trim().isEmpty()) {
+            return REQUEST_MISSING_QUERY;
+        }
+        long since = parseLong(parameters.get("since"), 0L);
+        final long days = parseLong(parameters.get("days"), 0L);
+        if (days > 0L) {
+            since = Math.max(since, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        }
+        final long until = parseLong(parameters.get("until"), Long.MAX_VALUE);
+        final int page = (int) Math.max(0L, Math.min(Integer.MAX_VALUE, parseLong(parameters.get("page"), 0L)));
+        final int size = (int) Math.max(1L, Math.min(MAXIMUM_PAGE_SIZE, parseLong(parameters.get("size"), DEFAULT_PAGE_SIZE)));
+        final SearchQuery query = new SearchQuery(text, emptyToNull(parameters.get("application")),
+            emptyToNull(parameters.get("file")), since, until, (int) Math.min(Integer.MAX_VALUE, (long) page * size), size);
+        final SearchResults results = this.searchIndex.search(query);
+
+        final Set<String> tokens = new HashSet<>();
+        Tokenizer.tokenize(text, 0, text.length(), (token, tokenStart, tokenEnd) -> tokens.add(token));
+        // Only the files on the requested page are read, never the whole store, and they are read concurrently
+        final Map<String, CompletableFuture<String>> files = new HashMap<>();
+        for (final SearchHit hit : results.getHits()) {
+            files.computeIfAbsent(getFileKey(hit), key -> this.fileLoader.apply(hit.getPasteId(), hit.getFileName()));
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.loadTimeoutMillis);
+        final JSONArray hits = new JSONArray();
+        for (final SearchHit hit : results.getHits()) {
+            final JSONObject hitObject = new JSONObject();
+            hitObject.put("paste_id", hit.getPasteId());
+            hitObject.put("file", hit.getFile());
+            hitObject.put("file_name", hit.getFileName());
+            hitObject.put("application_id", hit.getApplicationId());
+            hitObject.put("timestamp", hit.getTimestamp());
+            final String content = await(files.get(getFileKey(hit)), deadline);
+            if (content != null) {
+                hitObject.put("lines", this.findLines(content, tokens));
+            }
+            hits.add(hitObject);
+        }
+
+        final JSONObject response = new JSONObject();
+        response.put("total", results.getTotal());
+        response.put("page", page);
+        response.put("size", size);
+        response.put("complete", results.isComplete());
+        response.put("results", hits);
+        return response;
+    }
+
+    private static String getFileKey(final SearchHit hit) {
+        return hit.getPasteId() + '/' + hit.getFileName();
+    }
+
+    /**
+     * Wait for a file until the deadline. The request worker has to wait, as Kvantum
+     * expects the response before the handler returns
+     *
+     * @return The file content, or null if it doesn't exist, or wasn't read in time
+     */
+    private static String await(final CompletableFuture<String> future, final long deadline) {
+        try {
+            return future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (final ExecutionException | TimeoutException e) {
+            return null;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Find the lines of a matching file that contain query tokens
+     */
+    private JSONArray findLines(final String content, final Set<String> tokens) {
+        final JSONArray lines = new JSONArray();
+        final LineIndex lineIndex = LineIndex.of(content);
+        for (int line = 0; line < lineIndex.getLineCount() && lines.size() < this.maximumLinesPerHit; line++) {
+            final int lineStart = lineIndex.getStart(line);
+            int lineEnd = lineIndex.getStart(line + 1);
+            while (lineEnd > lineStart && (content.charAt(lineEnd - 1) == '\n' || content.charAt(lineEnd - 1) == '\r')) {
+                lineEnd--;
+            }
+            final int shownEnd = Math.min(lineEnd, lineStart + MAXIMUM_LINE_LENGTH);
+            final JSONArray matches = new JSONArray();
+            Tokenizer.tokenize(content, lineStart, lineEnd, (token, tokenStart, tokenEnd) -> {
+                if (tokens.contains(token) && tokenEnd <= shownEnd) {
+                    final JSONArray range = new JSONArray();
+                    range.add(tokenStart - lineStart);
+                    range.add(tokenEnd - lineStart);
+                    matches.add(range);
+                }
+            });
+            if (matches.isEmpty()) {
+                continue;
+            }
+            final JSONObject lineObject = new JSONObject();
+            lineObject.put("line", line + 1);
+            lineObject.put("text", content.substring(lineStart, shownEnd));
+            lineObject.put("matches", matches);
+            lines.add(lineObject);
+        }
+        return lines;
+    }
+
+    private static long parseLong(final String value, final long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String emptyToNull(final String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+}
@@ -21,6 +21,11 @@
  */
 package org.incendo.paste.rest;
 
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.metrics.PasteMetrics;
+import org.incendo.paste.search.SearchIndex;
+import org.incendo.paste.storage.PasteCommitQueue;
+import org.incendo.paste.throttle.RateLimiter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import xyz.kvantum.server.api.matching.ViewPattern;
@@ -33,14 +38,13 @@ import xyz.kvantum.server.api.util.MapBuilder;
 import xyz.kvantum.server.api.views.rest.RestResponse;
 
 import javax.annotation.Nonnull;
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 public final class UploadService extends RestResponse {
 
@@ -52,9 +56,14 @@ public final class UploadService extends RestResponse {
         new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", "request must contain a valid application reference").get());
     private static final JSONObject REQUEST_FAILED_TO_STORE =
         new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", "failed to store paste").get());
+    private static final JSONObject SERVICE_BUSY =
+        new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", "the paste service is busy, try again in a minute")
+            .put("busy", true).get());
 
-    private static final Map<AsciiString, Long> WRITE_THROTTLE = new ConcurrentHashMap<>();
-    private static final long WRITE_THROTTLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * Throttle key used for connections that didn't pass through the proxy
+     */
+    private static final String DIRECT_CONNECTION = "direct";
 
     private static final Collection<String>
         VALID_APPLICATIONS = Arrays.asList("plotsquared", "fastasyncworldedit", "incendopermissions", "kvantum");
@@ -64,95 +73,195 @@ public final class UploadService extends RestResponse {
             String.format("Missing file content for file %s", fileName)).get());
     }
 
-    private final File pasteFolder;
+    private final PasteCommitQueue commitQueue;
+    private final RateLimiter rateLimiter;
+    private final long maxDecodedBytes;
+    private final long commitTimeoutMillis;
+    private final SearchIndex searchIndex;
+    private final Executor indexExecutor;
+    private final PasteMetrics metrics;
 
-    public UploadService(final File pasteFolder) {
+    /**
+     * Construct a new upload service
+     *
+     * @param commitQueue Queue that stores uploaded pastes
+     * @param rateLimiter Upload rate limiter
+     * @param maxDecodedBytes Maximum size of a decompressed request body
+     * @param commitTimeoutMillis Time to wait for a queued paste to be stored
+     * @param searchIndex Index that stored pastes are added to, or null if search is disabled
+     * @param indexExecutor Executor that adds stored pastes to the search index
+     * @param metrics Upload metrics
+     */
+    public UploadService(final PasteCommitQueue commitQueue, final RateLimiter rateLimiter, final long maxDecodedBytes,
+        final long commitTimeoutMillis, final SearchIndex searchIndex, final Executor indexExecutor,
+        final PasteMetrics metrics) {
         super(HttpMethod.POST, new ViewPattern("paste/upload"));
-        this.pasteFolder = pasteFolder;
-        if (!pasteFolder.exists() && !pasteFolder.mkdir()) {
-            throw new IllegalArgumentException(String.format("Failed to create paste folder %s", pasteFolder.getName()));
+        this.commitQueue = commitQueue;
+        this.rateLimiter = rateLimiter;
+        this.maxDecodedBytes = maxDecodedBytes;
+        this.commitTimeoutMillis = commitTimeoutMillis;
+        this.searchIndex = searchIndex;
+        this.indexExecutor = indexExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the address that uploads are throttled by. The proxy appends the address it
+     * received the connection from to x-forwarded-for, so the last entry is the only
+     * one that can't be spoofed by the client
+     */
+    private static String getClientAddress(final AbstractRequest request) {
+        final AsciiString forwardedFor = request.getHeader("x-forwarded-for");
+        if (forwardedFor == null) {
+            return DIRECT_CONNECTION;
         }
+        final String addresses = forwardedFor.toString();
+        final String address = addresses.substring(addresses.lastIndexOf(',') + 1).trim();
+        return address.isEmpty() ? DIRECT_CONNECTION : address;
+    }
+
+    private static JSONObject malformedBody(final String message) {
+        return new JSONObject(MapBuilder.<String, Object>newHashMap().put("response", message).get());
     }
 
     @Override public JSONObject generate(@Nonnull AbstractRequest abstractRequest) {
-        final AsciiString ip = abstractRequest.getHeader("x-forwarded-for");
-        if (WRITE_THROTTLE.containsKey(ip)) {
-            final long lastWrite = WRITE_THROTTLE.get(ip);
-            if ((System.currentTimeMillis() - lastWrite) < WRITE_THROTTLE_TIMEOUT) {
-                final long newWrite = WRITE_THROTTLE_TIMEOUT - ((System.currentTimeMillis()) - lastWrite);
-                final long newWriteMinutes = TimeUnit.MILLISECONDS.toMinutes(newWrite);
-                return new JSONObject(MapBuilder.<String, Object>newHashMap().put("response",
-                    String.format("you need to wait %d minutes before creating a new paste", newWriteMinutes)).get());
+        final long start = System.nanoTime();
+        try {
+            final JSONObject response = this.handle(abstractRequest);
+            if (response == REQUEST_FAILED_TO_STORE) {
+                this.metrics.getUploadsFailed().increment();
+            } else if (response == SERVICE_BUSY) {
+                this.metrics.getUploadsBusy().increment();
+            } else if (response.containsKey("paste_id")) {
+                this.metrics.getUploadsCreated().increment();
+            } else {
+                this.metrics.getUploadsRejected().increment();
             }
+            return response;
+        } finally {
+            this.metrics.getUploadLatency().recordSince(start);
         }
-        WRITE_THROTTLE.put(ip, System.currentTimeMillis());
+    }
 
+    private JSONObject handle(final AbstractRequest abstractRequest) {
         final PostRequest request = abstractRequest.getPostRequest();
-        if (!(request instanceof JsonPostRequest)) {
+        final AsciiString contentEncoding = abstractRequest.getHeader("content-encoding");
+        final Function<String, String> body;
+        if (contentEncoding != null && RequestBodyDecoder.isEncoded(contentEncoding.toString())) {
+            // Kvantum only parses JSON content types into a JsonPostRequest. IncendoPaster sends compressed
+            // bodies as application/octet-stream, which is left unparsed, and PostRequest#getRequest returns
+            // the body as read off the socket, one char per byte. The decoder rejects a body that was decoded
+            // as text instead, rather than inflating corrupted bytes
+            if (request == null || request.getRequest() == null) {
+                return REQUEST_OF_WRONG_TYPE;
+            }
+            try {
+                body = RequestBodyDecoder.decode(contentEncoding.toString(), request.getRequest(),
+                    this.maxDecodedBytes)::get;
+            } catch (final RequestBodyDecoder.DecodeException e) {
+                this.metrics.getUploadParseFailures().increment();
+                return malformedBody(e.getMessage());
+            }
+        } else if (request instanceof JsonPostRequest) {
+            final JsonPostRequest jsonPostRequest = (JsonPostRequest) request;
+            body = key -> jsonPostRequest.contains(key) ? jsonPostRequest.get(key) : null;
+        } else {
             return REQUEST_OF_WRONG_TYPE;
         }
-        final JsonPostRequest jsonPostRequest = (JsonPostRequest) request;
-        if (!jsonPostRequest.contains("files") || jsonPostRequest.get("files") == null) {
+        return this.upload(body, getClientAddress(abstractRequest));
+    }
+
+    /**
+     * Validate and store an upload
+     *
+     * @param body Lookup of the request body members, returning null for missing members
+     * @param clientAddress Address the upload is throttled by
+     * @return Response object
+     */
+    JSONObject upload(final Function<String, String> body, final String clientAddress) {
+        if (body.apply("files") == null) {
             return REQUEST_MISSING_FILE_LIST;
         }
-        if (!jsonPostRequest.contains("paste_application") || jsonPostRequest.get("paste_application") == null) {
+        if (body.apply("paste_application") == null) {
             return REQUEST_MISSING_APPLICATION;
         }
-        final String applicationId = jsonPostRequest.get("paste_application")
-            .toLowerCase(Locale.ENGLISH);
+        final String applicationId = body.apply("paste_application").toLowerCase(Locale.ENGLISH);
         if (!VALID_APPLICATIONS.contains(applicationId)) {
             return REQUEST_MISSING_APPLICATION;
         }
-        final String[] files = jsonPostRequest.get("files").split(",");
-        final Map<String, String> fileMap = MapBuilder.<String, String>newHashMap().get();
+        final String[] files = body.apply("files").split(",");
+        final String[] contents = new String[files.length];
         final JSONArray fileNames = new JSONArray();
-        for (final String file : files) {
-            final String fileName = String.format("file-%s", file);
-            if (!jsonPostRequest.contains(fileName)) {
-                return missingFileContent(file);
+        long uploadSize = 0L;
+        for (int i = 0; i < files.length; i++) {
+            contents[i] = body.apply(String.format("file-%s", files[i]));
+            if (contents[i] == null) {
+                return missingFileContent(files[i]);
             }
-            fileMap.put(file, jsonPostRequest.get(fileName));
-            fileNames.add(file);
+            fileNames.add(files[i]);
+            uploadSize += StoredPaste.getEncodedLength(contents[i]);
+        }
+        // Only valid uploads count against the client
+        final long waitMillis = rateLimiter.tryAcquire(applicationId, clientAddress);
+        if (waitMillis > 0L) {
+            final long waitMinutes = (waitMillis + TimeUnit.MINUTES.toMillis(1) - 1) / TimeUnit.MINUTES.toMillis(1);
+            return new JSONObject(MapBuilder.<String, Object>newHashMap().put("response",
+                String.format("you need to wait %d minutes before creating a new paste", waitMinutes)).get());
         }
-
-        final JSONObject createdObject = new JSONObject();
-        createdObject.put("files", fileMap);
-        createdObject.put("file_names", fileNames);
-        createdObject.put("timestamp", System.currentTimeMillis());
-        createdObject.put("application_id", applicationId);
 
         final String pasteId = UUID.randomUUID().toString().replaceAll("-", "");
-        // Store paste to database
-        final String rawString = createdObject.toJSONString();
-        final File file = new File(pasteFolder, String.format("%s.json", pasteId));
-        boolean created;
-        try {
-            created = file.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-            created = false;
+        final long timestamp = System.currentTimeMillis();
+        // Hand the paste to the writer, which stores it along with other pending uploads
+        final StoredPaste paste = new StoredPaste(pasteId, timestamp, applicationId, files, contents);
+        final CompletableFuture<Void> commit = this.commitQueue.submit(paste);
+        if (commit == null) {
+            // The upload was never attempted, so it shouldn't count against the client
+            this.rateLimiter.release(applicationId, clientAddress);
+            return SERVICE_BUSY;
         }
-        if (!created) {
-            return REQUEST_FAILED_TO_STORE;
-        }
-        if (!file.canWrite()) {
-            if (!file.setWritable(true)) {
-                return REQUEST_FAILED_TO_STORE;
-            }
+        if (this.searchIndex != null) {
+            // Also covers pastes that are stored after the request stopped waiting for them. Tokenizing
+            // a paste takes a pass over all of it, which neither the request nor the writer should wait for
+            commit.thenRunAsync(() -> this.searchIndex.add(paste), this.indexExecutor);
         }
+        boolean pending = false;
         try {
-            Files.write(file.toPath(), rawString.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
-        } catch (IOException e) {
+            commit.get(this.commitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final ExecutionException e) {
             e.printStackTrace();
             return REQUEST_FAILED_TO_STORE;
+        } catch (final TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            // A paste that the writer hasn't picked up yet is withdrawn, so a retry can't create a duplicate
+            if (this.commitQueue.cancel(commit)) {
+                this.rateLimiter.release(applicationId, clientAddress);
+                return SERVICE_BUSY;
+            }
+            // Otherwise it is being written right now, and the client gets its ID
+            pending = true;
         }
+        this.metrics.getUploadSize().record(uploadSize);
+
+        // The file contents are not echoed back, as that would copy the entire paste once more
+        final JSONObject createdObject = new JSONObject();
+        createdObject.put("file_names", fileNames);
+        createdObject.put("timestamp", timestamp);
+        createdObject.put("application_id", applicationId);
 
         // Return response
         final JSONObject response = new JSONObject();
         response.put("created", createdObject);
         response.put("paste_id", pasteId);
-        response.put("response", String.format("the paste can be viewed at https://incendo.org/paste/view/%s",
-            pasteId));
+        if (pending) {
+            response.put("pending", true);
+            response.put("response", String.format("the paste is being stored, and can be viewed at "
+                + "https://incendo.org/paste/view/%s shortly", pasteId));
+        } else {
+            response.put("response", String.format("the paste can be viewed at https://incendo.org/paste/view/%s",
+                pasteId));
+        }
         return response;
     }
 
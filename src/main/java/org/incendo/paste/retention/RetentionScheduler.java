@@ -0,0 +1,168 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.retention;
+
+import org.incendo.paste.storage.ArchivingPasteStore;
+import org.incendo.paste.storage.PasteMetadata;
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies the retention policy in the background. Each run looks at a small batch of
+ * pastes, continuing where the previous run stopped, so a pass over the whole store is
+ * spread over many runs. Runs happen on a single low priority thread, with a fixed delay
+ * between them, so they never compete with request threads for long
+ */
+public final class RetentionScheduler implements Closeable {
+
+    private final ArchivingPasteStore pasteStore;
+    private final Function<String, RetentionPolicy> policies;
+    private final int batchSize;
+    private final Consumer<String> removalListener;
+    private final ScheduledExecutorService executor;
+    /**
+     * Views that haven't been written to the store yet. Recording them here keeps
+     * store writes off the request threads
+     */
+    private final Map<String, Long> pendingAccesses = new ConcurrentHashMap<>();
+    private Iterator<String> cursor = Collections.emptyIterator();
+
+    /**
+     * Start a retention scheduler
+     *
+     * @param pasteStore Store to apply the policy to
+     * @param policies Retention policy of each application ID
+     * @param batchSize Maximum number of pastes looked at in one run
+     * @param intervalMillis Delay between runs
+     * @param removalListener Called with the ID of every deleted paste
+     */
+    public RetentionScheduler(final ArchivingPasteStore pasteStore, final Function<String, RetentionPolicy> policies,
+        final int batchSize, final long intervalMillis, final Consumer<String> removalListener) {
+        this.pasteStore = pasteStore;
+        this.policies = policies;
+        this.batchSize = Math.max(1, batchSize);
+        this.removalListener = removalListener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "paste-retention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::run, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record that a paste has been viewed
+     *
+     * @param id Paste ID
+     */
+    public void recordAccess(final String id) {
+        this.pendingAccesses.put(id, System.currentTimeMillis());
+    }
+
+    private void run() {
+        // An exception would cancel all further runs
+        try {
+            this.runBatch();
+        } catch (final Throwable throwable) {
+            throwable.printStackTrace();
+            Logger.error("Failed to apply the paste retention policy");
+        }
+    }
+
+    /**
+     * Apply the retention policy to the next batch of pastes
+     *
+     * @throws IOException If the store cannot be read or updated
+     */
+    void runBatch() throws IOException {
+        for (final String id : new ArrayList<>(this.pendingAccesses.keySet())) {
+            final Long time = this.pendingAccesses.remove(id);
+            if (time != null) {
+                this.pasteStore.recordAccess(id, time);
+            }
+        }
+        if (!this.cursor.hasNext()) {
+            this.cursor = this.pasteStore.getIds().iterator();
+        }
+        final long now = System.currentTimeMillis();
+        final Collection<String> expired = new ArrayList<>();
+        final Collection<PasteMetadata> archived = new ArrayList<>();
+        for (int i = 0; i < this.batchSize && this.cursor.hasNext(); i++) {
+            final String id = this.cursor.next();
+            final PasteMetadata metadata;
+            try {
+                metadata = this.pasteStore.readMetadata(id);
+            } catch (final IOException e) {
+                Logger.error("Failed to read paste {} while applying the retention policy: {}", id, e.getMessage());
+                continue;
+            }
+            if (metadata == null) {
+                continue;
+            }
+            final RetentionPolicy policy = this.policies.apply(metadata.getApplicationId());
+            final long idleMillis = now - metadata.getLastAccess();
+            if (policy.getExpireAfterMillis() > 0L && idleMillis >= policy.getExpireAfterMillis()) {
+                expired.add(id);
+            } else if (policy.getArchiveAfterMillis() > 0L && idleMillis >= policy.getArchiveAfterMillis()
+                && !this.pasteStore.isArchived(id)) {
+                archived.add(metadata);
+            }
+        }
+        if (!expired.isEmpty()) {
+            final Collection<String> deleted = this.pasteStore.deleteAll(expired);
+            deleted.forEach(this.removalListener);
+            Logger.info("Deleted {} expired pastes", deleted.size());
+        }
+        if (!archived.isEmpty()) {
+            Logger.info("Archived {} pastes", this.pasteStore.archive(archived));
+        }
+    }
+
+    /**
+     * Stop scheduling runs, and wait for a run that is in progress to finish
+     */
+    @Override public void close() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+                Logger.warn("Retention run didn't finish within a minute of shutting down");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
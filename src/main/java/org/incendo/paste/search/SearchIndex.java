@@ -0,0 +1,559 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.search;
+
+import lombok.RequiredArgsConstructor;
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.storage.PasteStore;
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory inverted index over the files of stored pastes. Every paste file is a
+ * document, numbered in the order it was added, and every token maps to the sorted
+ * list of documents that contain it. A query intersects the lists of its tokens, so
+ * its cost depends on how common the tokens are rather than on the number of pastes.
+ * <p>
+ * Removed documents are dropped from the token lists once they make up half of the
+ * index. The index isn't persisted, it is rebuilt from the paste store on startup.
+ * Once its estimated size exceeds the memory limit, the oldest pastes are dropped
+ * from it, and results that could include them are reported as incomplete
+ */
+public final class SearchIndex {
+
+    private static final Comparator<Document> NEWEST_FIRST = Comparator.comparingLong((Document document) ->
+        document.timestamp).reversed().thenComparing(document -> document.pasteId).thenComparingInt(document -> document.file);
+    private static final Comparator<IndexedPaste> OLDEST_FIRST = Comparator.comparingLong((IndexedPaste paste) ->
+        paste.timestamp).thenComparing(paste -> paste.id);
+
+    /**
+     * Estimated heap bytes per token, excluding its document list, per document, and per
+     * paste. They cover the objects, map entries and strings that each of them retains,
+     * with strings assumed to be compact
+     */
+    private static final int TOKEN_BYTES = 128, DOCUMENT_BYTES = 96, PASTE_BYTES = 160;
+
+    private final int maximumTokensPerFile;
+    private final long maximumBytes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private List<Document> documents = new ArrayList<>();
+    private final Map<String, IndexedPaste> pastes = new HashMap<>();
+    private final NavigableSet<IndexedPaste> pastesByAge = new TreeSet<>(OLDEST_FIRST);
+    /**
+     * Documents of which not every token was indexed
+     */
+    private final Set<Document> truncatedDocuments = new HashSet<>();
+    private int removedDocuments;
+    /**
+     * Estimated bytes retained by the index, and the part of them that is held by removed
+     * documents until the index is compacted
+     */
+    private volatile long estimatedBytes;
+    private long removedBytes;
+    /**
+     * Upload time of the newest paste that was dropped to stay within the memory limit
+     */
+    private long evictedUntil = Long.MIN_VALUE;
+    private volatile boolean rebuilding;
+
+    /**
+     * Construct a new, empty, search index
+     *
+     * @param maximumTokensPerFile Maximum number of distinct tokens indexed per file. This
+     *                             bounds the cost of files full of unique tokens, such as
+     *                             memory dumps
+     * @param maximumBytes Maximum estimated size of the index
+     */
+    public SearchIndex(final int maximumTokensPerFile, final long maximumBytes) {
+        this.maximumTokensPerFile = Math.max(1, maximumTokensPerFile);
+        this.maximumBytes = Math.max(1L, maximumBytes);
+    }
+
+    /**
+     * Add a paste to the index. Pastes that are already indexed are ignored, and so are
+     * pastes that are older than those dropped to stay within the memory limit
+     *
+     * @param paste Paste to add
+     */
+    public void add(final StoredPaste paste) {
+        // Tokenize before taking the lock, searches shouldn't wait for it
+        final List<Set<String>> fileTokens = new ArrayList<>(paste.getFileCount());
+        final boolean[] truncated = new boolean[paste.getFileCount()];
+        for (int file = 0; file < truncated.length; file++) {
+            final String content = paste.getFileContents()[file];
+            final Set<String> tokens = new HashSet<>();
+            final int index = file;
+            Tokenizer.tokenize(content, 0, content.length(), (token, start, end) -> {
+                if (tokens.size() < this.maximumTokensPerFile) {
+                    tokens.add(token);
+                } else if (!truncated[index] && !tokens.contains(token)) {
+                    truncated[index] = true;
+                }
+            });
+            fileTokens.add(tokens);
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.pastes.containsKey(paste.getId()) || paste.getTimestamp() <= this.evictedUntil) {
+                return;
+            }
+            final int[] fileDocuments = new int[paste.getFileCount()];
+            long bytes = 0L;
+            for (int file = 0; file < fileDocuments.length; file++) {
+                final int documentNumber = this.documents.size();
+                final Document document = new Document(paste.getId(), file, paste.getFileNames()[file],
+                    paste.getApplicationId(), paste.getTimestamp(), fileTokens.get(file).size());
+                this.documents.add(document);
+                if (truncated[file]) {
+                    this.truncatedDocuments.add(document);
+                }
+                for (final String token : fileTokens.get(file)) {
+                    Postings list = this.postings.get(token);
+                    if (list == null) {
+                        this.postings.put(token, list = new Postings());
+                        bytes += TOKEN_BYTES + token.length() + 4L * list.documents.length;
+                    }
+                    bytes += list.add(documentNumber);
+                }
+                bytes += document.getBytes();
+                fileDocuments[file] = documentNumber;
+            }
+            final IndexedPaste indexedPaste = new IndexedPaste(paste.getId(), paste.getTimestamp(), fileDocuments);
+            this.pastes.put(paste.getId(), indexedPaste);
+            this.pastesByAge.add(indexedPaste);
+            this.estimatedBytes += bytes + indexedPaste.getBytes();
+            if (this.estimatedBytes - this.removedBytes > this.maximumBytes) {
+                this.evict();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the oldest pastes until the index is a tenth below its memory limit, so that
+     * the index isn't compacted again for every paste that is added
+     */
+    private void evict() {
+        final long target = this.maximumBytes - this.maximumBytes / 10L;
+        int evicted = 0;
+        while (this.estimatedBytes - this.removedBytes > target && !this.pastesByAge.isEmpty()) {
+            final IndexedPaste oldest = this.pastesByAge.first();
+            this.evictedUntil = Math.max(this.evictedUntil, oldest.timestamp);
+            this.removeIndexed(oldest);
+            evicted++;
+        }
+        this.compact();
+        Logger.warn("The search index reached its memory limit of {} bytes, and dropped the {} oldest pastes",
+            this.maximumBytes, evicted);
+    }
+
+    /**
+     * Remove a paste from the index
+     *
+     * @param id Paste ID
+     */
+    public void remove(final String id) {
+        this.lock.writeLock().lock();
+        try {
+            final IndexedPaste paste = this.pastes.get(id);
+            if (paste == null) {
+                return;
+            }
+            this.removeIndexed(paste);
+            if (this.removedDocuments * 2 > this.documents.size()) {
+                this.compact();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void removeIndexed(final IndexedPaste paste) {
+        this.pastes.remove(paste.id);
+        this.pastesByAge.remove(paste);
+        // The token lists keep referring to the documents until they are compacted
+        long bytes = paste.getBytes();
+        for (final int documentNumber : paste.documents) {
+            final Document document = this.documents.set(documentNumber, null);
+            this.truncatedDocuments.remove(document);
+            bytes += document.getBytes() + 4L * document.tokenCount;
+        }
+        this.removedDocuments += paste.documents.length;
+        this.removedBytes += bytes;
+    }
+
+    /**
+     * Renumber the documents that are left, dropping removed documents from the token lists.
+     * Numbers only ever shrink and keep their order, so the token lists stay sorted. The
+     * estimated size is recounted from what is left
+     */
+    private void compact() {
+        final int[] numbers = new int[this.documents.size()];
+        final List<Document> compacted = new ArrayList<>(this.documents.size() - this.removedDocuments);
+        long bytes = 0L;
+        for (int document = 0; document < numbers.length; document++) {
+            if (this.documents.get(document) == null) {
+                numbers[document] = -1;
+            } else {
+                numbers[document] = compacted.size();
+                compacted.add(this.documents.get(document));
+                bytes += this.documents.get(document).getBytes();
+            }
+        }
+        final Iterator<Map.Entry<String, Postings>> iterator = this.postings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Postings> entry = iterator.next();
+            if (entry.getValue().renumber(numbers)) {
+                bytes += TOKEN_BYTES + entry.getKey().length() + 4L * entry.getValue().documents.length;
+            } else {
+                iterator.remove();
+            }
+        }
+        for (final IndexedPaste paste : this.pastes.values()) {
+            for (int file = 0; file < paste.documents.length; file++) {
+                paste.documents[file] = numbers[paste.documents[file]];
+            }
+            bytes += paste.getBytes();
+        }
+        this.documents = compacted;
+        this.removedDocuments = 0;
+        this.estimatedBytes = bytes;
+        this.removedBytes = 0L;
+    }
+
+    /**
+     * Index every paste in a store that isn't indexed yet. Pastes that are uploaded
+     * while this runs are added as usual
+     *
+     * @param pasteStore Store to read pastes from
+     * @return Number of pastes that were added
+     * @throws IOException If the paste IDs cannot be listed
+     */
+    public int rebuild(final PasteStore pasteStore) throws IOException {
+        this.rebuilding = true;
+        try {
+            int added = 0;
+            for (final String id : pasteStore.getIds()) {
+                if (this.contains(id)) {
+                    continue;
+                }
+                final StoredPaste paste;
+                try {
+                    paste = pasteStore.read(id);
+                } catch (final IOException e) {
+                    e.printStackTrace();
+                    Logger.error("Couldn't index paste with ID {}", id);
+                    continue;
+                }
+                if (paste != null) {
+                    this.add(paste);
+                    added++;
+                }
+            }
+            return added;
+        } finally {
+            this.rebuilding = false;
+        }
+    }
+
+    /**
+     * Find the paste files that match a query. Results are complete unless the index is
+     * being rebuilt, pastes in the searched time range were dropped to stay within the
+     * memory limit, or a file that passes the filters has more distinct tokens than were
+     * indexed and may contain the query tokens past the limit
+     *
+     * @param query Query
+     * @return Requested page of matching files, newest first
+     */
+    public SearchResults search(final SearchQuery query) {
+        final Set<String> tokens = new LinkedHashSet<>();
+        Tokenizer.tokenize(query.getText(), 0, query.getText().length(), (token, start, end) -> tokens.add(token));
+        if (tokens.isEmpty()) {
+            return new SearchResults(0, Collections.emptyList(), !this.rebuilding);
+        }
+        final List<Document> matches = new ArrayList<>();
+        boolean complete = !this.rebuilding;
+        this.lock.readLock().lock();
+        try {
+            final List<Postings> lists = new ArrayList<>(tokens.size());
+            for (final String token : tokens) {
+                final Postings list = this.postings.get(token);
+                if (list == null) {
+                    lists.clear();
+                    break;
+                }
+                lists.add(list);
+            }
+            if (!lists.isEmpty()) {
+                // Start with the rarest token, so the candidates shrink as fast as possible
+                lists.sort(Comparator.comparingInt(list -> list.size));
+                final int[] candidates = Arrays.copyOf(lists.get(0).documents, lists.get(0).size);
+                int candidateCount = candidates.length;
+                for (int i = 1; i < lists.size() && candidateCount > 0; i++) {
+                    candidateCount = lists.get(i).retainAll(candidates, candidateCount);
+                }
+                for (int i = 0; i < candidateCount; i++) {
+                    final Document document = this.documents.get(candidates[i]);
+                    if (document != null && document.matches(query)) {
+                        matches.add(document);
+                    }
+                }
+            }
+            if (query.getSince() <= this.evictedUntil) {
+                complete = false;
+            }
+            final Set<Document> matched = this.truncatedDocuments.isEmpty() ? Collections.emptySet() :
+                new HashSet<>(matches);
+            for (final Document document : this.truncatedDocuments) {
+                if (!complete) {
+                    break;
+                }
+                complete = !document.matches(query) || matched.contains(document);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        matches.sort(NEWEST_FIRST);
+        final int from = Math.min(Math.max(0, query.getOffset()), matches.size());
+        final int to = Math.min(matches.size(), from + Math.max(0, query.getLimit()));
+        final List<SearchHit> hits = new ArrayList<>(to - from);
+        for (final Document document : matches.subList(from, to)) {
+            hits.add(new SearchHit(document.pasteId, document.file, document.fileName, document.applicationId,
+                document.timestamp));
+        }
+        return new SearchResults(matches.size(), hits, complete);
+    }
+
+    /**
+     * Check whether a paste is indexed
+     *
+     * @param id Paste ID
+     * @return True if the paste is indexed
+     */
+    public boolean contains(final String id) {
+        this.lock.readLock().lock();
+        try {
+            return this.pastes.containsKey(id);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of indexed pastes
+     *
+     * @return Indexed pastes
+     */
+    public int getPasteCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.pastes.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of distinct indexed tokens
+     *
+     * @return Indexed tokens
+     */
+    public int getTokenCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.postings.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of indexed files of which not every token was indexed
+     *
+     * @return Truncated files
+     */
+    public int getTruncatedFileCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.truncatedDocuments.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the estimated number of heap bytes retained by the index
+     *
+     * @return Estimated size
+     */
+    public long getEstimatedBytes() {
+        return this.estimatedBytes;
+    }
+
+    /**
+     * Check whether the index is being rebuilt, in which case results may be incomplete
+     *
+     * @return True while rebuilding
+     */
+    public boolean isRebuilding() {
+        return this.rebuilding;
+    }
+
+    @RequiredArgsConstructor
+    private static final class IndexedPaste {
+
+        private final String id;
+        private final long timestamp;
+        private final int[] documents;
+
+        private long getBytes() {
+            return PASTE_BYTES + this.id.length();
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    private static final class Document {
+
+        private final String pasteId;
+        private final int file;
+        private final String fileName;
+        private final String applicationId;
+        private final long timestamp;
+        /**
+         * Number of token lists that contain this document
+         */
+        private final int tokenCount;
+
+        private long getBytes() {
+            return DOCUMENT_BYTES + this.fileName.length();
+        }
+
+        private boolean matches(final SearchQuery query) {
+            return (query.getApplicationId() == null || query.getApplicationId().equalsIgnoreCase(this.applicationId))
+                && (query.getFileName() == null || query.getFileName().equalsIgnoreCase(this.fileName))
+                && this.timestamp >= query.getSince() && this.timestamp < query.getUntil();
+        }
+
+    }
+
+    /**
+     * Sorted list of the documents that contain a token
+     */
+    private static final class Postings {
+
+        private int[] documents = new int[2];
+        private int size;
+
+        /**
+         * Append a document, which must be numbered higher than the documents in the list
+         *
+         * @return Number of bytes the list grew by
+         */
+        private long add(final int document) {
+            long grown = 0L;
+            if (this.size == this.documents.length) {
+                final int capacity = this.size + (this.size >> 1) + 1;
+                grown = 4L * (capacity - this.documents.length);
+                this.documents = Arrays.copyOf(this.documents, capacity);
+            }
+            this.documents[this.size++] = document;
+            return grown;
+        }
+
+        /**
+         * Keep the candidates that are in this list
+         *
+         * @return Number of candidates left, which are moved to the front of the array
+         */
+        private int retainAll(final int[] candidates, final int candidateCount) {
+            int retained = 0;
+            int position = 0;
+            for (int i = 0; i < candidateCount && position < this.size; i++) {
+                final int candidate = candidates[i];
+                // Candidates are the shorter list, so gallop through this one
+                position = this.seek(candidate, position);
+                if (position < this.size && this.documents[position] == candidate) {
+                    candidates[retained++] = candidate;
+                }
+            }
+            return retained;
+        }
+
+        /**
+         * Find the first position at or after {@code from} holding a document that is at least {@code document}
+         */
+        private int seek(final int document, final int from) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < this.size && this.documents[high] < document) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, this.size);
+            final int index = Arrays.binarySearch(this.documents, low, high, document);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        /**
+         * Apply new document numbers, dropping documents numbered -1
+         *
+         * @return False if the list is empty afterwards
+         */
+        private boolean renumber(final int[] numbers) {
+            int retained = 0;
+            for (int i = 0; i < this.size; i++) {
+                final int number = numbers[this.documents[i]];
+                if (number != -1) {
+                    this.documents[retained++] = number;
+                }
+            }
+            this.size = retained;
+            if (retained < this.documents.length / 2) {
+                this.documents = Arrays.copyOf(this.documents, Math.max(2, retained));
+            }
+            return retained > 0;
+        }
+
+    }
+
+}
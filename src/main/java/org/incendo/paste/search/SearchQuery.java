@@ -0,0 +1,55 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.search;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Search query. Pastes match if a single file contains every token of the
+ * query text, and the paste passes all of the filters that are set
+ */
+@Getter
+@RequiredArgsConstructor
+public final class SearchQuery {
+
+    private final String text;
+    /**
+     * Application ID the paste must belong to, or null to match any application
+     */
+    private final String applicationId;
+    /**
+     * Name of the matching file, compared ignoring case, or null to match any file
+     */
+    private final String fileName;
+    /**
+     * Earliest upload time, inclusive
+     */
+    private final long since;
+    /**
+     * Latest upload time, exclusive
+     */
+    private final long until;
+    private final int offset;
+    private final int limit;
+
+}
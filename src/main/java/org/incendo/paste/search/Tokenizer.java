@@ -0,0 +1,85 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.search;
+
+import java.util.Locale;
+
+/**
+ * Splits text into search tokens: runs of letters, digits and underscores,
+ * lower cased. Tokens that are too short to be useful are skipped, and long
+ * tokens are cut down to their prefix, so the same text always produces the
+ * same tokens whether it is being indexed or queried
+ */
+public final class Tokenizer {
+
+    static final int MINIMUM_LENGTH = 2;
+    static final int MAXIMUM_LENGTH = 32;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Visit the tokens in a range of text
+     *
+     * @param text Text
+     * @param from Start offset, inclusive
+     * @param to End offset, exclusive
+     * @param visitor Visitor called for every token, in order
+     */
+    public static void tokenize(final CharSequence text, final int from, final int to, final TokenVisitor visitor) {
+        int start = -1;
+        for (int index = from; index <= to; index++) {
+            final boolean tokenCharacter = index < to && isTokenCharacter(text.charAt(index));
+            if (tokenCharacter && start == -1) {
+                start = index;
+            } else if (!tokenCharacter && start != -1) {
+                if (index - start >= MINIMUM_LENGTH) {
+                    final int end = Math.min(index, start + MAXIMUM_LENGTH);
+                    visitor.visit(text.subSequence(start, end).toString().toLowerCase(Locale.ENGLISH), start, index);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    private static boolean isTokenCharacter(final char character) {
+        return Character.isLetterOrDigit(character) || character == '_';
+    }
+
+    /**
+     * Receives the tokens of a text
+     */
+    @FunctionalInterface
+    public interface TokenVisitor {
+
+        /**
+         * Visit a token
+         *
+         * @param token Normalized token
+         * @param start Offset of the first character of the token in the text
+         * @param end Offset after the last character of the token in the text
+         */
+        void visit(String token, int start, int end);
+
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Paste store decorator that moves old pastes into a {@link PasteArchive}. New pastes
+ * are written to the underlying store, and reads fall back to the archive, so archived
+ * pastes remain available through the normal view path
+ */
+public final class ArchivingPasteStore implements PasteStore {
+
+    private final PasteStore pasteStore;
+    private final PasteArchive archive;
+
+    public ArchivingPasteStore(final PasteStore pasteStore, final PasteArchive archive) {
+        this.pasteStore = pasteStore;
+        this.archive = archive;
+    }
+
+    /**
+     * Check whether a paste has been archived
+     *
+     * @param id Paste ID
+     * @return True if the paste is archived
+     */
+    public boolean isArchived(final String id) {
+        return this.archive.contains(id);
+    }
+
+    /**
+     * Move pastes from the underlying store into a new archive segment. Pastes are only
+     * removed from the store once the segment has been written
+     *
+     * @param pastes Metadata of the pastes to archive
+     * @return Number of archived pastes
+     * @throws IOException If the segment cannot be written
+     */
+    public int archive(final Collection<PasteMetadata> pastes) throws IOException {
+        final Collection<StoredPaste> storedPastes = new ArrayList<>(pastes.size());
+        final Map<String, Long> lastAccess = new HashMap<>();
+        for (final PasteMetadata metadata : pastes) {
+            final StoredPaste paste = this.pasteStore.read(metadata.getId());
+            if (paste != null) {
+                storedPastes.add(paste);
+                lastAccess.put(metadata.getId(), metadata.getLastAccess());
+            }
+        }
+        this.archive.write(storedPastes, lastAccess);
+        for (final StoredPaste paste : storedPastes) {
+            this.pasteStore.delete(paste.getId());
+        }
+        return storedPastes.size();
+    }
+
+    /**
+     * Delete pastes from both the underlying store and the archive. Archive segments
+     * are rewritten once for all pastes they hold, rather than once per paste
+     *
+     * @param ids IDs of the pastes to delete
+     * @return IDs of the pastes that were deleted
+     * @throws IOException If a paste cannot be deleted
+     */
+    public Collection<String> deleteAll(final Collection<String> ids) throws IOException {
+        final Collection<String> deleted = new HashSet<>(this.archive.remove(ids));
+        for (final String id : ids) {
+            if (this.pasteStore.delete(id)) {
+                deleted.add(id);
+            }
+        }
+        return deleted;
+    }
+
+    @Override public boolean exists(final String id) {
+        return this.pasteStore.exists(id) || this.archive.contains(id);
+    }
+
+    @Override public StoredPaste read(final String id) throws IOException {
+        final StoredPaste paste = this.pasteStore.read(id);
+        return paste != null ? paste : this.archive.read(id);
+    }
+
+    @Override public StoredPaste read(final String id, final Function<String, String> contentLookup)
+        throws IOException {
+        final StoredPaste paste = this.pasteStore.read(id, contentLookup);
+        return paste != null ? paste : this.archive.read(id);
+    }
+
+    @Override public PasteMetadata readMetadata(final String id) throws IOException {
+        final PasteMetadata metadata = this.pasteStore.readMetadata(id);
+        return metadata != null ? metadata : this.archive.readMetadata(id);
+    }
+
+    @Override public void recordAccess(final String id, final long time) throws IOException {
+        if (this.archive.contains(id)) {
+            this.archive.recordAccess(id, time);
+        } else {
+            this.pasteStore.recordAccess(id, time);
+        }
+    }
+
+    @Override public String readFile(final String id, final String fileName) throws IOException {
+        final String content = this.pasteStore.readFile(id, fileName);
+        return content != null ? content : this.archive.readFile(id, fileName);
+    }
+
+    @Override public byte[] readRaw(final String id) throws IOException {
+        final byte[] raw = this.pasteStore.readRaw(id);
+        return raw != null ? raw : this.archive.readRaw(id);
+    }
+
+    @Override public byte[] readRawCompressed(final String id) throws IOException {
+        return this.pasteStore.readRawCompressed(id);
+    }
+
+    @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+        this.pasteStore.writeAll(pastes);
+    }
+
+    @Override public boolean delete(final String id) throws IOException {
+        return !this.deleteAll(Collections.singletonList(id)).isEmpty();
+    }
+
+    @Override public Collection<String> getIds() throws IOException {
+        final Collection<String> ids = new HashSet<>(this.pasteStore.getIds());
+        ids.addAll(this.archive.getIds());
+        return new ArrayList<>(ids);
+    }
+
+    @Override public void close() throws IOException {
+        try {
+            this.pasteStore.close();
+        } finally {
+            this.archive.close();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashes that deduplicated files are stored under. A hash is the
+ * lowercase hex encoded SHA-256 digest of the UTF-8 encoded file content
+ */
+public final class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    /**
+     * Create a digest that file content can be streamed through
+     *
+     * @return New digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Complete a digest and encode it as a content hash
+     *
+     * @param digest Digest that the file content was streamed through
+     * @return Content hash
+     */
+    public static String toHash(final MessageDigest digest) {
+        final byte[] bytes = digest.digest();
+        final char[] hash = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hash[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hash[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Get the content hash of a file
+     *
+     * @param content File content
+     * @return Content hash
+     */
+    public static String of(final String content) {
+        final MessageDigest digest = newDigest();
+        digest.update(content.getBytes(StandardCharsets.UTF_8));
+        return toHash(digest);
+    }
+
+    /**
+     * Check whether a string is a well formed content hash, so that it is safe to use in file names
+     *
+     * @param hash Hash to check
+     * @return True if the hash is valid
+     */
+    public static boolean isValid(final String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            final char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
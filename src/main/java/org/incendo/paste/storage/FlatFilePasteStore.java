@@ -0,0 +1,703 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import com.google.common.util.concurrent.Striped;
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.json.JsonWriter;
+import org.incendo.paste.json.PasteFormat;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Paste store keeping one file per paste. New pastes are written as
+ * {@link PasteContainer container} manifests that reference their files by
+ * {@link ContentHash content hash}, so a file that is uploaded many times is
+ * only stored once. Each file is kept in a container of its own in the
+ * {@code blobs} folder, next to a reference count. Pastes stored as complete
+ * containers or plain JSON by earlier versions remain readable. The modification
+ * time of a paste file doubles as its last access time.
+ * <p>
+ * Paste files are spread over 256 subfolders, chosen by the hash of the paste ID,
+ * so that no single directory grows too large. Pastes in the top level folder, as
+ * stored before sharding, remain readable until {@link #migrateToShards()} has moved them
+ */
+public final class FlatFilePasteStore implements PasteStore {
+
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final String EXTENSION = ".paste";
+    private static final String LEGACY_EXTENSION = ".json";
+    private static final String BLOB_EXTENSION = ".blob";
+    private static final String REFERENCES_EXTENSION = ".ref";
+
+    private final File pasteFolder;
+    private final Path blobFolder;
+    private final PasteContainer.Codec codec;
+    /**
+     * Whether the top level folder still holds pastes, which then have to be looked up there too
+     */
+    private volatile boolean unsharded;
+    /**
+     * Guards the reference counts, and the creation and removal of blobs
+     */
+    private final Striped<Lock> blobLocks = Striped.lock(64);
+
+    public FlatFilePasteStore(final File pasteFolder, final PasteContainer.Codec codec) {
+        this.pasteFolder = pasteFolder;
+        this.blobFolder = new File(pasteFolder, "blobs").toPath();
+        this.codec = codec;
+        if (!pasteFolder.exists() && !pasteFolder.mkdir()) {
+            throw new IllegalArgumentException(String.format("Failed to create paste folder %s", pasteFolder.getName()));
+        }
+        this.unsharded = collectIds(pasteFolder, new ArrayList<>(1), 1);
+    }
+
+    private static String getShard(final String id) {
+        return Integer.toHexString(0x100 | (id.hashCode() & 0xFF)).substring(1);
+    }
+
+    /**
+     * Get the file of a paste. Files are looked up in the top level folder as well
+     * as long as it hasn't been migrated, but are always created in the shard folder
+     */
+    private File getFile(final String id, final String extension) {
+        final File file = new File(new File(this.pasteFolder, getShard(id)), id + extension);
+        if (this.unsharded && !file.isFile()) {
+            final File unshardedFile = new File(this.pasteFolder, id + extension);
+            if (unshardedFile.isFile()) {
+                return unshardedFile;
+            }
+        }
+        return file;
+    }
+
+    private File getManifestFile(final String id) {
+        return this.getFile(id, MANIFEST_EXTENSION);
+    }
+
+    private File getFile(final String id) {
+        return this.getFile(id, EXTENSION);
+    }
+
+    private File getLegacyFile(final String id) {
+        return this.getFile(id, LEGACY_EXTENSION);
+    }
+
+    private Path getBlobPath(final String hash, final String extension) {
+        return this.blobFolder.resolve(hash.substring(0, 2)).resolve(hash + extension);
+    }
+
+    @Override public boolean exists(final String id) {
+        return this.getManifestFile(id).isFile() || this.getFile(id).isFile() || this.getLegacyFile(id).isFile();
+    }
+
+    @Override public StoredPaste read(final String id) throws IOException {
+        return this.read(id, hash -> null);
+    }
+
+    @Override public StoredPaste read(final String id, final Function<String, String> contentLookup)
+        throws IOException {
+        final File manifestFile = this.getManifestFile(id);
+        if (manifestFile.isFile()) {
+            final StoredPaste manifest = this.readManifest(id, manifestFile);
+            final String[] contents = new String[manifest.getFileCount()];
+            final String[] hashes = new String[manifest.getFileCount()];
+            for (int i = 0; i < contents.length; i++) {
+                hashes[i] = manifest.getFileHash(i);
+                contents[i] = contentLookup.apply(hashes[i]);
+                if (contents[i] == null) {
+                    contents[i] = new String(PasteContainer.readPayload(this.getBlobPath(hashes[i], BLOB_EXTENSION)),
+                        StandardCharsets.UTF_8);
+                }
+            }
+            return new StoredPaste(id, manifest.getTimestamp(), manifest.getApplicationId(), manifest.getFileNames(),
+                contents, hashes);
+        }
+        final File file = this.getFile(id);
+        if (file.isFile()) {
+            try (final InputStream inputStream = PasteContainer.openPayload(file.toPath())) {
+                return PasteFormat.read(id, inputStream);
+            }
+        }
+        final File legacyFile = this.getLegacyFile(id);
+        if (legacyFile.isFile()) {
+            return PasteFormat.read(id, legacyFile.toPath());
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Deduplicated pastes read only the blob of the file. Older formats are streamed,
+     * and only the content of the requested file is kept
+     */
+    @Override public String readFile(final String id, final String fileName) throws IOException {
+        final File manifestFile = this.getManifestFile(id);
+        if (manifestFile.isFile()) {
+            final StoredPaste manifest = this.readManifest(id, manifestFile);
+            for (int i = 0; i < manifest.getFileCount(); i++) {
+                if (manifest.getFileNames()[i].equals(fileName)) {
+                    return new String(PasteContainer.readPayload(this.getBlobPath(manifest.getFileHash(i),
+                        BLOB_EXTENSION)), StandardCharsets.UTF_8);
+                }
+            }
+            return null;
+        }
+        final StringWriter writer = new StringWriter();
+        final File file = this.getFile(id);
+        if (file.isFile()) {
+            try (final InputStream inputStream = PasteContainer.openPayload(file.toPath())) {
+                return PasteFormat.streamFile(inputStream, fileName, writer) ? writer.toString() : null;
+            }
+        }
+        final File legacyFile = this.getLegacyFile(id);
+        if (legacyFile.isFile()) {
+            return PasteFormat.streamFile(legacyFile.toPath(), fileName, writer) ? writer.toString() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Read a paste manifest, which has file hashes but no file contents
+     */
+    private StoredPaste readManifest(final String id, final File manifestFile) throws IOException {
+        final StoredPaste manifest;
+        try (final InputStream inputStream = PasteContainer.openPayload(manifestFile.toPath())) {
+            manifest = PasteFormat.read(id, inputStream);
+        }
+        for (int i = 0; i < manifest.getFileCount(); i++) {
+            if (!ContentHash.isValid(manifest.getFileHash(i))) {
+                throw new IOException(String.format("Paste %s references an invalid file hash", id));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Get the file that holds a paste, in whichever format it was stored
+     */
+    private File getExistingFile(final String id) {
+        for (final File file : new File[] {this.getManifestFile(id), this.getFile(id), this.getLegacyFile(id)}) {
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    @Override public PasteMetadata readMetadata(final String id) throws IOException {
+        final File file = this.getExistingFile(id);
+        if (file == null) {
+            return null;
+        }
+        // Manifests are small. Older formats hold the file contents before the metadata, so
+        // these are skipped over, rather than read into memory on every retention pass
+        final StoredPaste paste;
+        if (file.getName().endsWith(MANIFEST_EXTENSION)) {
+            paste = this.readManifest(id, file);
+        } else if (file.getName().endsWith(EXTENSION)) {
+            try (final InputStream inputStream = PasteContainer.openPayload(file.toPath())) {
+                paste = PasteFormat.readWithoutContents(id, inputStream);
+            }
+        } else {
+            paste = PasteFormat.readWithoutContents(id, file.toPath());
+        }
+        return new PasteMetadata(id, paste.getTimestamp(), paste.getApplicationId(),
+            Math.max(paste.getTimestamp(), file.lastModified()));
+    }
+
+    @Override public void recordAccess(final String id, final long time) throws IOException {
+        final File file = this.getExistingFile(id);
+        if (file != null) {
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(time));
+        }
+    }
+
+    @Override public byte[] readRaw(final String id) throws IOException {
+        final File manifestFile = this.getManifestFile(id);
+        if (manifestFile.isFile()) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            this.writeRaw(id, manifestFile, outputStream);
+            return outputStream.toByteArray();
+        }
+        final File file = this.getFile(id);
+        if (file.isFile()) {
+            return PasteContainer.readPayload(file.toPath());
+        }
+        final File legacyFile = this.getLegacyFile(id);
+        if (!legacyFile.isFile()) {
+            return null;
+        }
+        try (final FileChannel channel = FileChannel.open(legacyFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Paste %s is too large to be read", id));
+            }
+            // Read the file straight into an array of the exact size, with no intermediate buffers
+            final byte[] content = new byte[(int) size];
+            final ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                // The file shrank since its size was read
+                if (channel.read(buffer) == -1) {
+                    throw new IOException(String.format("Truncated paste %s", id));
+                }
+            }
+            return content;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Complete containers hold the paste JSON as stored. Manifests are assembled, and
+     * compressed while their files are streamed in, if the store compresses its files
+     */
+    @Override public byte[] readRawCompressed(final String id) throws IOException {
+        final File manifestFile = this.getManifestFile(id);
+        if (manifestFile.isFile()) {
+            if (this.codec != PasteContainer.Codec.GZIP) {
+                return null;
+            }
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192)) {
+                this.writeRaw(id, manifestFile, gzipOutputStream);
+            }
+            return outputStream.toByteArray();
+        }
+        final File file = this.getFile(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        return PasteContainer.readCompressedPayload(file.toPath());
+    }
+
+    /**
+     * Write the JSON representation of a deduplicated paste, in the format written by
+     * {@link PasteFormat#write(StoredPaste, OutputStream)}. File contents are copied
+     * from their blobs as they are escaped, without being read into strings
+     */
+    private void writeRaw(final String id, final File manifestFile, final OutputStream outputStream)
+        throws IOException {
+        final StoredPaste manifest = this.readManifest(id, manifestFile);
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream,
+            StandardCharsets.UTF_8)));
+        writer.beginObject().name("files").beginObject();
+        for (int i = 0; i < manifest.getFileCount(); i++) {
+            try (final Reader reader = new InputStreamReader(PasteContainer.openPayload(
+                this.getBlobPath(manifest.getFileHash(i), BLOB_EXTENSION)), StandardCharsets.UTF_8)) {
+                writer.name(manifest.getFileNames()[i]).value(reader);
+            }
+        }
+        writer.endObject().name("file_names").beginArray();
+        for (final String fileName : manifest.getFileNames()) {
+            writer.value(fileName);
+        }
+        writer.endArray().name("timestamp").value(manifest.getTimestamp())
+            .name("application_id").value(manifest.getApplicationId()).endObject();
+        writer.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The files of all pastes are forced to disk together once every paste has been
+     * written, which is much cheaper than syncing each paste as it is committed. The
+     * manifests are written to temporary files, and only moved into place once they
+     * and the blobs they reference are durable, so a crash never leaves a manifest
+     * that is truncated, or that references blobs that were lost
+     */
+    @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+        final Collection<Path> written = new LinkedHashSet<>();
+        final List<FlatFilePasteWriter> pasteWriters = new ArrayList<>(pastes.size());
+        Throwable failure = null;
+        try {
+            for (final StoredPaste paste : pastes) {
+                final FlatFilePasteWriter pasteWriter = new FlatFilePasteWriter(paste.getId(), written);
+                pasteWriters.add(pasteWriter);
+                for (int i = 0; i < paste.getFileCount(); i++) {
+                    pasteWriter.writeFile(paste.getFileNames()[i], new StringReader(paste.getFileContents()[i]));
+                }
+                pasteWriter.commit(paste.getTimestamp(), paste.getApplicationId());
+            }
+        } catch (final Throwable throwable) {
+            failure = throwable;
+            throw throwable;
+        } finally {
+            // Pastes committed before a failure are stored as well. A failure here must not hide the original one
+            try {
+                publish(written, pasteWriters);
+            } catch (final IOException e) {
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Make committed pastes durable and visible, and discard all others
+     *
+     * @param written Files written for the pastes
+     * @param pasteWriters Writers of the pastes
+     * @throws IOException If the pastes cannot be synced or moved into place
+     */
+    private static void publish(final Collection<Path> written, final Collection<FlatFilePasteWriter> pasteWriters)
+        throws IOException {
+        try {
+            forceFiles(written);
+            final Collection<Path> folders = new LinkedHashSet<>();
+            for (final Path path : written) {
+                folders.add(path.getParent());
+            }
+            for (final FlatFilePasteWriter pasteWriter : pasteWriters) {
+                pasteWriter.publish();
+            }
+            forceFolders(folders);
+        } finally {
+            // Releases the files of every paste that wasn't published
+            IOException failure = null;
+            for (final FlatFilePasteWriter pasteWriter : pasteWriters) {
+                try {
+                    pasteWriter.close();
+                } catch (final IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Force files to disk
+     *
+     * @param paths Written files
+     * @throws IOException If a file cannot be synced
+     */
+    private static void forceFiles(final Collection<Path> paths) throws IOException {
+        for (final Path path : paths) {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (final NoSuchFileException e) {
+                // Released by a concurrent delete, nothing left to sync
+            }
+        }
+    }
+
+    /**
+     * Force folders to disk, which makes new and renamed entries durable. Some platforms
+     * can't open folders, their entries are then only as durable as the file system makes them
+     *
+     * @param folders Folders with new entries
+     */
+    private static void forceFolders(final Collection<Path> folders) {
+        for (final Path folder : folders) {
+            try (final FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (final IOException e) {
+                // Ignored, see above
+            }
+        }
+    }
+
+    @Override public boolean delete(final String id) throws IOException {
+        boolean deleted = false;
+        final File manifestFile = this.getManifestFile(id);
+        if (manifestFile.isFile()) {
+            final StoredPaste manifest = this.readManifest(id, manifestFile);
+            // Only the caller that removed the manifest releases its files, so they are released once
+            if (Files.deleteIfExists(manifestFile.toPath())) {
+                deleted = true;
+                for (int i = 0; i < manifest.getFileCount(); i++) {
+                    this.releaseBlob(manifest.getFileHash(i));
+                }
+            }
+        }
+        deleted |= Files.deleteIfExists(this.getFile(id).toPath());
+        return Files.deleteIfExists(this.getLegacyFile(id).toPath()) || deleted;
+    }
+
+    @Override public Collection<String> getIds() {
+        final Collection<String> ids = new HashSet<>();
+        if (this.unsharded) {
+            collectIds(this.pasteFolder, ids, Integer.MAX_VALUE);
+        }
+        for (int shard = 0; shard < 256; shard++) {
+            collectIds(new File(this.pasteFolder, Integer.toHexString(0x100 | shard).substring(1)), ids,
+                Integer.MAX_VALUE);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Add the IDs of the pastes in a folder to a collection
+     *
+     * @return True if the limit was reached before all IDs were collected
+     */
+    private static boolean collectIds(final File folder, final Collection<String> ids, final int limit) {
+        final String[] fileNames = folder.list();
+        if (fileNames == null) {
+            return false;
+        }
+        for (final String fileName : fileNames) {
+            if (ids.size() >= limit) {
+                return true;
+            }
+            if (fileName.endsWith(MANIFEST_EXTENSION)) {
+                ids.add(fileName.substring(0, fileName.length() - MANIFEST_EXTENSION.length()));
+            } else if (fileName.endsWith(EXTENSION)) {
+                ids.add(fileName.substring(0, fileName.length() - EXTENSION.length()));
+            } else if (fileName.endsWith(LEGACY_EXTENSION)) {
+                ids.add(fileName.substring(0, fileName.length() - LEGACY_EXTENSION.length()));
+            }
+        }
+        return ids.size() >= limit;
+    }
+
+    /**
+     * Move all pastes from the top level folder into their shard folders. This is
+     * only needed once, for pastes stored before the folder was sharded
+     *
+     * @return Number of moved paste files
+     * @throws IOException If a paste file cannot be moved
+     */
+    public int migrateToShards() throws IOException {
+        final Collection<String> fileNames = new ArrayList<>();
+        final String[] names = this.pasteFolder.list();
+        if (names != null) {
+            for (final String fileName : names) {
+                if (fileName.endsWith(MANIFEST_EXTENSION) || fileName.endsWith(EXTENSION)
+                    || fileName.endsWith(LEGACY_EXTENSION)) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+        int moved = 0;
+        for (final String fileName : fileNames) {
+            final String id = fileName.substring(0, fileName.lastIndexOf('.'));
+            final Path target = this.pasteFolder.toPath().resolve(getShard(id)).resolve(fileName);
+            Files.createDirectories(target.getParent());
+            Files.move(this.pasteFolder.toPath().resolve(fileName), target, StandardCopyOption.ATOMIC_MOVE);
+            moved++;
+        }
+        this.unsharded = false;
+        return moved;
+    }
+
+    @Override public void close() {
+    }
+
+    /**
+     * Store a file as a blob, or take another reference to the blob if the same
+     * content has been stored before. The content is hashed while it is written
+     * to a temporary container, so it is only read once
+     *
+     * @param content File content
+     * @param written Receives the files that have to be synced for the blob to be durable
+     * @return Content hash
+     * @throws IOException If the blob cannot be stored
+     */
+    private String storeBlob(final Reader content, final Collection<Path> written) throws IOException {
+        Files.createDirectories(this.blobFolder);
+        final Path temporaryFile = this.blobFolder.resolve(String.format("%s.tmp", UUID.randomUUID()));
+        try {
+            final MessageDigest digest = ContentHash.newDigest();
+            try (final PasteContainer.Output output = new PasteContainer.Output(temporaryFile, this.codec)) {
+                final Writer writer = new OutputStreamWriter(new DigestOutputStream(output, digest),
+                    StandardCharsets.UTF_8);
+                content.transferTo(writer);
+                writer.flush();
+                output.commit();
+            }
+            final String hash = ContentHash.toHash(digest);
+            final Path blobFile = this.getBlobPath(hash, BLOB_EXTENSION);
+            final Lock lock = this.blobLocks.get(hash);
+            lock.lock();
+            try {
+                final long references = this.readReferences(hash);
+                if (references <= 0L || !Files.isRegularFile(blobFile)) {
+                    Files.createDirectories(blobFile.getParent());
+                    Files.move(temporaryFile, blobFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                }
+                this.writeReferences(hash, Math.max(0L, references) + 1L);
+            } finally {
+                lock.unlock();
+            }
+            written.add(blobFile);
+            written.add(this.getBlobPath(hash, REFERENCES_EXTENSION));
+            return hash;
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Drop a reference to a blob, deleting the blob once nothing references it
+     *
+     * @param hash Content hash
+     * @throws IOException If the reference count cannot be updated
+     */
+    private void releaseBlob(final String hash) throws IOException {
+        final Lock lock = this.blobLocks.get(hash);
+        lock.lock();
+        try {
+            final long references = this.readReferences(hash) - 1L;
+            if (references > 0L) {
+                this.writeReferences(hash, references);
+            } else {
+                Files.deleteIfExists(this.getBlobPath(hash, BLOB_EXTENSION));
+                Files.deleteIfExists(this.getBlobPath(hash, REFERENCES_EXTENSION));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long readReferences(final String hash) throws IOException {
+        final Path referencesFile = this.getBlobPath(hash, REFERENCES_EXTENSION);
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(referencesFile), StandardCharsets.US_ASCII).trim());
+        } catch (final NoSuchFileException e) {
+            return 0L;
+        } catch (final NumberFormatException e) {
+            throw new IOException(String.format("Corrupt reference count for blob %s", hash), e);
+        }
+    }
+
+    private void writeReferences(final String hash, final long references) throws IOException {
+        // Replace the count atomically, so that a crash never leaves a truncated count behind
+        final Path referencesFile = this.getBlobPath(hash, REFERENCES_EXTENSION);
+        final Path temporaryFile = referencesFile.resolveSibling(hash + REFERENCES_EXTENSION + ".tmp");
+        Files.write(temporaryFile, Long.toString(references).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporaryFile, referencesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stores each file as a blob as soon as it has been written, and the manifest on commit.
+     * The manifest is written to a temporary file, which {@link #publish()} moves into
+     * place once the caller has synced it
+     */
+    private final class FlatFilePasteWriter implements PasteWriter {
+
+        private final String id;
+        private final List<String> fileNames = new ArrayList<>();
+        private final List<String> fileHashes = new ArrayList<>();
+        private final Collection<Path> written;
+        private Path temporaryManifest;
+        private boolean published;
+
+        /**
+         * @param written Receives every file written for the paste, which the caller syncs
+         */
+        private FlatFilePasteWriter(final String id, final Collection<Path> written) {
+            this.id = id;
+            this.written = written;
+        }
+
+        @Override public void writeFile(final String fileName, final Reader content) throws IOException {
+            final String hash = storeBlob(content, this.written);
+            this.fileNames.add(fileName);
+            this.fileHashes.add(hash);
+        }
+
+        @Override public void commit(final long timestamp, final String applicationId) throws IOException {
+            final Path manifestFile = getManifestFile(this.id).toPath();
+            final Path temporaryFile = manifestFile.resolveSibling(this.id + MANIFEST_EXTENSION + ".tmp");
+            Files.createDirectories(manifestFile.getParent());
+            // Left behind if the viewer crashed while writing the manifest
+            Files.deleteIfExists(temporaryFile);
+            this.temporaryManifest = temporaryFile;
+            PasteContainer.write(temporaryFile, codec, outputStream ->
+                PasteFormat.writeManifest(this.fileNames, this.fileHashes, timestamp, applicationId, outputStream));
+            this.written.add(temporaryFile);
+        }
+
+        /**
+         * Move the committed manifest into place, which makes the paste visible
+         *
+         * @throws IOException If the manifest cannot be moved
+         */
+        private void publish() throws IOException {
+            if (this.temporaryManifest == null || this.published) {
+                return;
+            }
+            Files.move(this.temporaryManifest, this.temporaryManifest.resolveSibling(this.id + MANIFEST_EXTENSION),
+                StandardCopyOption.ATOMIC_MOVE);
+            this.published = true;
+        }
+
+        @Override public void close() throws IOException {
+            if (this.published) {
+                return;
+            }
+            if (this.temporaryManifest != null) {
+                Files.deleteIfExists(this.temporaryManifest);
+            }
+            // The paste was never stored, so the references taken to its files are dropped again
+            for (final String hash : this.fileHashes) {
+                releaseBlob(hash);
+            }
+            this.fileHashes.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import lombok.Getter;
+import org.incendo.paste.StoredPaste;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Paste store decorator that keeps the IDs of all stored pastes in a {@link PasteIdIndex}.
+ * Lookups of unknown IDs, such as those probed by scrapers, are answered from memory
+ * without touching the underlying store. The index is loaded when the store is opened,
+ * so the store must not be modified by other processes while it is in use
+ */
+public final class IndexedPasteStore implements PasteStore {
+
+    private final PasteStore pasteStore;
+    @Getter private final PasteIdIndex index = new PasteIdIndex();
+
+    /**
+     * Wrap a store, indexing the pastes it holds
+     *
+     * @param pasteStore Store to wrap
+     * @throws IOException If the IDs of the stored pastes cannot be listed
+     */
+    public IndexedPasteStore(final PasteStore pasteStore) throws IOException {
+        this.pasteStore = pasteStore;
+        for (final String id : pasteStore.getIds()) {
+            this.index.add(id);
+        }
+    }
+
+    @Override public boolean exists(final String id) {
+        return this.index.contains(id);
+    }
+
+    @Override public StoredPaste read(final String id) throws IOException {
+        return this.index.contains(id) ? this.pasteStore.read(id) : null;
+    }
+
+    @Override public StoredPaste read(final String id, final Function<String, String> contentLookup)
+        throws IOException {
+        return this.index.contains(id) ? this.pasteStore.read(id, contentLookup) : null;
+    }
+
+    @Override public PasteMetadata readMetadata(final String id) throws IOException {
+        return this.index.contains(id) ? this.pasteStore.readMetadata(id) : null;
+    }
+
+    @Override public void recordAccess(final String id, final long time) throws IOException {
+        if (this.index.contains(id)) {
+            this.pasteStore.recordAccess(id, time);
+        }
+    }
+
+    @Override public String readFile(final String id, final String fileName) throws IOException {
+        return this.index.contains(id) ? this.pasteStore.readFile(id, fileName) : null;
+    }
+
+    @Override public byte[] readRaw(final String id) throws IOException {
+        return this.index.contains(id) ? this.pasteStore.readRaw(id) : null;
+    }
+
+    @Override public byte[] readRawCompressed(final String id) throws IOException {
+        return this.index.contains(id) ? this.pasteStore.readRawCompressed(id) : null;
+    }
+
+    @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+        try {
+            this.pasteStore.writeAll(pastes);
+        } catch (final IOException e) {
+            // Pastes stored before the failure are on disk, and have to be found by callers that retry the rest
+            for (final StoredPaste paste : pastes) {
+                if (this.pasteStore.exists(paste.getId())) {
+                    this.index.add(paste.getId());
+                }
+            }
+            throw e;
+        }
+        for (final StoredPaste paste : pastes) {
+            this.index.add(paste.getId());
+        }
+    }
+
+    @Override public boolean delete(final String id) throws IOException {
+        final boolean deleted;
+        try {
+            deleted = this.pasteStore.delete(id);
+        } catch (final IOException e) {
+            // A paste that is still stored has to stay readable, so that the delete can be retried
+            if (!this.pasteStore.exists(id)) {
+                this.index.remove(id);
+            }
+            throw e;
+        }
+        // Pastes that were already gone are dropped from the index as well
+        this.index.remove(id);
+        return deleted;
+    }
+
+    @Override public Collection<String> getIds() throws IOException {
+        return this.pasteStore.getIds();
+    }
+
+    @Override public void close() throws IOException {
+        this.pasteStore.close();
+    }
+
+}
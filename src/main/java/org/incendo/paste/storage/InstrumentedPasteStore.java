@@ -0,0 +1,128 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.metrics.Counter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Paste store decorator that counts the bytes read from and written to the
+ * underlying store. Parsed pastes and files are counted in their UTF-8 encoded length
+ */
+public final class InstrumentedPasteStore implements PasteStore {
+
+    private final PasteStore pasteStore;
+    private final Counter bytesRead;
+    private final Counter bytesWritten;
+
+    public InstrumentedPasteStore(final PasteStore pasteStore, final Counter bytesRead, final Counter bytesWritten) {
+        this.pasteStore = pasteStore;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+    }
+
+    @Override public boolean exists(final String id) {
+        return this.pasteStore.exists(id);
+    }
+
+    @Override public StoredPaste read(final String id) throws IOException {
+        final StoredPaste paste = this.pasteStore.read(id);
+        if (paste != null) {
+            this.bytesRead.add(paste.getEncodedSize());
+        }
+        return paste;
+    }
+
+    @Override public StoredPaste read(final String id, final Function<String, String> contentLookup)
+        throws IOException {
+        // Contents that came from the lookup were not read from the store
+        final AtomicLong lookedUp = new AtomicLong();
+        final StoredPaste paste = this.pasteStore.read(id, hash -> {
+            final String content = contentLookup.apply(hash);
+            if (content != null) {
+                lookedUp.addAndGet(StoredPaste.getEncodedLength(content));
+            }
+            return content;
+        });
+        if (paste != null) {
+            this.bytesRead.add(paste.getEncodedSize() - lookedUp.get());
+        }
+        return paste;
+    }
+
+    @Override public PasteMetadata readMetadata(final String id) throws IOException {
+        return this.pasteStore.readMetadata(id);
+    }
+
+    @Override public void recordAccess(final String id, final long time) throws IOException {
+        this.pasteStore.recordAccess(id, time);
+    }
+
+    @Override public String readFile(final String id, final String fileName) throws IOException {
+        final String content = this.pasteStore.readFile(id, fileName);
+        if (content != null) {
+            this.bytesRead.add(StoredPaste.getEncodedLength(content));
+        }
+        return content;
+    }
+
+    @Override public byte[] readRaw(final String id) throws IOException {
+        final byte[] raw = this.pasteStore.readRaw(id);
+        if (raw != null) {
+            this.bytesRead.add(raw.length);
+        }
+        return raw;
+    }
+
+    @Override public byte[] readRawCompressed(final String id) throws IOException {
+        final byte[] compressed = this.pasteStore.readRawCompressed(id);
+        if (compressed != null) {
+            this.bytesRead.add(compressed.length);
+        }
+        return compressed;
+    }
+
+    @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+        this.pasteStore.writeAll(pastes);
+        for (final StoredPaste paste : pastes) {
+            this.bytesWritten.add(paste.getEncodedSize());
+        }
+    }
+
+    @Override public boolean delete(final String id) throws IOException {
+        return this.pasteStore.delete(id);
+    }
+
+    @Override public Collection<String> getIds() throws IOException {
+        return this.pasteStore.getIds();
+    }
+
+    @Override public void close() throws IOException {
+        this.pasteStore.close();
+    }
+
+}
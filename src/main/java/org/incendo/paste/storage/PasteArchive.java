@@ -0,0 +1,450 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import lombok.Getter;
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.json.PasteFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Read only archive of old pastes, packed into compressed segments. A segment is a
+ * zip file with one {@code <id>.json} entry per paste, in the stored JSON format.
+ * The entry comment holds the application ID and the entry time the last access
+ * time, so the archive can be indexed from the central directories alone.
+ * <p>
+ * Segments are never modified in place. Removing pastes rewrites the affected
+ * segments without them, which also compacts the archive. Segments are synced to
+ * disk before they are used, so pastes can be deleted from the store as soon as
+ * they have been archived. Views of archived pastes are appended to an access
+ * journal, which is folded into the index when the archive is opened
+ */
+public final class PasteArchive implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".zip";
+    private static final String ENTRY_EXTENSION = ".json";
+    private static final String ACCESS_JOURNAL = "access.log";
+
+    private final Path folder;
+    private final Path accessJournal;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Path, ZipFile> segments = new ConcurrentHashMap<>();
+    private final AtomicLong nextSegment = new AtomicLong();
+    /**
+     * Reads share the lock, closing a segment that has been replaced takes it exclusively
+     */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes segment rewrites
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Open the archive, indexing all existing segments
+     *
+     * @param folder Archive folder, which is created if it doesn't exist
+     * @throws IOException If the folder or a segment cannot be read
+     */
+    public PasteArchive(final Path folder) throws IOException {
+        this.folder = folder;
+        this.accessJournal = folder.resolve(ACCESS_JOURNAL);
+        Files.createDirectories(folder);
+        final List<Path> segmentFiles = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (final Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                if (fileName.endsWith(".tmp")) {
+                    // Left behind by a segment write that didn't complete
+                    Files.deleteIfExists(path);
+                } else if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_EXTENSION)) {
+                    segmentFiles.add(path);
+                }
+            }
+        }
+        // Later segments win, should a paste have been archived twice
+        segmentFiles.sort(null);
+        for (final Path segment : segmentFiles) {
+            final String fileName = segment.getFileName().toString();
+            this.nextSegment.set(Math.max(this.nextSegment.get(), Long.parseLong(fileName.substring(
+                SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_EXTENSION.length())) + 1L));
+            this.index(segment);
+        }
+        this.replayAccessJournal();
+    }
+
+    /**
+     * Apply the access times recorded since the segments were written, and rewrite the
+     * journal with only the times that are still newer than those in the segments
+     */
+    private void replayAccessJournal() throws IOException {
+        final Map<String, Long> accesses = new HashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(this.accessJournal, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(' ');
+                if (separator == -1) {
+                    // Torn by a crash while it was being appended
+                    continue;
+                }
+                try {
+                    accesses.merge(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)), Math::max);
+                } catch (final NumberFormatException e) {
+                    // Torn as well
+                }
+            }
+        } catch (final NoSuchFileException e) {
+            return;
+        }
+        final StringBuilder journal = new StringBuilder();
+        accesses.forEach((id, time) -> {
+            final Entry entry = this.entries.get(id);
+            if (entry != null && time > entry.lastAccess) {
+                entry.lastAccess = time;
+                journal.append(id).append(' ').append(time).append('\n');
+            }
+        });
+        final Path temporaryFile = this.accessJournal.resolveSibling(ACCESS_JOURNAL + ".tmp");
+        Files.write(temporaryFile, journal.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporaryFile, this.accessJournal, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void index(final Path segment) throws IOException {
+        final ZipFile zipFile = new ZipFile(segment.toFile());
+        this.segments.put(segment, zipFile);
+        final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            final ZipEntry zipEntry = zipEntries.nextElement();
+            if (zipEntry.getName().endsWith(ENTRY_EXTENSION)) {
+                final String id = zipEntry.getName().substring(0, zipEntry.getName().length() - ENTRY_EXTENSION.length());
+                this.entries.put(id, new Entry(segment, zipEntry.getComment() == null ? "" : zipEntry.getComment(),
+                    zipEntry.getTime()));
+            }
+        }
+    }
+
+    /**
+     * Check whether a paste is archived
+     *
+     * @param id Paste ID
+     * @return True if the paste is archived
+     */
+    public boolean contains(final String id) {
+        return this.entries.containsKey(id);
+    }
+
+    /**
+     * Get the IDs of all archived pastes
+     *
+     * @return Paste IDs
+     */
+    public Collection<String> getIds() {
+        return new ArrayList<>(this.entries.keySet());
+    }
+
+    /**
+     * Get the metadata of an archived paste
+     *
+     * @param id Paste ID
+     * @return The metadata, or null if the paste isn't archived
+     */
+    public PasteMetadata readMetadata(final String id) {
+        final Entry entry = this.entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        return new PasteMetadata(id, entry.getLastAccess(), entry.getApplicationId(), entry.getLastAccess());
+    }
+
+    /**
+     * Record that an archived paste has been viewed. The access time is appended to the
+     * access journal, and written into the segment when it is next rewritten
+     *
+     * @param id Paste ID
+     * @param time Access time
+     * @throws IOException If the access time cannot be recorded
+     */
+    public void recordAccess(final String id, final long time) throws IOException {
+        final Entry entry = this.entries.get(id);
+        if (entry == null || time <= entry.lastAccess) {
+            return;
+        }
+        entry.lastAccess = time;
+        synchronized (this.accessJournal) {
+            Files.write(this.accessJournal, String.format("%s %d\n", id, time).getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Read an archived paste
+     *
+     * @param id Paste ID
+     * @return The paste, or null if it isn't archived
+     * @throws IOException If the segment cannot be read
+     */
+    public StoredPaste read(final String id) throws IOException {
+        return this.readEntry(id, inputStream -> PasteFormat.read(id, inputStream));
+    }
+
+    /**
+     * Read the content of a single file of an archived paste, skipping over the other files
+     *
+     * @param id Paste ID
+     * @param fileName File name
+     * @return File content, or null if the paste isn't archived or has no such file
+     * @throws IOException If the segment cannot be read
+     */
+    public String readFile(final String id, final String fileName) throws IOException {
+        return this.readEntry(id, inputStream -> {
+            final StringWriter writer = new StringWriter();
+            return PasteFormat.streamFile(inputStream, fileName, writer) ? writer.toString() : null;
+        });
+    }
+
+    /**
+     * Read the stored JSON of an archived paste
+     *
+     * @param id Paste ID
+     * @return UTF-8 encoded JSON, or null if the paste isn't archived
+     * @throws IOException If the segment cannot be read
+     */
+    public byte[] readRaw(final String id) throws IOException {
+        return this.readEntry(id, InputStream::readAllBytes);
+    }
+
+    private <T> T readEntry(final String id, final EntryReader<T> reader) throws IOException {
+        this.segmentLock.readLock().lock();
+        try {
+            final Entry entry = this.entries.get(id);
+            final ZipFile zipFile = entry == null ? null : this.segments.get(entry.getSegment());
+            final ZipEntry zipEntry = zipFile == null ? null : zipFile.getEntry(id + ENTRY_EXTENSION);
+            if (zipEntry == null) {
+                return null;
+            }
+            try (final InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+                return reader.read(inputStream);
+            }
+        } finally {
+            this.segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Pack pastes into a new segment
+     *
+     * @param pastes Pastes to archive
+     * @param lastAccess Last access times of the pastes, by ID
+     * @throws IOException If the segment cannot be written
+     */
+    public void write(final Collection<StoredPaste> pastes, final Map<String, Long> lastAccess) throws IOException {
+        if (pastes.isEmpty()) {
+            return;
+        }
+        synchronized (this.writeLock) {
+            final Path segment = this.writeSegment(pastes.size(), zipOutputStream -> {
+                for (final StoredPaste paste : pastes) {
+                    zipOutputStream.putNextEntry(this.createEntry(paste.getId(), paste.getApplicationId(),
+                        lastAccess.getOrDefault(paste.getId(), paste.getTimestamp())));
+                    PasteFormat.write(paste, zipOutputStream);
+                    zipOutputStream.closeEntry();
+                }
+            });
+            this.index(segment);
+        }
+    }
+
+    /**
+     * Remove pastes from the archive, rewriting every segment that holds one of them.
+     * Segments that end up empty are deleted
+     *
+     * @param ids IDs of the pastes to remove
+     * @return IDs of the pastes that were archived, and have been removed
+     * @throws IOException If a segment cannot be rewritten
+     */
+    public Collection<String> remove(final Collection<String> ids) throws IOException {
+        final Collection<String> removed = new HashSet<>();
+        synchronized (this.writeLock) {
+            final Map<Path, Collection<String>> bySegment = new HashMap<>();
+            for (final String id : ids) {
+                final Entry entry = this.entries.get(id);
+                if (entry != null) {
+                    bySegment.computeIfAbsent(entry.getSegment(), segment -> new HashSet<>()).add(id);
+                }
+            }
+            for (final Map.Entry<Path, Collection<String>> segment : bySegment.entrySet()) {
+                this.rewrite(segment.getKey(), segment.getValue());
+                removed.addAll(segment.getValue());
+            }
+        }
+        return removed;
+    }
+
+    private void rewrite(final Path segment, final Collection<String> removedIds) throws IOException {
+        final List<String> keptIds = new ArrayList<>();
+        this.entries.forEach((id, entry) -> {
+            if (entry.getSegment().equals(segment) && !removedIds.contains(id)) {
+                keptIds.add(id);
+            }
+        });
+        final ZipFile zipFile = this.segments.get(segment);
+        if (!keptIds.isEmpty()) {
+            final Path replacement = this.writeSegment(keptIds.size(), zipOutputStream -> {
+                for (final String id : keptIds) {
+                    final Entry entry = this.entries.get(id);
+                    zipOutputStream.putNextEntry(this.createEntry(id, entry.getApplicationId(), entry.getLastAccess()));
+                    try (final InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(id + ENTRY_EXTENSION))) {
+                        inputStream.transferTo(zipOutputStream);
+                    }
+                    zipOutputStream.closeEntry();
+                }
+            });
+            this.index(replacement);
+        }
+        for (final String id : removedIds) {
+            this.entries.remove(id);
+        }
+        this.segmentLock.writeLock().lock();
+        try {
+            this.segments.remove(segment);
+            zipFile.close();
+        } finally {
+            this.segmentLock.writeLock().unlock();
+        }
+        Files.deleteIfExists(segment);
+    }
+
+    private ZipEntry createEntry(final String id, final String applicationId, final long lastAccess) {
+        final ZipEntry zipEntry = new ZipEntry(id + ENTRY_EXTENSION);
+        zipEntry.setComment(applicationId);
+        zipEntry.setTime(lastAccess);
+        return zipEntry;
+    }
+
+    /**
+     * Write a segment to a temporary file, and move it into place once it is complete.
+     * The segment is synced, along with the folder entry, before this returns
+     */
+    private Path writeSegment(final int entryCount, final SegmentWriter writer) throws IOException {
+        final Path segment = this.folder.resolve(String.format("%s%010d%s", SEGMENT_PREFIX,
+            this.nextSegment.getAndIncrement(), SEGMENT_EXTENSION));
+        final Path temporaryFile = segment.resolveSibling(segment.getFileName() + ".tmp");
+        try {
+            try (final ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporaryFile), 65536))) {
+                zipOutputStream.setLevel(Deflater.BEST_COMPRESSION);
+                zipOutputStream.setComment(String.format("%d pastes", entryCount));
+                writer.write(zipOutputStream);
+            }
+            try (final FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporaryFile, segment, StandardCopyOption.ATOMIC_MOVE);
+            syncFolder(this.folder);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        return segment;
+    }
+
+    private static void syncFolder(final Path folder) {
+        // Makes the renamed entry durable. Some platforms can't open folders, the entry is
+        // then only as durable as the file system makes it
+        try (final FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            // Best effort
+        }
+    }
+
+    @Override public void close() throws IOException {
+        this.segmentLock.writeLock().lock();
+        try {
+            for (final ZipFile zipFile : this.segments.values()) {
+                zipFile.close();
+            }
+            this.segments.clear();
+        } finally {
+            this.segmentLock.writeLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryReader<T> {
+
+        T read(InputStream inputStream) throws IOException;
+
+    }
+
+    @FunctionalInterface
+    private interface SegmentWriter {
+
+        void write(ZipOutputStream zipOutputStream) throws IOException;
+
+    }
+
+    @Getter
+    private static final class Entry {
+
+        private final Path segment;
+        private final String applicationId;
+        private volatile long lastAccess;
+
+        private Entry(final Path segment, final String applicationId, final long lastAccess) {
+            this.segment = segment;
+            this.applicationId = applicationId;
+            this.lastAccess = lastAccess;
+        }
+
+    }
+
+}
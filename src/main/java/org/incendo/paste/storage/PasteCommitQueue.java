@@ -0,0 +1,231 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.metrics.Histogram;
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of new pastes, drained by a single writer thread. The writer takes
+ * every paste that queued up while the previous batch was being written, and stores
+ * them with a single {@link PasteStore#writeAll(Collection)} call, so the cost of
+ * syncing to disk is shared by the whole batch. Under load batches grow, and the
+ * number of syncs stays roughly constant.
+ * <p>
+ * The queue is bounded both in pastes and in bytes. Submissions that don't fit are
+ * refused straight away, instead of blocking the submitting thread
+ */
+public final class PasteCommitQueue implements Closeable {
+
+    private final PasteStore pasteStore;
+    private final BlockingQueue<PendingPaste> queue;
+    private final long maximumBytes;
+    private final int maximumBatchSize;
+    private final Histogram batchSizes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * Start a commit queue
+     *
+     * @param pasteStore Store to write to
+     * @param capacity Maximum number of queued pastes
+     * @param maximumBytes Maximum estimated size of all queued pastes
+     * @param maximumBatchSize Maximum number of pastes written in one batch
+     * @param batchSizes Histogram that records the size of every written batch
+     */
+    public PasteCommitQueue(final PasteStore pasteStore, final int capacity, final long maximumBytes,
+        final int maximumBatchSize, final Histogram batchSizes) {
+        this.pasteStore = pasteStore;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.maximumBytes = maximumBytes;
+        this.maximumBatchSize = Math.max(1, maximumBatchSize);
+        this.batchSizes = batchSizes;
+        this.writerThread = new Thread(this::run, "paste-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue a paste to be written
+     *
+     * @param paste Paste to write
+     * @return Future that completes once the paste has been stored durably, or null if
+     * the queue is full and the paste was not accepted
+     */
+    public CompletableFuture<Void> submit(final StoredPaste paste) {
+        if (!this.running) {
+            return null;
+        }
+        final long weight = paste.getWeight();
+        final long queuedBytes = this.queuedBytes.addAndGet(weight);
+        // A paste larger than the byte limit is still accepted into an empty queue, so it can be stored at all
+        if (queuedBytes > this.maximumBytes && queuedBytes != weight) {
+            this.queuedBytes.addAndGet(-weight);
+            return null;
+        }
+        final PendingPaste pendingPaste = new PendingPaste(paste, weight, new CompletableFuture<>());
+        if (!this.queue.offer(pendingPaste)) {
+            this.queuedBytes.addAndGet(-weight);
+            return null;
+        }
+        return pendingPaste.future;
+    }
+
+    /**
+     * Withdraw a paste that hasn't been picked up by the writer yet
+     *
+     * @param future Future returned by {@link #submit(StoredPaste)}
+     * @return True if the paste was withdrawn and will not be written, false if
+     * it has already been written or is being written
+     */
+    public boolean cancel(final CompletableFuture<Void> future) {
+        for (final PendingPaste pendingPaste : this.queue) {
+            if (pendingPaste.future == future) {
+                // The writer may take it between finding and removing it
+                if (!this.queue.remove(pendingPaste)) {
+                    return false;
+                }
+                this.queuedBytes.addAndGet(-pendingPaste.weight);
+                future.cancel(false);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of queued pastes
+     *
+     * @return Queue length
+     */
+    public int getQueuedPastes() {
+        return this.queue.size();
+    }
+
+    /**
+     * Get the estimated size of all queued pastes
+     *
+     * @return Queued bytes
+     */
+    public long getQueuedBytes() {
+        return this.queuedBytes.get();
+    }
+
+    private void run() {
+        final List<PendingPaste> batch = new ArrayList<>(this.maximumBatchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                final PendingPaste first = this.queue.poll(1L, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.maximumBatchSize - 1);
+                this.write(batch);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Throwable throwable) {
+                // Keep the writer alive, and fail the pastes that weren't stored
+                throwable.printStackTrace();
+                for (final PendingPaste pendingPaste : batch) {
+                    pendingPaste.future.completeExceptionally(throwable);
+                }
+            } finally {
+                for (final PendingPaste pendingPaste : batch) {
+                    this.queuedBytes.addAndGet(-pendingPaste.weight);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(final List<PendingPaste> batch) {
+        final Collection<StoredPaste> pastes = new ArrayList<>(batch.size());
+        for (final PendingPaste pendingPaste : batch) {
+            pastes.add(pendingPaste.paste);
+        }
+        try {
+            this.pasteStore.writeAll(pastes);
+            this.batchSizes.record(batch.size());
+            for (final PendingPaste pendingPaste : batch) {
+                pendingPaste.future.complete(null);
+            }
+            return;
+        } catch (final IOException e) {
+            e.printStackTrace();
+            Logger.error("Failed to store a batch of {} pastes, storing them one by one", batch.size());
+        }
+        // Pastes written before the failure exist, and have been synced by the store
+        for (final PendingPaste pendingPaste : batch) {
+            if (this.pasteStore.exists(pendingPaste.paste.getId())) {
+                pendingPaste.future.complete(null);
+                continue;
+            }
+            try {
+                this.pasteStore.writeAll(Collections.singletonList(pendingPaste.paste));
+                pendingPaste.future.complete(null);
+            } catch (final IOException e) {
+                pendingPaste.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting pastes, and wait for the queued pastes to be written
+     */
+    @Override public void close() {
+        this.running = false;
+        try {
+            this.writerThread.join(TimeUnit.MINUTES.toMillis(1L));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class PendingPaste {
+
+        private final StoredPaste paste;
+        private final long weight;
+        private final CompletableFuture<Void> future;
+
+    }
+
+}
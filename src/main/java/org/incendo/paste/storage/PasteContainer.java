@@ -0,0 +1,317 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed container for stored pastes. A container consists of a fixed size header,
+ * followed by the (possibly compressed) paste JSON:
+ * <pre>
+ * magic     4 bytes  'I' 'P' 'C' version
+ * codec     1 byte   {@link Codec#getId()}
+ * length    8 bytes  uncompressed payload length, big endian
+ * payload   n bytes
+ * </pre>
+ * The gzip codec stores a complete gzip member, so the payload can be sent as is
+ * to clients that accept gzip encoded responses
+ */
+public final class PasteContainer {
+
+    public static final int HEADER_SIZE = 13;
+
+    private static final byte[] MAGIC = {'I', 'P', 'C', 1};
+    /**
+     * Size of an empty gzip stream, with just its header and trailer
+     */
+    private static final int MINIMUM_GZIP_SIZE = 18;
+
+    @Getter
+    @RequiredArgsConstructor
+    public enum Codec {
+        NONE(0), GZIP(1);
+
+        private final int id;
+
+        static Codec fromId(final int id) throws IOException {
+            for (final Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new IOException(String.format("Unknown paste container codec %d", id));
+        }
+    }
+
+    private PasteContainer() {
+    }
+
+    /**
+     * Write a new container. The payload is streamed through the codec, and the header is
+     * completed once the uncompressed length is known
+     *
+     * @param path Target file, which must not exist
+     * @param codec Payload codec
+     * @param payloadWriter Writes the uncompressed payload
+     * @throws IOException If the container cannot be written
+     */
+    public static void write(final Path path, final Codec codec, final PayloadWriter payloadWriter) throws IOException {
+        try (final Output output = new Output(path, codec)) {
+            payloadWriter.write(output);
+            output.commit();
+        }
+    }
+
+    /**
+     * Read the header of a container
+     *
+     * @param channel Channel to read from, positioned at the start of the container
+     * @return The codec, and the uncompressed payload length
+     * @throws IOException If the file is not a valid container
+     */
+    public static Header readHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("Truncated paste container header");
+            }
+        }
+        buffer.flip();
+        for (final byte magic : MAGIC) {
+            if (buffer.get() != magic) {
+                throw new IOException("Invalid paste container");
+            }
+        }
+        return new Header(Codec.fromId(buffer.get()), buffer.getLong());
+    }
+
+    /**
+     * Open a stream over the uncompressed payload of a container
+     *
+     * @param path Container file
+     * @return Payload stream
+     * @throws IOException If the file is not a valid container
+     */
+    public static InputStream openPayload(final Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final Header header = readHeader(channel);
+            final InputStream inputStream = Channels.newInputStream(channel);
+            if (header.getCodec() == Codec.GZIP) {
+                return new GZIPInputStream(inputStream, 8192);
+            }
+            return new BufferedInputStream(inputStream);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the entire uncompressed payload of a container, into an array of the exact size
+     *
+     * @param path Container file
+     * @return Uncompressed payload
+     * @throws IOException If the file is not a valid container
+     */
+    public static byte[] readPayload(final Path path) throws IOException {
+        final long length;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            length = readHeader(channel).getLength();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Paste container %s is too large", path.getFileName()));
+        }
+        final byte[] payload = new byte[(int) length];
+        try (final InputStream inputStream = openPayload(path)) {
+            int offset = 0;
+            while (offset < payload.length) {
+                final int read = inputStream.read(payload, offset, payload.length - offset);
+                if (read == -1) {
+                    throw new IOException(String.format("Truncated paste container %s", path.getFileName()));
+                }
+                offset += read;
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Read the gzip compressed payload of a container as stored, without decompressing it
+     *
+     * @param path Container file
+     * @return The gzip payload, or null if the container doesn't use the gzip codec
+     * @throws IOException If the file is not a valid container
+     */
+    public static byte[] readCompressedPayload(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+            if (header.getCodec() != Codec.GZIP) {
+                return null;
+            }
+            final long size = channel.size() - HEADER_SIZE;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Paste container %s is too large", path.getFileName()));
+            }
+            final byte[] payload = new byte[(int) size];
+            final ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new IOException(String.format("Truncated paste container %s", path.getFileName()));
+                }
+            }
+            // The gzip trailer ends with the uncompressed length, which a partially written stream doesn't have
+            if (payload.length < MINIMUM_GZIP_SIZE || (int) header.getLength() != ByteBuffer.wrap(payload,
+                payload.length - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt()) {
+                throw new IOException(String.format("Truncated paste container %s", path.getFileName()));
+            }
+            return payload;
+        }
+    }
+
+    @FunctionalInterface
+    public interface PayloadWriter {
+
+        void write(OutputStream outputStream) throws IOException;
+
+    }
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Header {
+
+        private final Codec codec;
+        private final long length;
+
+    }
+
+    /**
+     * Stream that writes the payload of a new container. The container only becomes
+     * valid once {@link #commit()} has been called; closing an uncommitted output
+     * deletes the partially written file
+     */
+    public static final class Output extends OutputStream {
+
+        private final Path path;
+        private final Codec codec;
+        private final FileChannel channel;
+        private final OutputStream channelStream;
+        private final OutputStream payloadStream;
+        private long count;
+        private boolean committed;
+        private boolean closed;
+
+        /**
+         * Create a new container file
+         *
+         * @param path Target file, which must not exist
+         * @param codec Payload codec
+         * @throws IOException If the file cannot be created
+         */
+        public Output(final Path path, final Codec codec) throws IOException {
+            this.path = path;
+            this.codec = codec;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                this.channel.write(ByteBuffer.allocate(HEADER_SIZE));
+                this.channelStream = Channels.newOutputStream(this.channel);
+                if (codec == Codec.GZIP) {
+                    this.payloadStream = new GZIPOutputStream(this.channelStream, 8192);
+                } else {
+                    this.payloadStream = new BufferedOutputStream(this.channelStream, 8192);
+                }
+            } catch (final IOException e) {
+                this.channel.close();
+                Files.deleteIfExists(path);
+                throw e;
+            }
+        }
+
+        @Override public void write(final int b) throws IOException {
+            this.payloadStream.write(b);
+            this.count++;
+        }
+
+        @Override public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.payloadStream.write(b, off, len);
+            this.count += len;
+        }
+
+        /**
+         * Finish the payload and complete the container header
+         *
+         * @throws IOException If the container cannot be completed
+         */
+        public void commit() throws IOException {
+            if (this.codec == Codec.GZIP) {
+                ((GZIPOutputStream) this.payloadStream).finish();
+            }
+            this.payloadStream.flush();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).put((byte) this.codec.getId())
+                .putLong(this.count);
+            header.flip();
+            while (header.hasRemaining()) {
+                this.channel.write(header, header.position());
+            }
+            this.committed = true;
+        }
+
+        /**
+         * Get the underlying file channel, for example to force it to disk
+         *
+         * @return File channel
+         */
+        public FileChannel getChannel() {
+            return this.channel;
+        }
+
+        @Override public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.channel.close();
+            if (!this.committed) {
+                Files.deleteIfExists(this.path);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact in-memory set of paste IDs. IDs of 32 lowercase hex digits, which is what
+ * the upload service generates, are packed into two longs and kept in an open
+ * addressing table, rather than as strings. Any other IDs are kept in a regular
+ * set. Lookups are lock free unless they race with an update
+ */
+public final class PasteIdIndex {
+
+    static final int PACKED_LENGTH = 32;
+    /**
+     * Number of slots the table starts with
+     */
+    static final int INITIAL_CAPACITY = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private final Set<String> otherIds = ConcurrentHashMap.newKeySet();
+    /**
+     * Pairs of longs, where (0, 0) marks an empty slot
+     */
+    private long[] table = new long[2 * INITIAL_CAPACITY];
+    private int packedSize;
+    private boolean containsZero;
+
+    private static boolean isPacked(final String id) {
+        if (id.length() != PACKED_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < PACKED_LENGTH; i++) {
+            final char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long parse(final String id, final int offset) {
+        long value = 0L;
+        for (int i = offset; i < offset + PACKED_LENGTH / 2; i++) {
+            value = (value << 4) | Character.digit(id.charAt(i), 16);
+        }
+        return value;
+    }
+
+    static int hash(final long high, final long low) {
+        long hash = high * 0x9E3779B97F4A7C15L ^ low;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    /**
+     * Find the slot of an ID, or the empty slot it would be inserted into
+     */
+    private static int findSlot(final long[] table, final long high, final long low) {
+        final int mask = table.length / 2 - 1;
+        int slot = hash(high, low) & mask;
+        // Bounded, so that a lookup racing with an update can't loop forever
+        for (int probes = 0; probes <= mask; probes++) {
+            final long slotHigh = table[slot * 2], slotLow = table[slot * 2 + 1];
+            if ((slotHigh == high && slotLow == low) || (slotHigh == 0L && slotLow == 0L)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean isEmpty(final long[] table, final int slot) {
+        return table[slot * 2] == 0L && table[slot * 2 + 1] == 0L;
+    }
+
+    private boolean containsPacked(final long high, final long low) {
+        if (high == 0L && low == 0L) {
+            return this.containsZero;
+        }
+        final long[] table = this.table;
+        final int slot = findSlot(table, high, low);
+        return slot != -1 && !isEmpty(table, slot);
+    }
+
+    /**
+     * Check whether an ID is in the index
+     *
+     * @param id Paste ID
+     * @return True if the ID is indexed
+     */
+    public boolean contains(final String id) {
+        if (!isPacked(id)) {
+            return this.otherIds.contains(id);
+        }
+        final long high = parse(id, 0), low = parse(id, PACKED_LENGTH / 2);
+        final long stamp = this.lock.tryOptimisticRead();
+        final boolean contains = this.containsPacked(high, low);
+        if (this.lock.validate(stamp)) {
+            return contains;
+        }
+        final long readStamp = this.lock.readLock();
+        try {
+            return this.containsPacked(high, low);
+        } finally {
+            this.lock.unlockRead(readStamp);
+        }
+    }
+
+    /**
+     * Add an ID to the index
+     *
+     * @param id Paste ID
+     */
+    public void add(final String id) {
+        if (!isPacked(id)) {
+            this.otherIds.add(id);
+            return;
+        }
+        final long high = parse(id, 0), low = parse(id, PACKED_LENGTH / 2);
+        final long stamp = this.lock.writeLock();
+        try {
+            if (high == 0L && low == 0L) {
+                this.containsZero = true;
+                return;
+            }
+            final int slot = findSlot(this.table, high, low);
+            if (!isEmpty(this.table, slot)) {
+                return;
+            }
+            this.table[slot * 2] = high;
+            this.table[slot * 2 + 1] = low;
+            // Keep the table at most half full, so probe sequences stay short
+            if (++this.packedSize * 4 > this.table.length) {
+                this.resize();
+            }
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    private void resize() {
+        final long[] oldTable = this.table;
+        final long[] newTable = new long[oldTable.length * 2];
+        for (int slot = 0; slot < oldTable.length / 2; slot++) {
+            if (!isEmpty(oldTable, slot)) {
+                final int newSlot = findSlot(newTable, oldTable[slot * 2], oldTable[slot * 2 + 1]);
+                newTable[newSlot * 2] = oldTable[slot * 2];
+                newTable[newSlot * 2 + 1] = oldTable[slot * 2 + 1];
+            }
+        }
+        this.table = newTable;
+    }
+
+    /**
+     * Remove an ID from the index
+     *
+     * @param id Paste ID
+     */
+    public void remove(final String id) {
+        if (!isPacked(id)) {
+            this.otherIds.remove(id);
+            return;
+        }
+        final long high = parse(id, 0), low = parse(id, PACKED_LENGTH / 2);
+        final long stamp = this.lock.writeLock();
+        try {
+            if (high == 0L && low == 0L) {
+                this.containsZero = false;
+                return;
+            }
+            final long[] table = this.table;
+            final int mask = table.length / 2 - 1;
+            int gap = findSlot(table, high, low);
+            if (isEmpty(table, gap)) {
+                return;
+            }
+            // Shift later entries of the probe sequence back, so that no tombstones are needed
+            int next = (gap + 1) & mask;
+            while (!isEmpty(table, next)) {
+                final int ideal = hash(table[next * 2], table[next * 2 + 1]) & mask;
+                if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                    table[gap * 2] = table[next * 2];
+                    table[gap * 2 + 1] = table[next * 2 + 1];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[gap * 2] = 0L;
+            table[gap * 2 + 1] = 0L;
+            this.packedSize--;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get the number of indexed IDs
+     *
+     * @return ID count
+     */
+    public long getSize() {
+        final long stamp = this.lock.readLock();
+        try {
+            return this.packedSize + (this.containsZero ? 1 : 0) + this.otherIds.size();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The parts of a stored paste that retention decisions are based on
+ */
+@Getter
+@RequiredArgsConstructor
+public final class PasteMetadata {
+
+    private final String id;
+    private final long timestamp;
+    private final String applicationId;
+    /**
+     * Time the paste was last viewed, or created if it hasn't been viewed since
+     */
+    private final long lastAccess;
+
+}
@@ -0,0 +1,110 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.PasteConfig;
+import org.incendo.paste.StoredPaste;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Commands that migrate stored pastes between storage layouts
+ */
+public final class PasteMigration {
+
+    /**
+     * Pastes are read into memory until they add up to this many bytes, and then written together
+     */
+    private static final long BATCH_BYTES = 32L * 1024L * 1024L;
+
+    private PasteMigration() {
+    }
+
+    /**
+     * Import all pastes from the {@code pastes} folder into the configured SQLite
+     * database. Pastes that already exist in the database are skipped, so the
+     * migration can safely be re-run if it is interrupted. This runs without a server,
+     * so progress is printed to the console rather than logged through Kvantum
+     *
+     * @param coreFolder Kvantum core folder
+     * @param config Paste configuration
+     * @throws IOException If either store cannot be opened
+     */
+    public static void migrate(final File coreFolder, final PasteConfig config) throws IOException {
+        final File sourceFolder = new File(coreFolder, "pastes");
+        final File databaseFile = new File(coreFolder, config.getSqliteFile());
+        System.out.printf("Migrating pastes from %s to %s%n", sourceFolder.getPath(), databaseFile.getPath());
+        int migrated = 0, skipped = 0, failed = 0;
+        try (final PasteStore source = new FlatFilePasteStore(sourceFolder, PasteStores.getCodec(config));
+             final PasteStore target = new SQLitePasteStore(databaseFile, config.getSqlitePoolSize())) {
+            final Collection<StoredPaste> batch = new ArrayList<>();
+            long batchBytes = 0L;
+            for (final String id : source.getIds()) {
+                if (target.exists(id)) {
+                    skipped++;
+                    continue;
+                }
+                try {
+                    final StoredPaste paste = source.read(id);
+                    if (paste != null) {
+                        batch.add(paste);
+                        batchBytes += paste.getEncodedSize();
+                    }
+                } catch (final IOException e) {
+                    System.err.printf("Failed to read paste %s: %s%n", id, e.getMessage());
+                    failed++;
+                }
+                if (batchBytes >= BATCH_BYTES) {
+                    target.writeAll(batch);
+                    migrated += batch.size();
+                    batch.clear();
+                    batchBytes = 0L;
+                    System.out.printf("Migrated %d pastes...%n", migrated);
+                }
+            }
+            target.writeAll(batch);
+            migrated += batch.size();
+        }
+        System.out.printf("Migration finished: %d migrated, %d already present, %d failed%n", migrated, skipped, failed);
+    }
+
+    /**
+     * Move the pastes in the top level of the {@code pastes} folder into their shard
+     * folders. The server should be stopped while this runs. Only pastes that are still
+     * in the top level folder are moved, so the command can safely be re-run
+     *
+     * @param coreFolder Kvantum core folder
+     * @param config Paste configuration
+     * @throws IOException If a paste cannot be moved
+     */
+    public static void shard(final File coreFolder, final PasteConfig config) throws IOException {
+        final File pasteFolder = new File(coreFolder, "pastes");
+        System.out.printf("Moving pastes in %s into shard folders%n", pasteFolder.getPath());
+        try (final FlatFilePasteStore pasteStore = new FlatFilePasteStore(pasteFolder, PasteStores.getCodec(config))) {
+            System.out.printf("Sharding finished: %d paste files moved%n", pasteStore.migrateToShards());
+        }
+    }
+
+}
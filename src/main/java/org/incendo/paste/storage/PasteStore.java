@@ -0,0 +1,174 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Storage backend for pastes. Implementations must be thread safe
+ */
+public interface PasteStore extends Closeable {
+
+    /**
+     * Check whether a paste with the given ID has been stored
+     *
+     * @param id Paste ID
+     * @return True if the paste exists
+     */
+    boolean exists(String id);
+
+    /**
+     * Read a stored paste
+     *
+     * @param id Paste ID
+     * @return The paste, or null if there is no paste with the given ID
+     * @throws IOException If the paste exists but cannot be read
+     */
+    StoredPaste read(String id) throws IOException;
+
+    /**
+     * Read a stored paste, taking the contents of deduplicated files from the
+     * given lookup when they are already in memory, instead of reading them again
+     *
+     * @param id Paste ID
+     * @param contentLookup Returns the file content with the given hash, or null if it isn't loaded
+     * @return The paste, or null if there is no paste with the given ID
+     * @throws IOException If the paste exists but cannot be read
+     */
+    default StoredPaste read(final String id, final Function<String, String> contentLookup) throws IOException {
+        return this.read(id);
+    }
+
+    /**
+     * Read the content of a single file of a stored paste. Stores that can, read only
+     * that file instead of the whole paste
+     *
+     * @param id Paste ID
+     * @param fileName File name
+     * @return File content, or null if there is no such paste, or no such file in it
+     * @throws IOException If the paste exists but cannot be read
+     */
+    default String readFile(final String id, final String fileName) throws IOException {
+        final StoredPaste paste = this.read(id);
+        if (paste == null) {
+            return null;
+        }
+        for (int i = 0; i < paste.getFileCount(); i++) {
+            if (paste.getFileNames()[i].equals(fileName)) {
+                return paste.getFileContents()[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the raw JSON representation of a stored paste
+     *
+     * @param id Paste ID
+     * @return UTF-8 encoded JSON, or null if there is no paste with the given ID
+     * @throws IOException If the paste exists but cannot be read
+     */
+    byte[] readRaw(String id) throws IOException;
+
+    /**
+     * Read the raw JSON representation of a stored paste as a gzip stream. Stores that
+     * keep it in that form return the stored bytes, so that they can be sent to clients
+     * that accept gzip without decompressing and recompressing them. Stores that
+     * assemble the JSON compress it while assembling it
+     *
+     * @param id Paste ID
+     * @return Gzip compressed JSON, or null if the store doesn't provide the paste as gzip
+     * @throws IOException If the paste exists but cannot be read
+     */
+    default byte[] readRawCompressed(final String id) throws IOException {
+        return null;
+    }
+
+    /**
+     * Read the metadata of a stored paste, without its file contents where the store allows it
+     *
+     * @param id Paste ID
+     * @return The metadata, or null if there is no paste with the given ID
+     * @throws IOException If the paste exists but cannot be read
+     */
+    default PasteMetadata readMetadata(final String id) throws IOException {
+        final StoredPaste paste = this.read(id);
+        if (paste == null) {
+            return null;
+        }
+        return new PasteMetadata(id, paste.getTimestamp(), paste.getApplicationId(), paste.getTimestamp());
+    }
+
+    /**
+     * Record that a paste has been viewed. Stores that don't track access times ignore this
+     *
+     * @param id Paste ID
+     * @param time Access time
+     * @throws IOException If the access time cannot be stored
+     */
+    default void recordAccess(final String id, final long time) throws IOException {
+    }
+
+    /**
+     * Store a new paste
+     *
+     * @param paste Paste to store
+     * @throws IOException If the paste cannot be stored
+     */
+    default void write(final StoredPaste paste) throws IOException {
+        this.writeAll(Collections.singletonList(paste));
+    }
+
+    /**
+     * Store several new pastes at once. The pastes are synced to disk together before
+     * this returns, so writing pastes in batches amortizes the cost of syncing
+     *
+     * @param pastes Pastes to store
+     * @throws IOException If the pastes cannot be stored
+     */
+    void writeAll(Collection<StoredPaste> pastes) throws IOException;
+
+    /**
+     * Delete a stored paste. Deduplicated file contents are only removed once
+     * the last paste referencing them has been deleted
+     *
+     * @param id Paste ID
+     * @return True if the paste was deleted, false if it didn't exist
+     * @throws IOException If the paste cannot be deleted
+     */
+    boolean delete(String id) throws IOException;
+
+    /**
+     * Get the IDs of all stored pastes
+     *
+     * @return Paste IDs
+     * @throws IOException If the IDs cannot be listed
+     */
+    Collection<String> getIds() throws IOException;
+
+}
@@ -0,0 +1,73 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.PasteConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Factory for the configured paste store
+ */
+public final class PasteStores {
+
+    private PasteStores() {
+    }
+
+    /**
+     * Create the paste store selected in the configuration
+     *
+     * @param config Paste configuration
+     * @param coreFolder Kvantum core folder
+     * @return Paste store
+     * @throws IOException If the store cannot be opened
+     */
+    public static PasteStore create(final PasteConfig config, final File coreFolder) throws IOException {
+        switch (config.getStorageType().toLowerCase(Locale.ENGLISH)) {
+            case "file":
+                return new FlatFilePasteStore(new File(coreFolder, "pastes"), getCodec(config));
+            case "sqlite":
+                return new SQLitePasteStore(new File(coreFolder, config.getSqliteFile()), config.getSqlitePoolSize());
+            default:
+                throw new IllegalArgumentException(String.format("Unknown paste storage type: %s",
+                    config.getStorageType()));
+        }
+    }
+
+    /**
+     * Get the container codec used for newly stored pastes
+     *
+     * @param config Paste configuration
+     * @return Configured codec
+     */
+    public static PasteContainer.Codec getCodec(final PasteConfig config) {
+        try {
+            return PasteContainer.Codec.valueOf(config.getStorageCompression().toUpperCase(Locale.ENGLISH));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown paste storage compression: %s",
+                config.getStorageCompression()), e);
+        }
+    }
+
+}
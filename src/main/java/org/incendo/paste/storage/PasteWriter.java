@@ -0,0 +1,54 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Writes a new paste to a {@link PasteStore} one file at a time, so file contents
+ * are streamed into storage instead of being copied first. A paste only becomes
+ * visible once it has been committed; closing an uncommitted writer discards
+ * everything written so far
+ */
+interface PasteWriter extends Closeable {
+
+    /**
+     * Write the next file of the paste
+     *
+     * @param fileName File name
+     * @param content File content, which is read until its end but not closed
+     * @throws IOException If the file cannot be written
+     */
+    void writeFile(String fileName, Reader content) throws IOException;
+
+    /**
+     * Complete the paste and make it visible
+     *
+     * @param timestamp Creation timestamp
+     * @param applicationId Application that created the paste
+     * @throws IOException If the paste cannot be stored
+     */
+    void commit(long timestamp, String applicationId) throws IOException;
+
+}
@@ -0,0 +1,104 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size pool of SQLite connections, all opened in WAL mode
+ */
+final class SQLiteConnectionPool implements Closeable {
+
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 30L;
+
+    private final BlockingQueue<Connection> connections;
+    private final Collection<Connection> allConnections = new ArrayList<>();
+
+    SQLiteConnectionPool(final String url, final int size) throws SQLException {
+        this.connections = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            final Connection connection = DriverManager.getConnection(url);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                // Commits are grouped by the upload queue, so syncing every commit is affordable
+                statement.execute("PRAGMA synchronous=FULL");
+                statement.execute("PRAGMA busy_timeout=10000");
+            }
+            this.allConnections.add(connection);
+            this.connections.add(connection);
+        }
+    }
+
+    /**
+     * Run a function with a pooled connection, returning the
+     * connection to the pool afterwards
+     *
+     * @param function Function to run
+     * @param <T> Return type
+     * @return Function result
+     * @throws SQLException If the function fails, or no connection becomes available in time
+     */
+    <T> T withConnection(final SQLFunction<T> function) throws SQLException {
+        final Connection connection;
+        try {
+            connection = this.connections.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (connection == null) {
+            throw new SQLException("Timed out waiting for a connection");
+        }
+        try {
+            return function.apply(connection);
+        } finally {
+            this.connections.add(connection);
+        }
+    }
+
+    @Override public void close() {
+        for (final Connection connection : this.allConnections) {
+            try {
+                connection.close();
+            } catch (final SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface SQLFunction<T> {
+
+        T apply(Connection connection) throws SQLException;
+
+    }
+
+}
@@ -0,0 +1,487 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.json.PasteFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Paste store backed by an embedded SQLite database. File contents are
+ * stored as deflate compressed blobs, keyed by their {@link ContentHash content
+ * hash} so that a file that is uploaded many times is only stored once. Blobs
+ * are reference counted, and deleted along with the last paste using them.
+ * Pastes stored by earlier versions keep their contents in {@code paste_files}
+ */
+public final class SQLitePasteStore implements PasteStore {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS pastes (id TEXT PRIMARY KEY NOT NULL, timestamp INTEGER NOT NULL, "
+            + "application_id TEXT NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS paste_files (paste_id TEXT NOT NULL, file_index INTEGER NOT NULL, "
+            + "file_name TEXT NOT NULL, content_length INTEGER NOT NULL, content BLOB NOT NULL, "
+            + "PRIMARY KEY (paste_id, file_index))",
+        "CREATE TABLE IF NOT EXISTS blobs (hash TEXT PRIMARY KEY NOT NULL, ref_count INTEGER NOT NULL, "
+            + "content_length INTEGER NOT NULL, content BLOB NOT NULL)",
+        "CREATE TABLE IF NOT EXISTS paste_file_refs (paste_id TEXT NOT NULL, file_index INTEGER NOT NULL, "
+            + "file_name TEXT NOT NULL, content_hash TEXT NOT NULL, PRIMARY KEY (paste_id, file_index))"
+    };
+    /**
+     * Columns added after the initial schema, along with their definitions
+     */
+    private static final String[][] ADDED_COLUMNS = {
+        {"pastes", "last_access", "INTEGER NOT NULL DEFAULT 0"}
+    };
+    private static final String INSERT_PASTE = "INSERT INTO pastes (id, timestamp, application_id) VALUES (?, ?, ?)";
+    private static final String INSERT_BLOB = "INSERT INTO blobs (hash, ref_count, content_length, content) "
+        + "VALUES (?, 1, ?, ?) ON CONFLICT (hash) DO UPDATE SET ref_count = ref_count + 1";
+    private static final String INSERT_FILE_REF = "INSERT INTO paste_file_refs (paste_id, file_index, file_name, "
+        + "content_hash) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_EXISTS = "SELECT 1 FROM pastes WHERE id = ?";
+    private static final String SELECT_PASTE = "SELECT timestamp, application_id FROM pastes WHERE id = ?";
+    private static final String SELECT_FILES = "SELECT file_name, content_length, content FROM paste_files "
+        + "WHERE paste_id = ? ORDER BY file_index";
+    private static final String SELECT_FILE_REFS = "SELECT file_name, content_hash FROM paste_file_refs "
+        + "WHERE paste_id = ? ORDER BY file_index";
+    private static final String SELECT_BLOB = "SELECT content_length, content FROM blobs WHERE hash = ?";
+    private static final String SELECT_METADATA = "SELECT timestamp, application_id, last_access FROM pastes "
+        + "WHERE id = ?";
+    private static final String UPDATE_ACCESS = "UPDATE pastes SET last_access = ? WHERE id = ?";
+    private static final String SELECT_IDS = "SELECT id FROM pastes";
+    private static final String DELETE_PASTE = "DELETE FROM pastes WHERE id = ?";
+    private static final String DELETE_FILES = "DELETE FROM paste_files WHERE paste_id = ?";
+    private static final String DELETE_FILE_REFS = "DELETE FROM paste_file_refs WHERE paste_id = ?";
+    private static final String RELEASE_BLOB = "UPDATE blobs SET ref_count = ref_count - 1 WHERE hash = ?";
+    private static final String DELETE_UNREFERENCED_BLOB = "DELETE FROM blobs WHERE hash = ? AND ref_count <= 0";
+
+    private final SQLiteConnectionPool pool;
+
+    /**
+     * Open, and if needed create, a SQLite paste store
+     *
+     * @param databaseFile Database file
+     * @param poolSize Number of pooled connections
+     * @throws IOException If the database cannot be opened
+     */
+    public SQLitePasteStore(final File databaseFile, final int poolSize) throws IOException {
+        try {
+            this.pool = new SQLiteConnectionPool(String.format("jdbc:sqlite:%s", databaseFile.getAbsolutePath()),
+                Math.max(1, poolSize));
+            this.pool.withConnection(connection -> {
+                try (final Statement statement = connection.createStatement()) {
+                    for (final String query : SCHEMA) {
+                        statement.execute(query);
+                    }
+                    for (final String[] column : ADDED_COLUMNS) {
+                        if (!hasColumn(statement, column[0], column[1])) {
+                            statement.execute(String.format("ALTER TABLE %s ADD COLUMN %s %s", column[0], column[1],
+                                column[2]));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (final SQLException e) {
+            throw new IOException(String.format("Failed to open paste database %s", databaseFile.getName()), e);
+        }
+    }
+
+    private static boolean hasColumn(final Statement statement, final String table, final String column)
+        throws SQLException {
+        try (final ResultSet resultSet = statement.executeQuery(String.format("PRAGMA table_info(%s)", table))) {
+            while (resultSet.next()) {
+                if (resultSet.getString("name").equalsIgnoreCase(column)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override public boolean exists(final String id) {
+        try {
+            return this.pool.withConnection(connection -> {
+                try (final PreparedStatement statement = connection.prepareStatement(SELECT_EXISTS)) {
+                    statement.setString(1, id);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next();
+                    }
+                }
+            });
+        } catch (final SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override public StoredPaste read(final String id) throws IOException {
+        return this.read(id, hash -> null);
+    }
+
+    @Override public StoredPaste read(final String id, final Function<String, String> contentLookup)
+        throws IOException {
+        try {
+            return this.pool.withConnection(connection -> {
+                final long timestamp;
+                final String applicationId;
+                try (final PreparedStatement statement = connection.prepareStatement(SELECT_PASTE)) {
+                    statement.setString(1, id);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        if (!resultSet.next()) {
+                            return null;
+                        }
+                        timestamp = resultSet.getLong(1);
+                        applicationId = resultSet.getString(2);
+                    }
+                }
+                final List<String> fileNames = new ArrayList<>();
+                final List<String> fileHashes = new ArrayList<>();
+                final List<String> fileContents = new ArrayList<>();
+                try (final PreparedStatement statement = connection.prepareStatement(SELECT_FILE_REFS)) {
+                    statement.setString(1, id);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            fileNames.add(resultSet.getString(1));
+                            fileHashes.add(resultSet.getString(2));
+                        }
+                    }
+                }
+                if (!fileHashes.isEmpty()) {
+                    try (final PreparedStatement statement = connection.prepareStatement(SELECT_BLOB)) {
+                        for (final String hash : fileHashes) {
+                            final String content = contentLookup.apply(hash);
+                            fileContents.add(content == null ? readBlob(statement, hash) : content);
+                        }
+                    }
+                    return new StoredPaste(id, timestamp, applicationId, fileNames.toArray(new String[0]),
+                        fileContents.toArray(new String[0]), fileHashes.toArray(new String[0]));
+                }
+                try (final PreparedStatement statement = connection.prepareStatement(SELECT_FILES)) {
+                    statement.setString(1, id);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            fileNames.add(resultSet.getString(1));
+                            fileContents.add(inflate(resultSet.getBytes(3), resultSet.getInt(2)));
+                        }
+                    }
+                }
+                return new StoredPaste(id, timestamp, applicationId, fileNames.toArray(new String[0]),
+                    fileContents.toArray(new String[0]));
+            });
+        } catch (final SQLException e) {
+            throw new IOException(String.format("Failed to read paste %s", id), e);
+        }
+    }
+
+    private static String readBlob(final PreparedStatement statement, final String hash) throws SQLException {
+        statement.setString(1, hash);
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                throw new SQLException(String.format("Missing blob %s", hash));
+            }
+            return inflate(resultSet.getBytes(2), resultSet.getInt(1));
+        }
+    }
+
+    @Override public PasteMetadata readMetadata(final String id) throws IOException {
+        try {
+            return this.pool.withConnection(connection -> {
+                try (final PreparedStatement statement = connection.prepareStatement(SELECT_METADATA)) {
+                    statement.setString(1, id);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        if (!resultSet.next()) {
+                            return null;
+                        }
+                        final long timestamp = resultSet.getLong(1);
+                        return new PasteMetadata(id, timestamp, resultSet.getString(2),
+                            Math.max(timestamp, resultSet.getLong(3)));
+                    }
+                }
+            });
+        } catch (final SQLException e) {
+            throw new IOException(String.format("Failed to read paste %s", id), e);
+        }
+    }
+
+    @Override public void recordAccess(final String id, final long time) throws IOException {
+        try {
+            this.pool.withConnection(connection -> {
+                try (final PreparedStatement statement = connection.prepareStatement(UPDATE_ACCESS)) {
+                    statement.setLong(1, time);
+                    statement.setString(2, id);
+                    statement.executeUpdate();
+                }
+                return null;
+            });
+        } catch (final SQLException e) {
+            throw new IOException(String.format("Failed to record access to paste %s", id), e);
+        }
+    }
+
+    @Override public byte[] readRaw(final String id) throws IOException {
+        final StoredPaste paste = this.read(id);
+        if (paste == null) {
+            return null;
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PasteFormat.write(paste, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Files are stored deflate compressed one by one, so the JSON is assembled and
+     * compressed as it is written, rather than compressed again once assembled
+     */
+    @Override public byte[] readRawCompressed(final String id) throws IOException {
+        final StoredPaste paste = this.read(id);
+        if (paste == null) {
+            return null;
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192)) {
+            PasteFormat.write(paste, gzipOutputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+        // Compress outside of the transaction, so the write lock is held as briefly as possible
+        final Collection<CompressedPaste> compressed = new ArrayList<>(pastes.size());
+        for (final StoredPaste paste : pastes) {
+            final CompressedPaste compressedPaste = new CompressedPaste(paste.getId());
+            for (int i = 0; i < paste.getFileCount(); i++) {
+                compressedPaste.addFile(paste.getFileNames()[i], new StringReader(paste.getFileContents()[i]));
+            }
+            compressedPaste.timestamp = paste.getTimestamp();
+            compressedPaste.applicationId = paste.getApplicationId();
+            compressed.add(compressedPaste);
+        }
+        this.insert(compressed);
+    }
+
+    private void insert(final Collection<CompressedPaste> pastes) throws IOException {
+        if (pastes.isEmpty()) {
+            return;
+        }
+        try {
+            this.pool.withConnection(connection -> {
+                connection.setAutoCommit(false);
+                try (final PreparedStatement pasteStatement = connection.prepareStatement(INSERT_PASTE);
+                     final PreparedStatement blobStatement = connection.prepareStatement(INSERT_BLOB);
+                     final PreparedStatement fileStatement = connection.prepareStatement(INSERT_FILE_REF)) {
+                    for (final CompressedPaste paste : pastes) {
+                        pasteStatement.setString(1, paste.id);
+                        pasteStatement.setLong(2, paste.timestamp);
+                        pasteStatement.setString(3, paste.applicationId);
+                        pasteStatement.addBatch();
+                        for (int i = 0; i < paste.fileNames.size(); i++) {
+                            // Content that is already stored only gains a reference
+                            blobStatement.setString(1, paste.hashes.get(i));
+                            blobStatement.setInt(2, paste.contentLengths.get(i));
+                            blobStatement.setBytes(3, paste.contents.get(i));
+                            blobStatement.addBatch();
+                            fileStatement.setString(1, paste.id);
+                            fileStatement.setInt(2, i);
+                            fileStatement.setString(3, paste.fileNames.get(i));
+                            fileStatement.setString(4, paste.hashes.get(i));
+                            fileStatement.addBatch();
+                        }
+                    }
+                    pasteStatement.executeBatch();
+                    blobStatement.executeBatch();
+                    fileStatement.executeBatch();
+                    connection.commit();
+                } catch (final SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                return null;
+            });
+        } catch (final SQLException e) {
+            throw new IOException("Failed to store pastes", e);
+        }
+    }
+
+    @Override public boolean delete(final String id) throws IOException {
+        try {
+            return this.pool.withConnection(connection -> {
+                connection.setAutoCommit(false);
+                try (final PreparedStatement pasteStatement = connection.prepareStatement(DELETE_PASTE);
+                     final PreparedStatement fileStatement = connection.prepareStatement(DELETE_FILES);
+                     final PreparedStatement selectRefsStatement = connection.prepareStatement(SELECT_FILE_REFS);
+                     final PreparedStatement deleteRefsStatement = connection.prepareStatement(DELETE_FILE_REFS);
+                     final PreparedStatement releaseStatement = connection.prepareStatement(RELEASE_BLOB);
+                     final PreparedStatement unreferencedStatement =
+                         connection.prepareStatement(DELETE_UNREFERENCED_BLOB)) {
+                    pasteStatement.setString(1, id);
+                    fileStatement.setString(1, id);
+                    final boolean deleted = pasteStatement.executeUpdate() > 0;
+                    fileStatement.executeUpdate();
+                    final List<String> hashes = new ArrayList<>();
+                    selectRefsStatement.setString(1, id);
+                    try (final ResultSet resultSet = selectRefsStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            hashes.add(resultSet.getString(2));
+                        }
+                    }
+                    deleteRefsStatement.setString(1, id);
+                    deleteRefsStatement.executeUpdate();
+                    for (final String hash : hashes) {
+                        releaseStatement.setString(1, hash);
+                        releaseStatement.executeUpdate();
+                        unreferencedStatement.setString(1, hash);
+                        unreferencedStatement.executeUpdate();
+                    }
+                    connection.commit();
+                    return deleted;
+                } catch (final SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            });
+        } catch (final SQLException e) {
+            throw new IOException(String.format("Failed to delete paste %s", id), e);
+        }
+    }
+
+    @Override public Collection<String> getIds() throws IOException {
+        try {
+            return this.pool.withConnection(connection -> {
+                final Collection<String> ids = new ArrayList<>();
+                try (final Statement statement = connection.createStatement();
+                     final ResultSet resultSet = statement.executeQuery(SELECT_IDS)) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getString(1));
+                    }
+                }
+                return ids;
+            });
+        } catch (final SQLException e) {
+            throw new IOException("Failed to list paste IDs", e);
+        }
+    }
+
+    @Override public void close() {
+        this.pool.close();
+    }
+
+    private static String inflate(final byte[] input, final int length) throws SQLException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            final byte[] output = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                final int inflated = inflater.inflate(output, offset, length - offset);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += inflated;
+            }
+            if (offset != length) {
+                throw new SQLException("Stored file content is truncated");
+            }
+            return new String(output, StandardCharsets.UTF_8);
+        } catch (final DataFormatException e) {
+            throw new SQLException("Stored file content is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Paste whose files have been compressed, and are ready to be inserted
+     */
+    private static final class CompressedPaste {
+
+        private final String id;
+        private final List<String> fileNames = new ArrayList<>();
+        private final List<String> hashes = new ArrayList<>();
+        private final List<Integer> contentLengths = new ArrayList<>();
+        private final List<byte[]> contents = new ArrayList<>();
+        private long timestamp;
+        private String applicationId;
+
+        private CompressedPaste(final String id) {
+            this.id = id;
+        }
+
+        /**
+         * Compress and hash a file while it is being read, so that only the
+         * compressed form is ever kept in memory
+         */
+        private void addFile(final String fileName, final Reader content) throws IOException {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            final MessageDigest digest = ContentHash.newDigest();
+            final long length;
+            try {
+                try (final Writer writer = new OutputStreamWriter(new DigestOutputStream(
+                    new DeflaterOutputStream(outputStream, deflater, 8192), digest), StandardCharsets.UTF_8)) {
+                    content.transferTo(writer);
+                }
+                length = deflater.getBytesRead();
+            } finally {
+                deflater.end();
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(String.format("File %s is too large to be stored", fileName));
+            }
+            this.fileNames.add(fileName);
+            this.hashes.add(ContentHash.toHash(digest));
+            this.contentLengths.add((int) length);
+            this.contents.add(outputStream.toByteArray());
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.template;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Template that has been split into literal UTF-8 segments and placeholders. Rendering
+ * writes the segments and values to an {@link OutputBuffer} in a single pass, without
+ * building any intermediate strings. Placeholders are written as {@code {name}}; braces
+ * around names that weren't declared when compiling are kept as literal text
+ */
+public final class CompiledTemplate {
+
+    private final byte[][] literals;
+    private final int[] placeholders;
+
+    private CompiledTemplate(final byte[][] literals, final int[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Compile a template
+     *
+     * @param source Template source
+     * @param names Placeholder names, in the order their values are passed to {@link #render(OutputBuffer, Object...)}
+     * @return Compiled template
+     */
+    public static CompiledTemplate compile(final String source, final String... names) {
+        final List<byte[]> literals = new ArrayList<>();
+        final List<Integer> placeholders = new ArrayList<>();
+        final List<String> nameList = Arrays.asList(names);
+        int literalStart = 0;
+        int index = source.indexOf('{');
+        while (index != -1) {
+            final int end = source.indexOf('}', index + 1);
+            if (end == -1) {
+                break;
+            }
+            final int placeholder = nameList.indexOf(source.substring(index + 1, end));
+            if (placeholder == -1) {
+                index = source.indexOf('{', index + 1);
+                continue;
+            }
+            literals.add(source.substring(literalStart, index).getBytes(StandardCharsets.UTF_8));
+            placeholders.add(placeholder);
+            literalStart = end + 1;
+            index = source.indexOf('{', literalStart);
+        }
+        literals.add(source.substring(literalStart).getBytes(StandardCharsets.UTF_8));
+        final int[] placeholderArray = new int[placeholders.size()];
+        for (int i = 0; i < placeholderArray.length; i++) {
+            placeholderArray[i] = placeholders.get(i);
+        }
+        return new CompiledTemplate(literals.toArray(new byte[0][]), placeholderArray);
+    }
+
+    /**
+     * Render the template. Values are written as is, so they must already be
+     * HTML escaped. Iterable values are written one element per line
+     *
+     * @param output Output buffer
+     * @param values Placeholder values, in the order the names were given when compiling
+     */
+    public void render(final OutputBuffer output, final Object... values) {
+        for (int i = 0; i < this.placeholders.length; i++) {
+            output.write(this.literals[i]);
+            final Object value = values[this.placeholders[i]];
+            if (value instanceof Iterable) {
+                boolean first = true;
+                for (final Object element : (Iterable<?>) value) {
+                    if (!first) {
+                        output.append("\n");
+                    }
+                    output.append(String.valueOf(element));
+                    first = false;
+                }
+            } else if (value != null) {
+                output.append(value instanceof CharSequence ? (CharSequence) value : value.toString());
+            }
+        }
+        output.write(this.literals[this.literals.length - 1]);
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.template;
+
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer. Buffers are pooled per thread, so rendering a page
+ * reuses the same backing array instead of growing a new one from scratch
+ */
+public final class OutputBuffer {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    /**
+     * Larger buffers are dropped when released, so a single huge page
+     * doesn't stay allocated for the lifetime of the thread
+     */
+    private static final int MAX_RETAINED_CAPACITY = 8 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+    private static final ThreadLocal<OutputBuffer> POOL = ThreadLocal.withInitial(OutputBuffer::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    private OutputBuffer() {
+    }
+
+    /**
+     * Get the buffer of the current thread. It must be released before
+     * it is acquired again on the same thread
+     *
+     * @return Empty buffer
+     */
+    public static OutputBuffer acquire() {
+        final OutputBuffer outputBuffer = POOL.get();
+        outputBuffer.size = 0;
+        return outputBuffer;
+    }
+
+    /**
+     * Return the buffer to the pool
+     */
+    public void release() {
+        if (this.buffer.length > MAX_RETAINED_CAPACITY) {
+            this.buffer = new byte[INITIAL_CAPACITY];
+        }
+        this.size = 0;
+    }
+
+    public void write(final byte[] bytes) {
+        this.ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+        this.size += bytes.length;
+    }
+
+    /**
+     * Append the UTF-8 encoding of a character sequence. Unpaired surrogates
+     * are replaced with a question mark, like {@link String#getBytes} does
+     *
+     * @param chars Characters to append
+     */
+    public void append(final CharSequence chars) {
+        final int length = chars.length();
+        int i = 0;
+        while (i < length) {
+            // Grow for one chunk at a time, every char takes at most three bytes
+            final int chunkEnd = Math.min(length, i + CHUNK_SIZE);
+            this.ensureCapacity((chunkEnd - i) * 3 + 1);
+            final byte[] buffer = this.buffer;
+            int position = this.size;
+            for (; i < chunkEnd; i++) {
+                final char c = chars.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    // Surrogate pairs may extend the chunk by a single char, hence the extra byte
+                    final int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            this.size = position;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Copy the buffer contents into an array of the exact size
+     *
+     * @return Buffer contents
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    private void ensureCapacity(final int additional) {
+        final long required = (long) this.size + additional;
+        if (required > this.buffer.length) {
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("Output buffer exceeds the maximum array size");
+            }
+            this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.max(required, this.buffer.length * 2L)));
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.template;
+
+import xyz.kvantum.server.api.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compiled template backed by a file. The file is compiled once, and compiled
+ * again when its modification time changes. The modification time is checked
+ * at most once per second, so lookups don't hit the file system every request
+ */
+public final class TemplateFile {
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000L;
+
+    private final Path path;
+    private final String[] placeholders;
+    private final Runnable reloadListener;
+    private volatile CompiledTemplate template;
+    private volatile long lastModified;
+    private volatile long nextCheck;
+
+    /**
+     * Load and compile a template file
+     *
+     * @param path Template file
+     * @param reloadListener Called after the template has been reloaded
+     * @param placeholders Placeholder names, see {@link CompiledTemplate#compile(String, String...)}
+     * @throws IOException If the template cannot be read
+     */
+    public TemplateFile(final Path path, final Runnable reloadListener, final String... placeholders)
+        throws IOException {
+        this.path = path;
+        this.placeholders = placeholders;
+        this.reloadListener = reloadListener;
+        this.load();
+    }
+
+    /**
+     * Get the compiled template, reloading it if the file has changed
+     *
+     * @return Compiled template
+     */
+    public CompiledTemplate get() {
+        final long now = System.currentTimeMillis();
+        if (now >= this.nextCheck) {
+            synchronized (this) {
+                if (now >= this.nextCheck) {
+                    this.nextCheck = now + CHECK_INTERVAL_MILLIS;
+                    try {
+                        if (Files.getLastModifiedTime(this.path).toMillis() != this.lastModified) {
+                            this.load();
+                            Logger.info("Reloaded template {}", this.path.getFileName());
+                            this.reloadListener.run();
+                        }
+                    } catch (final IOException e) {
+                        e.printStackTrace();
+                        Logger.error("Failed to reload template {}, keeping the previous version",
+                            this.path.getFileName());
+                    }
+                }
+            }
+        }
+        return this.template;
+    }
+
+    private void load() throws IOException {
+        final long lastModified = Files.getLastModifiedTime(this.path).toMillis();
+        final String source = new String(Files.readAllBytes(this.path), StandardCharsets.UTF_8);
+        this.template = CompiledTemplate.compile(source, this.placeholders);
+        this.lastModified = lastModified;
+        this.nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+    }
+
+}
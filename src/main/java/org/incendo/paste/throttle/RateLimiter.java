@@ -0,0 +1,142 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.throttle;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keyed token bucket rate limiter. Each bucket is a single atomic timestamp (the
+ * generic cell rate algorithm), so acquiring a token is one compare-and-set and
+ * never blocks. Idle buckets are dropped once they would have refilled completely,
+ * at which point a new bucket behaves identically, and the number of tracked keys
+ * is capped
+ */
+public final class RateLimiter {
+
+    private final Function<String, RateLimit> limits;
+    private final Cache<String, Bucket> buckets;
+    private final LongAdder rejections = new LongAdder();
+    private final LongSupplier clock;
+
+    /**
+     * Construct a new rate limiter
+     *
+     * @param limits Function mapping a limit group (for example an application ID) to its limit
+     * @param maximumKeys Maximum number of tracked keys
+     * @param maximumIdleMillis Time after which idle buckets are dropped. This should be at least
+     *                          as long as it takes the slowest bucket to refill completely
+     */
+    public RateLimiter(final Function<String, RateLimit> limits, final long maximumKeys,
+        final long maximumIdleMillis) {
+        this(limits, maximumKeys, maximumIdleMillis, System::currentTimeMillis);
+    }
+
+    RateLimiter(final Function<String, RateLimit> limits, final long maximumKeys, final long maximumIdleMillis,
+        final LongSupplier clock) {
+        this.limits = limits;
+        this.clock = clock;
+        this.buckets = Caffeine.newBuilder().maximumSize(maximumKeys)
+            .expireAfterAccess(maximumIdleMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Try to take a token from a bucket
+     *
+     * @param group Limit group, which selects the limit that applies
+     * @param key Bucket key within the group, for example a client address
+     * @return 0 if a token was taken, otherwise the number of milliseconds
+     *         until the next token becomes available
+     */
+    public long tryAcquire(final String group, final String key) {
+        final RateLimit limit = this.limits.apply(group);
+        final Bucket bucket = this.buckets.get(group + '/' + key, ignored -> new Bucket());
+        final long waitMillis = bucket.tryAcquire(limit, this.clock.getAsLong());
+        if (waitMillis > 0L) {
+            this.rejections.increment();
+        }
+        return waitMillis;
+    }
+
+    /**
+     * Return a token taken by {@link #tryAcquire(String, String)}, for requests that
+     * passed the rate limit but could not be served
+     *
+     * @param group Limit group
+     * @param key Bucket key within the group
+     */
+    public void release(final String group, final String key) {
+        final Bucket bucket = this.buckets.getIfPresent(group + '/' + key);
+        if (bucket != null) {
+            bucket.arrival.addAndGet(-this.limits.apply(group).getIntervalMillis());
+        }
+    }
+
+    /**
+     * Get the number of requests that have been rejected
+     *
+     * @return Rejected requests
+     */
+    public long getRejections() {
+        return this.rejections.sum();
+    }
+
+    /**
+     * Get the number of buckets that are currently tracked
+     *
+     * @return Tracked buckets
+     */
+    public long getTrackedKeys() {
+        return this.buckets.estimatedSize();
+    }
+
+    private static final class Bucket {
+
+        /**
+         * Theoretical arrival time: the moment at which the bucket will be full again
+         */
+        private final AtomicLong arrival = new AtomicLong();
+
+        private long tryAcquire(final RateLimit limit, final long now) {
+            final long interval = limit.getIntervalMillis();
+            final long burst = interval * limit.getCapacity();
+            while (true) {
+                final long arrival = this.arrival.get();
+                final long next = Math.max(arrival, now) + interval;
+                if (next - now > burst) {
+                    return next - now - burst;
+                }
+                if (this.arrival.compareAndSet(arrival, next)) {
+                    return 0L;
+                }
+            }
+        }
+
+    }
+
+}
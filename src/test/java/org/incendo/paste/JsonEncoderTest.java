@@ -0,0 +1,124 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.incendo.paste.json.JsonReader;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonEncoderTest {
+
+    private static String encode(final String value) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final IncendoPaster.JsonEncoder encoder = new IncendoPaster.JsonEncoder(output);
+        encoder.beginString();
+        encoder.writeChars(value);
+        encoder.endString();
+        encoder.flush();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String encode(final Reader reader) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final IncendoPaster.JsonEncoder encoder = new IncendoPaster.JsonEncoder(output);
+        encoder.beginString();
+        encoder.writeChars(reader);
+        encoder.endString();
+        encoder.flush();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String decode(final String json) throws IOException {
+        try (final JsonReader reader = new JsonReader(new StringReader(json))) {
+            return reader.nextString();
+        }
+    }
+
+    /**
+     * Reader that returns a single char per read, so that every surrogate pair is split between reads
+     */
+    private static Reader slowReader(final String value) {
+        final Reader reader = new StringReader(value);
+        return new Reader() {
+            @Override public int read(final char[] buffer, final int offset, final int length) throws IOException {
+                return reader.read(buffer, offset, Math.min(1, length));
+            }
+
+            @Override public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void escapesQuotesAndControlCharacters() throws Exception {
+        assertEquals("\"\\\"\\\\\\n\\r\\t\\b\\f\\u0000\\u001f\"", encode("\"\\\n\r\t\b\f\u0000\u001f"));
+    }
+
+    @Test
+    public void encodesTextAsUtf8() throws Exception {
+        assertEquals("\"</script> Café ☃ 😀\"", encode("</script> Café ☃ 😀"));
+    }
+
+    @Test
+    public void escapesUnpairedSurrogates() throws Exception {
+        assertEquals("\"\\ud800 \\udc00\"", encode("\ud800 \udc00"));
+        assertEquals("\"\\udc00\\ud800\"", encode("\udc00\ud800"));
+        assertEquals("\"a\\ud800\"", encode("a\ud800"));
+        assertEquals("\"\\ud800😀\"", encode("\ud800😀"));
+    }
+
+    @Test
+    public void keepsSurrogatePairsSplitBetweenReads() throws Exception {
+        final String value = "😀 𐈀 \ud800\n😀";
+        assertEquals(encode(value), encode(slowReader(value)));
+    }
+
+    @Test
+    public void keepsSurrogatePairsSplitBetweenChunks() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4095; i++) {
+            builder.append('a');
+        }
+        // The high surrogate is the last char of the first chunk that is encoded
+        final String value = builder.append("😀\"").toString();
+        assertEquals("\"" + builder.toString().replace("\"", "\\\"") + "\"", encode(value));
+    }
+
+    @Test
+    public void roundTripsThroughTheReader() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("[12:00:00] \"quoted\" \\ Café ☃ 😀 </script>\t\u0001 \ud800\n");
+        }
+        final String value = builder.toString();
+        assertEquals(value, decode(encode(value)));
+        assertEquals(value, decode(encode(new StringReader(value))));
+    }
+
+}
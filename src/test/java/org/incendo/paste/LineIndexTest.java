@@ -0,0 +1,65 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineIndexTest {
+
+    private static void assertLines(final String content, final String... lines) {
+        final LineIndex lineIndex = LineIndex.of(content);
+        assertEquals(lines.length, lineIndex.getLineCount());
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], content.substring(lineIndex.getStart(i), lineIndex.getStart(i + 1)));
+        }
+        assertEquals(content.length(), lineIndex.getStart(lines.length));
+    }
+
+    @Test
+    public void emptyFilesHaveNoLines() {
+        assertLines("");
+    }
+
+    @Test
+    public void indexesLinesWithTheirTerminators() {
+        assertLines("first\nsecond\nthird", "first\n", "second\n", "third");
+        assertLines("single", "single");
+    }
+
+    @Test
+    public void trailingLineBreaksDontStartALine() {
+        assertLines("first\nsecond\n", "first\n", "second\n");
+        assertLines("\n", "\n");
+        assertLines("first\n\n", "first\n", "\n");
+    }
+
+    @Test
+    public void indexesWindowsLineBreaks() {
+        assertLines("first\r\nsecond\r\n", "first\r\n", "second\r\n");
+        assertLines("first\r\n\r\nthird", "first\r\n", "\r\n", "third");
+        // Lone carriage returns don't end lines
+        assertLines("first\rsecond\n", "first\rsecond\n");
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StaticAssetsTest {
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path script;
+    private StaticAssets assets;
+
+    @Before
+    public void setup() throws IOException {
+        final Path folder = this.temporaryFolder.getRoot().toPath();
+        Files.createDirectories(folder.resolve("js"));
+        this.script = folder.resolve("js").resolve("view.js");
+        Files.write(this.script, "first".getBytes(StandardCharsets.UTF_8));
+        this.assets = new StaticAssets(folder);
+    }
+
+    @Test
+    public void servesTheSameAssetUntilItChanges() throws Exception {
+        final RenderedPaste first = this.assets.get("js", "view.js");
+        assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), first.getContent());
+        assertSame(first, this.assets.get("js", "view.js"));
+        // Unchanged files are kept after their modification time has been checked
+        Thread.sleep(1100L);
+        assertSame(first, this.assets.get("js", "view.js"));
+
+        Files.write(this.script, "second".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(this.script, FileTime.fromMillis(Files.getLastModifiedTime(this.script)
+            .toMillis() + 10_000L));
+        Thread.sleep(1100L);
+        assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), this.assets.get("js", "view.js").getContent());
+    }
+
+    @Test
+    public void missingAndInvalidAssetsAreNotServed() throws Exception {
+        assertNull(this.assets.get("js", "missing.js"));
+        assertNull(this.assets.get("js", "../js/view.js"));
+        assertNull(this.assets.get("js", ".hidden.js"));
+        // Deleted files are no longer served
+        this.assets.get("js", "view.js");
+        Files.delete(this.script);
+        Thread.sleep(1100L);
+        assertNull(this.assets.get("js", "view.js"));
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StoredPasteTest {
+
+    private static void assertEncodedLength(final String string) {
+        assertEquals(string.getBytes(StandardCharsets.UTF_8).length, StoredPaste.getEncodedLength(string));
+    }
+
+    @Test
+    public void countsUtf8Bytes() {
+        assertEncodedLength("");
+        assertEncodedLength("plain ascii\n");
+        assertEncodedLength("Café ü ß");
+        assertEncodedLength("☃ €");
+        assertEncodedLength("😀 emoji");
+        // Unpaired surrogates are encoded as a single replacement byte
+        assertEncodedLength("\uD83D alone");
+        assertEncodedLength("alone \uDE00");
+        assertEncodedLength("\uDE00\uD83D");
+    }
+
+    @Test
+    public void matchesTheEncoderForRandomStrings() {
+        final Random random = new Random(11L);
+        for (int i = 0; i < 100; i++) {
+            final StringBuilder string = new StringBuilder();
+            for (int j = 0; j < 200; j++) {
+                string.append((char) random.nextInt(Character.MAX_VALUE + 1));
+            }
+            assertEncodedLength(string.toString());
+        }
+    }
+
+    @Test
+    public void sumsTheEncodedSizeOfAllFiles() {
+        final StoredPaste paste = new StoredPaste("id", 0L, "test", new String[] {"a.log", "b.log"},
+            new String[] {"Café", "😀"});
+        assertEquals(9L, paste.getEncodedSize());
+    }
+
+}
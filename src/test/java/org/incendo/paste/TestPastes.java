@@ -0,0 +1,59 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste;
+
+/**
+ * Fixtures shared by the tests
+ */
+public final class TestPastes {
+
+    private TestPastes() {
+    }
+
+    /**
+     * Create a paste with a file named {@code file-<index>.txt} for every given content
+     *
+     * @param id Paste ID
+     * @param contents File contents
+     * @return Paste
+     */
+    public static StoredPaste paste(final String id, final String... contents) {
+        return paste(id, 1000L, contents);
+    }
+
+    /**
+     * Create a paste with a file named {@code file-<index>.txt} for every given content
+     *
+     * @param id Paste ID
+     * @param timestamp Creation time
+     * @param contents File contents
+     * @return Paste
+     */
+    public static StoredPaste paste(final String id, final long timestamp, final String... contents) {
+        final String[] fileNames = new String[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            fileNames[i] = String.format("file-%d.txt", i);
+        }
+        return new StoredPaste(id, timestamp, "test", fileNames, contents);
+    }
+
+}
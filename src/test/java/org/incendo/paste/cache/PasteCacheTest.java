@@ -0,0 +1,138 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.cache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasteCacheTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final PasteCache<String> cache = new PasteCache<>("test", 1024L * 1024L, 10L, String::length);
+
+    @After
+    public void teardown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void coalescesConcurrentLoads() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                final CompletableFuture<String> future = this.cache.getAsync("key", key -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "value";
+                }, this.executor);
+                synchronized (futures) {
+                    futures.add(future);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // Every request is waiting for the same, blocked load
+        release.countDown();
+        assertEquals(16, futures.size());
+        for (final CompletableFuture<String> future : futures) {
+            assertEquals("value", future.get(10L, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+
+        assertEquals("value", this.cache.getAsync("key", key -> {
+            loads.incrementAndGet();
+            return "reloaded";
+        }, this.executor).get(10L, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void nullResultsAreNotCached() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        for (int i = 1; i <= 2; i++) {
+            assertNull(this.cache.getAsync("missing", key -> {
+                loads.incrementAndGet();
+                return null;
+            }, this.executor).get(10L, TimeUnit.SECONDS));
+            assertNull(this.cache.peek("missing"));
+            assertEquals(i, loads.get());
+        }
+    }
+
+    @Test
+    public void failedLoadsAreRetried() throws Exception {
+        try {
+            this.cache.getAsync("key", key -> {
+                throw new IllegalStateException("Failed to load");
+            }, this.executor).get(10L, TimeUnit.SECONDS);
+            fail("The failed load completed");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("value", this.cache.getAsync("key", key -> "value", this.executor).get(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void coldLoadsCountAsASingleMiss() throws Exception {
+        this.cache.getAsync("key", key -> "value", this.executor).get(10L, TimeUnit.SECONDS);
+        assertEquals(1L, this.cache.getStats().missCount());
+        assertEquals(0L, this.cache.getStats().hitCount());
+        this.cache.getAsync("key", key -> "value", this.executor).get(10L, TimeUnit.SECONDS);
+        assertEquals(1L, this.cache.getStats().missCount());
+        assertEquals(1L, this.cache.getStats().hitCount());
+    }
+
+}
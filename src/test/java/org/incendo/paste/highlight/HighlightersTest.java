@@ -0,0 +1,135 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.highlight;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class HighlightersTest {
+
+    private static final Pattern SPAN = Pattern.compile("<span class=\"hljs-[a-z-]+\">|</span>");
+    private static final Pattern ENTITY = Pattern.compile("&(amp|lt|gt|quot);");
+
+    private static String highlight(final String language, final String content) {
+        final Highlighter highlighter = Highlighters.getHighlighter(language);
+        assertNotNull(highlighter);
+        final StringBuilder output = new StringBuilder();
+        highlighter.highlight(content, output);
+        return output.toString();
+    }
+
+    /**
+     * Check that the only markup in highlighted output are the highlight spans, and
+     * that the text between them is the escaped content
+     */
+    private static void assertEscaped(final String content, final String html) {
+        final String text = SPAN.matcher(html).replaceAll("");
+        assertFalse(html, text.contains("<"));
+        assertFalse(html, text.contains(">"));
+        assertFalse(html, text.contains("\""));
+        final Matcher matcher = ENTITY.matcher(text);
+        final StringBuilder unescaped = new StringBuilder();
+        int last = 0;
+        while (matcher.find()) {
+            assertFalse(html, text.substring(last, matcher.start()).contains("&"));
+            unescaped.append(text, last, matcher.start());
+            switch (matcher.group(1)) {
+                case "amp":
+                    unescaped.append('&');
+                    break;
+                case "lt":
+                    unescaped.append('<');
+                    break;
+                case "gt":
+                    unescaped.append('>');
+                    break;
+                default:
+                    unescaped.append('"');
+                    break;
+            }
+            last = matcher.end();
+        }
+        assertFalse(html, text.substring(last).contains("&"));
+        unescaped.append(text, last, text.length());
+        assertEquals(content, unescaped.toString());
+    }
+
+    @Test
+    public void escapesSpecialCharacters() {
+        final StringBuilder output = new StringBuilder();
+        Highlighters.escape("a<b&c\"d>e", 0, 9, output);
+        assertEquals("a&lt;b&amp;c&quot;d&gt;e", output.toString());
+        output.setLength(0);
+        Highlighters.escape("<a&b>", 1, 4, output);
+        assertEquals("a&amp;b", output.toString());
+    }
+
+    @Test
+    public void escapesLogs() {
+        final String content = "[12:00:00 ERROR]: Caught <init> & \"quoted\" exception &amp;\r\n"
+            + "java.lang.IllegalStateException: <script>alert(\"x\")</script>\n"
+            + "\tat org.incendo.Foo.<init>(Foo.java:1)\n";
+        assertEscaped(content, highlight("plaintext", content));
+    }
+
+    @Test
+    public void escapesYaml() {
+        final String content = "key: \"<value> & more\"\n# comment <b>&</b>\nlist:\n  - 'a & \"b\"'\n"
+            + "<tag>: <value> \"x\" # \"<comment>\"\n";
+        assertEscaped(content, highlight("yaml", content));
+    }
+
+    @Test
+    public void escapesProperties() {
+        final String content = "key=<value> & \"x\"\n# <comment> &amp;\n! \"other\" <comment>\n"
+            + "multi=line \\\n  <continued> & \"more\"\n<key>:<value>\n";
+        assertEscaped(content, highlight("properties", content));
+    }
+
+    @Test
+    public void escapesJson() {
+        final String content = "{\"<key>\": \"a & \\\"b\\\" <c>\", \"n\": 1, \"t\": true, \"l\": [null, \"&amp;\"]}\n";
+        assertEscaped(content, highlight("json", content));
+    }
+
+    @Test
+    public void escapesUnterminatedJson() {
+        final String content = "{\"<key>\": \"a & <b>";
+        assertEscaped(content, highlight("json", content));
+    }
+
+    @Test
+    public void languagesEndUpInClassAttributesSafely() {
+        assertEquals("plaintext", Highlighters.getLanguage("evil.\"><script>"));
+        assertEquals("yaml", Highlighters.getLanguage("config.YML"));
+        assertEquals("plaintext", Highlighters.getLanguage("latest"));
+        assertNull(Highlighters.getHighlighter("java"));
+    }
+
+}
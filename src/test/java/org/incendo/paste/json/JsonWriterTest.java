@@ -0,0 +1,132 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonWriterTest {
+
+    private static String write(final String value) throws IOException {
+        final StringWriter output = new StringWriter();
+        new JsonWriter(output).value(value).flush();
+        return output.toString();
+    }
+
+    private static String read(final String json) throws IOException {
+        try (final JsonReader reader = new JsonReader(new StringReader(json))) {
+            final String value = reader.nextString();
+            assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+            return value;
+        }
+    }
+
+    private static String repeat(final String value, final int count) {
+        final StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void escapesQuotesAndControlCharacters() throws Exception {
+        assertEquals("\"\\\"\\\\\\n\\r\\t\\b\\f\\u0000\\u001f\"", write("\"\\\n\r\t\b\f\u0000\u001f"));
+        assertEquals("\" ~\u007f\"", write(" ~\u007f"));
+    }
+
+    @Test
+    public void leavesOtherCharactersAsTheyAre() throws Exception {
+        // Paste content is never embedded in a script, so neither '<' nor '/' needs an escape
+        assertEquals("\"</script> Café ☃ 😀\"", write("</script> Café ☃ 😀"));
+        assertEquals("\"\ud800 \udc00\"", write("\ud800 \udc00"));
+    }
+
+    @Test
+    public void roundTripsStrings() throws Exception {
+        final String[] values = {"", "plain", "</script><script>alert(1)</script>", "Café ☃ 😀 𐈀",
+            "\u0000\u0001\u001f\u007f\"\\/\n\r\t\b\f", "unpaired \ud800 and \udc00, reversed \udc00\ud800",
+            repeat("[12:00:00] \"quoted\" 😀\n", 500)};
+        for (final String value : values) {
+            assertEquals(value, read(write(value)));
+        }
+    }
+
+    @Test
+    public void roundTripsStreamedValues() throws Exception {
+        final String content = repeat("line \"with\" \\ escapes\t😀\n", 1000);
+        final StringWriter output = new StringWriter();
+        final JsonWriter writer = new JsonWriter(output);
+        writer.beginObject().name("files").beginObject().name("a.log").value(new StringReader(content))
+            .name("b.log").value("second").endObject().name("timestamp").value(1234L).endObject().flush();
+        try (final JsonReader reader = new JsonReader(new StringReader(output.toString()))) {
+            reader.beginObject();
+            assertEquals("files", reader.nextName());
+            reader.beginObject();
+            assertEquals("a.log", reader.nextName());
+            final StringWriter streamed = new StringWriter();
+            reader.nextString(streamed);
+            assertEquals(content, streamed.toString());
+            assertEquals("b.log", reader.nextName());
+            assertEquals("second", reader.nextString());
+            reader.endObject();
+            assertEquals("timestamp", reader.nextName());
+            assertEquals(1234L, reader.nextLong());
+            reader.endObject();
+            assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+        }
+    }
+
+    @Test
+    public void writesSeparatorsBetweenElements() throws Exception {
+        final StringWriter output = new StringWriter();
+        new JsonWriter(output).beginObject().name("a").beginArray().value(1L).value("b").beginObject().endObject()
+            .endArray().name("c").value("d").endObject().flush();
+        assertEquals("{\"a\":[1,\"b\",{}],\"c\":\"d\"}", output.toString());
+    }
+
+    @Test
+    public void readsEscapedSurrogatePairs() throws Exception {
+        assertEquals("😀", read("\"\\ud83d\\ude00\""));
+        assertEquals("\u00e9/", read("\"\\u00E9\\/\""));
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() throws Exception {
+        final String[] documents = {"\"unterminated", "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "\"\\x\"", "{} {}"};
+        for (final String document : documents) {
+            try (final JsonReader reader = new JsonReader(new StringReader(document))) {
+                reader.skipValue();
+                reader.peek();
+                fail("Parsed malformed document " + document);
+            } catch (final IOException expected) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.rest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.incendo.paste.IncendoPaster;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestBodyDecoderTest {
+
+    private static final String CONTENT = "[12:00:00] Café ☃ 😀 \"quoted\" \\ </script>\n";
+
+    private static byte[] compress(final String encoding, final String json) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) :
+            new DeflaterOutputStream(bytes)) {
+            outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String json(final String content) {
+        return String.format("{\"paste_application\": \"kvantum\", \"files\": \"a.log\", \"count\": 1, "
+            + "\"file-a.log\": \"%s\"}", content.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n"));
+    }
+
+    /**
+     * The server hands over the body with one char per byte, which is what ISO-8859-1 decoding produces
+     */
+    private static String received(final byte[] body) {
+        return new String(body, StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void decodesGzipBodies() throws Exception {
+        final Map<String, String> members = RequestBodyDecoder.decode("gzip",
+            received(compress("gzip", json(CONTENT))), Long.MAX_VALUE);
+        assertEquals("kvantum", members.get("paste_application"));
+        assertEquals(CONTENT, members.get("file-a.log"));
+        assertFalse("Only string members are returned", members.containsKey("count"));
+    }
+
+    @Test
+    public void decodesBodiesUploadedByIncendoPaster() throws Throwable {
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/paste/upload", exchange -> {
+            headers.put("content-type", exchange.getRequestHeaders().getFirst("Content-Type"));
+            headers.put("content-encoding", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (final InputStream inputStream = exchange.getRequestBody()) {
+                inputStream.transferTo(body);
+            }
+            final byte[] response = "{\"created\": true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+        try {
+            final IncendoPaster paster = new IncendoPaster("kvantum",
+                String.format("http://localhost:%d/paste/upload", server.getAddress().getPort()));
+            paster.setCompressed(true);
+            paster.addFile(new IncendoPaster.PasteFile("a.log", CONTENT));
+            paster.upload();
+        } finally {
+            server.stop(0);
+        }
+        // Sent as binary, so that Kvantum doesn't parse the compressed body as JSON
+        assertEquals("application/octet-stream", headers.get("content-type"));
+        assertEquals("gzip", headers.get("content-encoding"));
+        final Map<String, String> members = RequestBodyDecoder.decode(headers.get("content-encoding"),
+            received(body.toByteArray()), Long.MAX_VALUE);
+        assertEquals("kvantum", members.get("paste_application"));
+        assertEquals("a.log", members.get("files"));
+        assertEquals(CONTENT, members.get("file-a.log"));
+    }
+
+    @Test
+    public void decodesDeflateBodies() throws Exception {
+        final Map<String, String> members = RequestBodyDecoder.decode(" Deflate ",
+            received(compress("deflate", json(CONTENT))), Long.MAX_VALUE);
+        assertEquals(CONTENT, members.get("file-a.log"));
+    }
+
+    @Test
+    public void preservesEveryByteValue() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        final Random random = new Random(42L);
+        for (int i = 0; i < 20000; i++) {
+            content.append((char) (0x20 + random.nextInt(0xD7FF - 0x20)));
+        }
+        final byte[] body = compress("gzip", json(content.toString()));
+        final boolean[] seen = new boolean[256];
+        for (final byte b : body) {
+            seen[b & 0xFF] = true;
+        }
+        for (int i = 0; i < seen.length; i++) {
+            assertTrue(String.format("Byte %d doesn't occur in the body", i), seen[i]);
+        }
+        assertEquals(content.toString(), RequestBodyDecoder.decode("gzip", received(body), Long.MAX_VALUE)
+            .get("file-a.log"));
+    }
+
+    @Test
+    public void rejectsBodiesDecodedAsText() throws Exception {
+        final String body = new String(compress("gzip", json(CONTENT)), StandardCharsets.UTF_8);
+        try {
+            RequestBodyDecoder.decode("gzip", body, Long.MAX_VALUE);
+            fail("A body decoded as UTF-8 was accepted");
+        } catch (final RequestBodyDecoder.DecodeException e) {
+            assertEquals("request body was not received as binary data", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsBodiesOverTheDecodedLimit() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            content.append('a');
+        }
+        final String body = received(compress("gzip", json(content.toString())));
+        assertEquals(content.toString(), RequestBodyDecoder.decode("gzip", body, 200000L).get("file-a.log"));
+        try {
+            RequestBodyDecoder.decode("gzip", body, 50000L);
+            fail("A body over the limit was accepted");
+        } catch (final RequestBodyDecoder.DecodeException e) {
+            assertEquals("request body exceeds 50000 bytes when decompressed", e.getMessage());
+        }
+    }
+
+    @Test(expected = RequestBodyDecoder.DecodeException.class)
+    public void rejectsUnsupportedEncodings() throws Exception {
+        RequestBodyDecoder.decode("br", received(compress("gzip", json(CONTENT))), Long.MAX_VALUE);
+    }
+
+    @Test(expected = RequestBodyDecoder.DecodeException.class)
+    public void rejectsMalformedBodies() throws Exception {
+        RequestBodyDecoder.decode("gzip", received(compress("gzip", "{\"files\": ")), Long.MAX_VALUE);
+    }
+
+}
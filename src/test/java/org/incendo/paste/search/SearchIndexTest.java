@@ -0,0 +1,148 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.search;
+
+import org.incendo.paste.StoredPaste;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    private static SearchResults search(final SearchIndex index, final String text, final long since) {
+        return index.search(new SearchQuery(text, null, null, since, Long.MAX_VALUE, 0, 1000));
+    }
+
+    @Test
+    public void findsFilesContainingEveryToken() {
+        final SearchIndex index = new SearchIndex(1000, Long.MAX_VALUE);
+        index.add(paste("first", 1L, "NullPointerException at Foo.bar", "nothing here"));
+        index.add(paste("second", 2L, "IllegalStateException at Foo.baz"));
+        final SearchResults results = search(index, "exception foo", 0L);
+        assertEquals(0, results.getTotal());
+        final SearchResults nullPointer = search(index, "at foo", 0L);
+        assertEquals(2, nullPointer.getTotal());
+        assertEquals("second", nullPointer.getHits().get(0).getPasteId());
+        assertEquals(1, search(index, "nullpointerexception BAR", 0L).getTotal());
+        assertTrue(nullPointer.isComplete());
+    }
+
+    @Test
+    public void matchesABruteForceScan() {
+        final Random random = new Random(7L);
+        final String[] words = new String[40];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = String.format("word%d", i);
+        }
+        final SearchIndex index = new SearchIndex(1000, Long.MAX_VALUE);
+        final List<StoredPaste> pastes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 20; j++) {
+                content.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            final StoredPaste paste = paste(String.format("paste%d", i), i, content.toString());
+            pastes.add(paste);
+            index.add(paste);
+        }
+        for (int i = 0; i < 200; i += 2) {
+            index.remove(String.format("paste%d", i));
+        }
+        for (int query = 0; query < 100; query++) {
+            final String first = words[random.nextInt(words.length)];
+            final String second = words[random.nextInt(words.length)];
+            int expected = 0;
+            for (int i = 0; i < pastes.size(); i++) {
+                final List<String> tokens = List.of(pastes.get(i).getFileContents()[0].split(" "));
+                if ((i >= 200 || i % 2 == 1) && tokens.contains(first) && tokens.contains(second)) {
+                    expected++;
+                }
+            }
+            assertEquals(String.format(Locale.ENGLISH, "%s %s", first, second), expected,
+                search(index, first + " " + second, 0L).getTotal());
+        }
+    }
+
+    @Test
+    public void reportsTokensPastTheLimitAsIncomplete() {
+        final SearchIndex index = new SearchIndex(3, Long.MAX_VALUE);
+        index.add(paste("truncated", 1L, "aa bb cc aa dd"));
+        assertEquals(1, index.getTruncatedFileCount());
+        final SearchResults indexed = search(index, "cc", 0L);
+        assertEquals(1, indexed.getTotal());
+        assertTrue(indexed.isComplete());
+        final SearchResults pastLimit = search(index, "dd", 0L);
+        assertEquals(0, pastLimit.getTotal());
+        assertFalse(pastLimit.isComplete());
+        // The truncated file is outside of the searched time range
+        assertTrue(search(index, "dd", 2L).isComplete());
+        index.remove("truncated");
+        assertEquals(0, index.getTruncatedFileCount());
+        assertTrue(search(index, "dd", 0L).isComplete());
+    }
+
+    @Test
+    public void dropsTheOldestPastesAtTheMemoryLimit() {
+        final SearchIndex unlimited = new SearchIndex(1000, Long.MAX_VALUE);
+        unlimited.add(paste("paste0", 0L, "shared unique0"));
+        final long pasteBytes = unlimited.getEstimatedBytes();
+
+        final SearchIndex index = new SearchIndex(1000, pasteBytes * 10L);
+        for (int i = 0; i < 100; i++) {
+            index.add(paste(String.format("paste%d", i), i, String.format("shared unique%d", i)));
+            assertTrue(index.getEstimatedBytes() <= pasteBytes * 10L);
+        }
+        assertTrue(index.getPasteCount() < 100);
+        assertTrue(index.contains("paste99"));
+        assertFalse(index.contains("paste0"));
+        final SearchResults all = search(index, "shared", 0L);
+        assertEquals(index.getPasteCount(), all.getTotal());
+        assertFalse(all.isComplete());
+        assertTrue(search(index, "shared", 99L).isComplete());
+        // Pastes older than the dropped ones would be dropped first, so they aren't added
+        index.add(paste("old", 0L, "shared"));
+        assertFalse(index.contains("old"));
+    }
+
+    @Test
+    public void releasesMemoryOfRemovedPastes() {
+        final SearchIndex index = new SearchIndex(1000, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            index.add(paste(String.format("paste%d", i), i, String.format("shared unique%d", i)));
+        }
+        assertTrue(index.getEstimatedBytes() > 0L);
+        for (int i = 0; i < 10; i++) {
+            index.remove(String.format("paste%d", i));
+        }
+        assertEquals(0, index.getTokenCount());
+        assertEquals(0L, index.getEstimatedBytes());
+    }
+
+}
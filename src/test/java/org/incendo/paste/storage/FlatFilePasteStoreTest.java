@@ -0,0 +1,216 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.json.PasteFormat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlatFilePasteStoreTest {
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FlatFilePasteStore pasteStore;
+
+    @Before
+    public void setup() throws IOException {
+        this.pasteStore = new FlatFilePasteStore(this.temporaryFolder.getRoot(), PasteContainer.Codec.GZIP);
+    }
+
+    private long countBlobFiles(final String extension) throws IOException {
+        final Path blobFolder = this.temporaryFolder.getRoot().toPath().resolve("blobs");
+        if (!Files.isDirectory(blobFolder)) {
+            return 0L;
+        }
+        try (final Stream<Path> paths = Files.walk(blobFolder)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(extension)).count();
+        }
+    }
+
+    @Test
+    public void sharedFilesAreStoredOnce() throws IOException {
+        this.pasteStore.write(paste("first", "shared", "only in first"));
+        this.pasteStore.write(paste("second", "shared", "shared"));
+        assertEquals(2L, this.countBlobFiles(".blob"));
+        assertEquals(2L, this.countBlobFiles(".ref"));
+    }
+
+    @Test
+    public void blobsOutliveAllButTheirLastReference() throws IOException {
+        this.pasteStore.write(paste("first", "shared", "only in first"));
+        this.pasteStore.write(paste("second", "shared", "shared"));
+
+        assertTrue(this.pasteStore.delete("first"));
+        assertEquals(1L, this.countBlobFiles(".blob"));
+        final StoredPaste second = this.pasteStore.read("second");
+        assertNotNull(second);
+        assertArrayEquals(new String[] {"shared", "shared"}, second.getFileContents());
+
+        assertTrue(this.pasteStore.delete("second"));
+        assertEquals(0L, this.countBlobFiles(".blob"));
+        assertEquals(0L, this.countBlobFiles(".ref"));
+        assertNull(this.pasteStore.read("second"));
+    }
+
+    @Test
+    public void deletedPastesReleaseTheirBlobsOnce() throws IOException {
+        this.pasteStore.write(paste("first", "shared"));
+        this.pasteStore.write(paste("second", "shared"));
+        assertTrue(this.pasteStore.delete("first"));
+        assertFalse(this.pasteStore.delete("first"));
+        assertEquals(1L, this.countBlobFiles(".blob"));
+        assertNotNull(this.pasteStore.read("second"));
+    }
+
+    @Test
+    public void contentIsStoredAgainAfterItsBlobWasReleased() throws IOException {
+        this.pasteStore.write(paste("first", "content"));
+        this.pasteStore.delete("first");
+        this.pasteStore.write(paste("second", "content"));
+        assertEquals("content", this.pasteStore.read("second").getFileContents()[0]);
+        assertEquals(1L, this.countBlobFiles(".blob"));
+    }
+
+    private long countFiles(final String suffix) throws IOException {
+        try (final Stream<Path> paths = Files.walk(this.temporaryFolder.getRoot().toPath())) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(suffix)).count();
+        }
+    }
+
+    @Test
+    public void manifestsAreMovedIntoPlace() throws IOException {
+        this.pasteStore.writeAll(Arrays.asList(paste("first", "one"), paste("second", "two")));
+        assertEquals(2L, this.countFiles(".manifest"));
+        assertEquals(0L, this.countFiles(".tmp"));
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), new HashSet<>(this.pasteStore.getIds()));
+    }
+
+    @Test
+    public void failedPastesReleaseTheirBlobs() throws IOException {
+        // A folder in place of the manifest makes moving the manifest into place fail
+        final String shard = Integer.toHexString(0x100 | ("blocked".hashCode() & 0xFF)).substring(1);
+        final Path blocker = this.temporaryFolder.getRoot().toPath().resolve(shard).resolve("blocked.manifest");
+        Files.createDirectories(blocker);
+        Files.createFile(blocker.resolve("file"));
+        try {
+            this.pasteStore.writeAll(Arrays.asList(paste("first", "kept", "shared"),
+                paste("blocked", "released", "shared")));
+            fail("Storing a paste whose manifest can't be moved into place succeeded");
+        } catch (final IOException e) {
+            // Expected
+        }
+        // Pastes written before the failure are stored regardless
+        assertArrayEquals(new String[] {"kept", "shared"}, this.pasteStore.read("first").getFileContents());
+        assertFalse(this.pasteStore.exists("blocked"));
+        assertEquals(2L, this.countBlobFiles(".blob"));
+        assertEquals(0L, this.countFiles(".tmp"));
+        assertTrue(this.pasteStore.delete("first"));
+        assertEquals(0L, this.countBlobFiles(".blob"));
+    }
+
+    @Test
+    public void readsSingleFiles() throws IOException {
+        this.pasteStore.write(paste("manifest", "first \"file\"", "second file"));
+        assertEquals("second file", this.pasteStore.readFile("manifest", "file-1.txt"));
+        assertNull(this.pasteStore.readFile("manifest", "file-2.txt"));
+        assertNull(this.pasteStore.readFile("missing", "file-0.txt"));
+
+        // Pastes stored as plain JSON by earlier versions are streamed
+        final String shard = Integer.toHexString(0x100 | ("legacy".hashCode() & 0xFF)).substring(1);
+        final Path legacyFile = this.temporaryFolder.getRoot().toPath().resolve(shard).resolve("legacy.json");
+        Files.createDirectories(legacyFile.getParent());
+        try (final OutputStream outputStream = Files.newOutputStream(legacyFile)) {
+            PasteFormat.write(paste("legacy", "first \"file\"\n", "second file"), outputStream);
+        }
+        assertEquals("first \"file\"\n", this.pasteStore.readFile("legacy", "file-0.txt"));
+        assertEquals("second file", this.pasteStore.readFile("legacy", "file-1.txt"));
+        assertNull(this.pasteStore.readFile("legacy", "file-2.txt"));
+    }
+
+    @Test
+    public void readsMetadataOfEveryFormat() throws IOException {
+        this.pasteStore.write(paste("manifest", 5000L, "content"));
+        // Earlier versions stored complete containers, and plain JSON before that
+        final Path root = this.temporaryFolder.getRoot().toPath();
+        final Path containerFile = root.resolve(Integer.toHexString(0x100 | ("container".hashCode() & 0xFF))
+            .substring(1)).resolve("container.paste");
+        Files.createDirectories(containerFile.getParent());
+        PasteContainer.write(containerFile, PasteContainer.Codec.GZIP, outputStream ->
+            PasteFormat.write(paste("container", 5000L, "content"), outputStream));
+        final Path legacyFile = root.resolve(Integer.toHexString(0x100 | ("legacy".hashCode() & 0xFF)).substring(1))
+            .resolve("legacy.json");
+        Files.createDirectories(legacyFile.getParent());
+        try (final OutputStream outputStream = Files.newOutputStream(legacyFile)) {
+            PasteFormat.write(paste("legacy", 5000L, "content"), outputStream);
+        }
+        for (final String id : new String[] {"manifest", "container", "legacy"}) {
+            this.pasteStore.recordAccess(id, 7000L);
+            final PasteMetadata metadata = this.pasteStore.readMetadata(id);
+            assertEquals(id, metadata.getId());
+            assertEquals(5000L, metadata.getTimestamp());
+            assertEquals("test", metadata.getApplicationId());
+            assertEquals(7000L, metadata.getLastAccess());
+        }
+        assertNull(this.pasteStore.readMetadata("missing"));
+    }
+
+    @Test
+    public void rawPastesMatchTheStoredFormat() throws IOException {
+        final StoredPaste paste = paste("raw", "line \"one\"\nline twoé", "</script>\u0001");
+        this.pasteStore.write(paste);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PasteFormat.write(paste, expected);
+
+        assertArrayEquals(expected.toByteArray(), this.pasteStore.readRaw("raw"));
+        try (final InputStream inputStream = new GZIPInputStream(
+            new ByteArrayInputStream(this.pasteStore.readRawCompressed("raw")))) {
+            assertArrayEquals(expected.toByteArray(), inputStream.readAllBytes());
+        }
+        assertNull(this.pasteStore.readRaw("missing"));
+        assertNull(this.pasteStore.readRawCompressed("missing"));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexedPasteStoreTest {
+
+    private MemoryPasteStore backingStore;
+    private IndexedPasteStore pasteStore;
+
+    @Before
+    public void setup() throws IOException {
+        this.backingStore = new MemoryPasteStore();
+        this.backingStore.write(paste("stored", "content"));
+        this.pasteStore = new IndexedPasteStore(this.backingStore);
+    }
+
+    @Test
+    public void indexesStoredAndWrittenPastes() throws IOException {
+        this.pasteStore.write(paste("written", "content"));
+        assertTrue(this.pasteStore.exists("stored"));
+        assertTrue(this.pasteStore.exists("written"));
+        assertFalse(this.pasteStore.exists("missing"));
+        assertNull(this.pasteStore.read("missing"));
+        assertEquals(2L, this.pasteStore.getIndex().getSize());
+    }
+
+    @Test
+    public void failedDeletesKeepThePasteReadable() throws IOException {
+        this.backingStore.failDeletes = true;
+        try {
+            this.pasteStore.delete("stored");
+            fail("The delete didn't fail");
+        } catch (final IOException expected) {
+        }
+        assertTrue(this.pasteStore.exists("stored"));
+        assertNotNull(this.pasteStore.read("stored"));
+        assertNotNull(this.pasteStore.readMetadata("stored"));
+
+        // So that the delete can be retried
+        this.backingStore.failDeletes = false;
+        assertTrue(this.pasteStore.delete("stored"));
+        assertFalse(this.pasteStore.exists("stored"));
+        assertNull(this.pasteStore.read("stored"));
+    }
+
+    @Test
+    public void failedDeletesThatRemovedThePasteDropItFromTheIndex() {
+        this.backingStore.failDeletes = true;
+        this.backingStore.deleteBeforeFailing = true;
+        try {
+            this.pasteStore.delete("stored");
+            fail("The delete didn't fail");
+        } catch (final IOException expected) {
+        }
+        assertFalse(this.pasteStore.exists("stored"));
+    }
+
+    @Test
+    public void pastesThatAreAlreadyGoneAreDroppedFromTheIndex() throws IOException {
+        this.backingStore.pastes.remove("stored");
+        assertFalse(this.pasteStore.delete("stored"));
+        assertFalse(this.pasteStore.exists("stored"));
+        assertEquals(0L, this.pasteStore.getIndex().getSize());
+    }
+
+    /**
+     * In memory store whose deletes can be made to fail
+     */
+    private static final class MemoryPasteStore implements PasteStore {
+
+        private final Map<String, StoredPaste> pastes = new ConcurrentHashMap<>();
+        private volatile boolean failDeletes;
+        private volatile boolean deleteBeforeFailing;
+
+        @Override public boolean exists(final String id) {
+            return this.pastes.containsKey(id);
+        }
+
+        @Override public StoredPaste read(final String id) {
+            return this.pastes.get(id);
+        }
+
+        @Override public byte[] readRaw(final String id) {
+            return null;
+        }
+
+        @Override public void writeAll(final Collection<StoredPaste> pastes) {
+            for (final StoredPaste paste : pastes) {
+                this.pastes.put(paste.getId(), paste);
+            }
+        }
+
+        @Override public boolean delete(final String id) throws IOException {
+            if (this.failDeletes) {
+                if (this.deleteBeforeFailing) {
+                    this.pastes.remove(id);
+                }
+                throw new IOException(String.format("Failed to delete %s", id));
+            }
+            return this.pastes.remove(id) != null;
+        }
+
+        @Override public Collection<String> getIds() {
+            return new ArrayList<>(this.pastes.keySet());
+        }
+
+        @Override public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.json.PasteFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PasteArchiveTest {
+
+    /**
+     * Zip entry times have a resolution of two seconds
+     */
+    private static final long ACCESS_TIME = 1_600_000_000_000L;
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path folder;
+    private PasteArchive archive;
+
+    @Before
+    public void setup() throws IOException {
+        this.folder = this.temporaryFolder.getRoot().toPath().resolve("archive");
+        this.archive = new PasteArchive(this.folder);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.archive.close();
+    }
+
+    private void reopen() throws IOException {
+        this.archive.close();
+        this.archive = new PasteArchive(this.folder);
+    }
+
+    private static void assertPaste(final StoredPaste expected, final StoredPaste actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getApplicationId(), actual.getApplicationId());
+        assertArrayEquals(expected.getFileNames(), actual.getFileNames());
+        assertArrayEquals(expected.getFileContents(), actual.getFileContents());
+    }
+
+    private long countSegments() throws IOException {
+        try (final Stream<Path> paths = Files.list(this.folder)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".zip")).count();
+        }
+    }
+
+    private void archive(final StoredPaste... pastes) throws IOException {
+        final Map<String, Long> lastAccess = new HashMap<>();
+        for (final StoredPaste paste : pastes) {
+            lastAccess.put(paste.getId(), ACCESS_TIME);
+        }
+        this.archive.write(Arrays.asList(pastes), lastAccess);
+    }
+
+    @Test
+    public void archivedPastesCanBeRestored() throws IOException {
+        final StoredPaste first = paste("first", "line \"one\"\nline twoé", "</script>\u0001");
+        final StoredPaste second = paste("second", "other");
+        this.archive(first, second);
+
+        assertTrue(this.archive.contains("first"));
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), new HashSet<>(this.archive.getIds()));
+        assertPaste(first, this.archive.read("first"));
+        assertPaste(second, this.archive.read("second"));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PasteFormat.write(first, expected);
+        assertArrayEquals(expected.toByteArray(), this.archive.readRaw("first"));
+        assertEquals("</script>\u0001", this.archive.readFile("first", "file-1.txt"));
+        assertNull(this.archive.readFile("first", "file-2.txt"));
+
+        final PasteMetadata metadata = this.archive.readMetadata("first");
+        assertEquals("test", metadata.getApplicationId());
+        assertEquals(ACCESS_TIME, metadata.getLastAccess());
+
+        assertFalse(this.archive.contains("missing"));
+        assertNull(this.archive.read("missing"));
+        assertNull(this.archive.readRaw("missing"));
+        assertNull(this.archive.readMetadata("missing"));
+    }
+
+    @Test
+    public void archivedPastesSurviveReopening() throws IOException {
+        final StoredPaste first = paste("first", "one", "two");
+        this.archive(first);
+        this.archive(paste("second", "three"));
+        this.archive.recordAccess("first", ACCESS_TIME + 10_000L);
+        this.reopen();
+
+        assertEquals(2L, this.countSegments());
+        assertPaste(first, this.archive.read("first"));
+        assertEquals("three", this.archive.read("second").getFileContents()[0]);
+        // Taken from the access journal, as the segment holds the time the paste was archived with
+        assertEquals(ACCESS_TIME + 10_000L, this.archive.readMetadata("first").getLastAccess());
+        assertEquals(ACCESS_TIME, this.archive.readMetadata("second").getLastAccess());
+    }
+
+    @Test
+    public void removedPastesAreGoneFromRewrittenSegments() throws IOException {
+        final StoredPaste kept = paste("kept", "kept content");
+        this.archive(kept, paste("removed", "removed content"));
+        this.archive(paste("alone", "alone content"));
+
+        assertEquals(new HashSet<>(Arrays.asList("removed", "alone")),
+            new HashSet<>(this.archive.remove(Arrays.asList("removed", "alone", "missing"))));
+        assertNull(this.archive.read("removed"));
+        assertNull(this.archive.read("alone"));
+        assertPaste(kept, this.archive.read("kept"));
+        // The segment that only held a removed paste is deleted, the other one is rewritten
+        assertEquals(1L, this.countSegments());
+
+        this.reopen();
+        assertEquals(Collections.singletonList("kept"), this.archive.getIds());
+        assertPaste(kept, this.archive.read("kept"));
+        assertEquals(ACCESS_TIME, this.archive.readMetadata("kept").getLastAccess());
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.incendo.paste.StoredPaste;
+import org.incendo.paste.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasteCommitQueueTest {
+
+    private final BlockingPasteStore pasteStore = new BlockingPasteStore();
+    private PasteCommitQueue commitQueue;
+
+    @After
+    public void teardown() {
+        this.pasteStore.release.countDown();
+        if (this.commitQueue != null) {
+            this.commitQueue.close();
+        }
+    }
+
+    private PasteCommitQueue newQueue(final int capacity, final long maximumBytes) {
+        this.commitQueue = new PasteCommitQueue(this.pasteStore, capacity, maximumBytes, 16,
+            new MetricsRegistry().histogram("test_batch_pastes", "Test", "", 1L, 16L, 1.0));
+        return this.commitQueue;
+    }
+
+    /**
+     * Submit a paste, and wait for the writer to block while writing it
+     */
+    private CompletableFuture<Void> submitBlocked(final PasteCommitQueue commitQueue, final StoredPaste paste)
+        throws InterruptedException {
+        final CompletableFuture<Void> future = commitQueue.submit(paste);
+        assertNotNull(future);
+        assertTrue(this.pasteStore.writing.await(10L, TimeUnit.SECONDS));
+        return future;
+    }
+
+    private static void await(final CompletableFuture<Void> future) throws Exception {
+        future.get(10L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Wait for the writer to release the bytes of the pastes it wrote, which it does
+     * after completing their futures
+     */
+    private static void awaitDrained(final PasteCommitQueue commitQueue) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (commitQueue.getQueuedBytes() != 0L) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1L);
+        }
+    }
+
+    @Test
+    public void refusesPastesBeyondTheByteLimit() throws Exception {
+        final long weight = paste("a").getWeight();
+        final PasteCommitQueue commitQueue = newQueue(16, 2 * weight + weight / 2);
+        // Pastes count until they have been written, including the one being written
+        final CompletableFuture<Void> first = this.submitBlocked(commitQueue, paste("a"));
+        final CompletableFuture<Void> second = commitQueue.submit(paste("b"));
+        assertNotNull(second);
+        assertEquals(2 * weight, commitQueue.getQueuedBytes());
+        assertNull(commitQueue.submit(paste("c")));
+        assertEquals(2 * weight, commitQueue.getQueuedBytes());
+
+        this.pasteStore.release.countDown();
+        await(first);
+        await(second);
+        assertFalse(this.pasteStore.exists("c"));
+        awaitDrained(commitQueue);
+        // Accepted again once the queued pastes have been written
+        final CompletableFuture<Void> third = commitQueue.submit(paste("c"));
+        assertNotNull(third);
+        await(third);
+        assertTrue(this.pasteStore.exists("c"));
+    }
+
+    @Test
+    public void acceptsAPasteLargerThanTheLimitIntoAnEmptyQueue() throws Exception {
+        final PasteCommitQueue commitQueue = newQueue(16, 1L);
+        final CompletableFuture<Void> large = this.submitBlocked(commitQueue, paste("a"));
+        assertNull(commitQueue.submit(paste("b")));
+        this.pasteStore.release.countDown();
+        await(large);
+        assertTrue(this.pasteStore.exists("a"));
+    }
+
+    @Test
+    public void refusesPastesBeyondTheCapacity() throws Exception {
+        final PasteCommitQueue commitQueue = newQueue(1, Long.MAX_VALUE);
+        final CompletableFuture<Void> first = this.submitBlocked(commitQueue, paste("a"));
+        final CompletableFuture<Void> second = commitQueue.submit(paste("b"));
+        assertNotNull(second);
+        final long queuedBytes = commitQueue.getQueuedBytes();
+        assertNull(commitQueue.submit(paste("c")));
+        assertEquals(1, commitQueue.getQueuedPastes());
+        assertEquals(queuedBytes, commitQueue.getQueuedBytes());
+        this.pasteStore.release.countDown();
+        await(first);
+        await(second);
+    }
+
+    @Test
+    public void cancelledPastesAreNotWritten() throws Exception {
+        final PasteCommitQueue commitQueue = newQueue(16, Long.MAX_VALUE);
+        final CompletableFuture<Void> first = this.submitBlocked(commitQueue, paste("a"));
+        final long writingBytes = commitQueue.getQueuedBytes();
+        final CompletableFuture<Void> second = commitQueue.submit(paste("b"));
+        final CompletableFuture<Void> third = commitQueue.submit(paste("c"));
+
+        assertTrue(commitQueue.cancel(second));
+        assertTrue(second.isCancelled());
+        assertFalse(commitQueue.cancel(second));
+        // The paste being written can't be withdrawn anymore
+        assertFalse(commitQueue.cancel(first));
+        assertEquals(writingBytes + paste("c").getWeight(), commitQueue.getQueuedBytes());
+
+        this.pasteStore.release.countDown();
+        await(first);
+        await(third);
+        assertTrue(this.pasteStore.exists("a"));
+        assertFalse(this.pasteStore.exists("b"));
+        assertTrue(this.pasteStore.exists("c"));
+        assertFalse(commitQueue.cancel(third));
+    }
+
+    @Test
+    public void aFailingPasteDoesNotFailItsBatch() throws Exception {
+        this.pasteStore.failing.add("bad");
+        final PasteCommitQueue commitQueue = newQueue(16, Long.MAX_VALUE);
+        final CompletableFuture<Void> first = this.submitBlocked(commitQueue, paste("a"));
+        // Queued up while the first paste is written, so they are written as one batch
+        final CompletableFuture<Void> before = commitQueue.submit(paste("b"));
+        final CompletableFuture<Void> bad = commitQueue.submit(paste("bad"));
+        final CompletableFuture<Void> after = commitQueue.submit(paste("c"));
+
+        this.pasteStore.release.countDown();
+        await(first);
+        await(before);
+        await(after);
+        try {
+            await(bad);
+            fail("The failing paste was stored");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(this.pasteStore.exists("b"));
+        assertTrue(this.pasteStore.exists("c"));
+        assertFalse(this.pasteStore.exists("bad"));
+        awaitDrained(commitQueue);
+    }
+
+    @Test
+    public void closeWritesQueuedPastes() throws Exception {
+        final PasteCommitQueue commitQueue = newQueue(16, Long.MAX_VALUE);
+        final CompletableFuture<Void> first = this.submitBlocked(commitQueue, paste("a"));
+        final CompletableFuture<Void> second = commitQueue.submit(paste("b"));
+        this.pasteStore.release.countDown();
+        commitQueue.close();
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertTrue(this.pasteStore.exists("b"));
+        assertNull(commitQueue.submit(paste("c")));
+    }
+
+    /**
+     * In memory store that holds the writer in its first write until released, and
+     * fails writing pastes with the given IDs after writing the pastes before them
+     */
+    private static final class BlockingPasteStore implements PasteStore {
+
+        private final Map<String, StoredPaste> pastes = new ConcurrentHashMap<>();
+        private final Set<String> failing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override public boolean exists(final String id) {
+            return this.pastes.containsKey(id);
+        }
+
+        @Override public StoredPaste read(final String id) {
+            return this.pastes.get(id);
+        }
+
+        @Override public byte[] readRaw(final String id) {
+            return null;
+        }
+
+        @Override public void writeAll(final Collection<StoredPaste> pastes) throws IOException {
+            this.writing.countDown();
+            try {
+                this.release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            for (final StoredPaste paste : pastes) {
+                if (this.failing.contains(paste.getId())) {
+                    throw new IOException(String.format("Failed to write %s", paste.getId()));
+                }
+                this.pastes.put(paste.getId(), paste);
+            }
+        }
+
+        @Override public boolean delete(final String id) {
+            return this.pastes.remove(id) != null;
+        }
+
+        @Override public Collection<String> getIds() {
+            return new HashSet<>(this.pastes.keySet());
+        }
+
+        @Override public void close() {
+        }
+
+    }
+
+}
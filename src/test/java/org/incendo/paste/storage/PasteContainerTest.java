@@ -0,0 +1,113 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class PasteContainerTest {
+
+    private static final byte[] PAYLOAD = "{\"files\":{\"file.txt\":\"content\"}}".getBytes(StandardCharsets.UTF_8);
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path write(final PasteContainer.Codec codec) throws IOException {
+        final Path path = this.temporaryFolder.getRoot().toPath().resolve("container.paste");
+        PasteContainer.write(path, codec, outputStream -> outputStream.write(PAYLOAD));
+        return path;
+    }
+
+    private static void truncate(final Path path, final long bytes) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - bytes);
+        }
+    }
+
+    @Test
+    public void readsPayloads() throws IOException {
+        final Path path = this.write(PasteContainer.Codec.GZIP);
+        assertArrayEquals(PAYLOAD, PasteContainer.readPayload(path));
+        try (final InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(
+            PasteContainer.readCompressedPayload(path)))) {
+            final byte[] payload = new byte[PAYLOAD.length];
+            int offset = 0;
+            while (offset < payload.length) {
+                offset += inputStream.read(payload, offset, payload.length - offset);
+            }
+            assertArrayEquals(PAYLOAD, payload);
+        }
+    }
+
+    @Test
+    public void onlyGzipPayloadsAreReadCompressed() throws IOException {
+        assertNull(PasteContainer.readCompressedPayload(this.write(PasteContainer.Codec.NONE)));
+    }
+
+    @Test
+    public void truncatedCompressedPayloadsAreRejected() throws IOException {
+        final Path path = this.write(PasteContainer.Codec.GZIP);
+        truncate(path, 4L);
+        try {
+            PasteContainer.readCompressedPayload(path);
+            fail("A truncated payload was read");
+        } catch (final IOException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedPayloadsAreRejected() throws IOException {
+        final Path path = this.write(PasteContainer.Codec.GZIP);
+        // Cuts into the compressed data, not just the trailer
+        truncate(path, 12L);
+        try {
+            PasteContainer.readPayload(path);
+            fail("A truncated payload was read");
+        } catch (final IOException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedHeadersAreRejected() throws IOException {
+        final Path path = this.write(PasteContainer.Codec.GZIP);
+        truncate(path, path.toFile().length() - 4L);
+        try {
+            PasteContainer.readCompressedPayload(path);
+            fail("A truncated header was read");
+        } catch (final IOException expected) {
+        }
+    }
+
+}
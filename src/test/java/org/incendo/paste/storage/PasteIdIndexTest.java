@@ -0,0 +1,256 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PasteIdIndexTest {
+
+    private static final int MASK = PasteIdIndex.INITIAL_CAPACITY - 1;
+
+    private static String randomId(final Random random) {
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    private static int idealSlot(final String id) {
+        return PasteIdIndex.hash(PasteIdIndex.parse(id, 0), PasteIdIndex.parse(id, PasteIdIndex.PACKED_LENGTH / 2))
+            & MASK;
+    }
+
+    /**
+     * Generate IDs that hash to the given slot of the initial table
+     */
+    private static List<String> idsForSlot(final Random random, final int slot, final int count) {
+        final List<String> ids = new ArrayList<>();
+        while (ids.size() < count) {
+            final String id = randomId(random);
+            if (idealSlot(id) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void probeSequencesWrapAround() {
+        final Random random = new Random(1L);
+        final PasteIdIndex index = new PasteIdIndex();
+        // These occupy the last slot, and then the first two
+        final List<String> last = idsForSlot(random, MASK, 3);
+        // Displaced from the first slot by the wrapped entries
+        final String first = idsForSlot(random, 0, 1).get(0);
+        last.forEach(index::add);
+        index.add(first);
+        assertEquals(4L, index.getSize());
+        for (final String id : last) {
+            assertTrue(index.contains(id));
+        }
+        assertTrue(index.contains(first));
+
+        index.remove(last.get(0));
+        assertFalse(index.contains(last.get(0)));
+        assertTrue(index.contains(last.get(1)));
+        assertTrue(index.contains(last.get(2)));
+        assertTrue(index.contains(first));
+        index.remove(last.get(2));
+        assertTrue(index.contains(last.get(1)));
+        assertTrue(index.contains(first));
+        assertEquals(2L, index.getSize());
+    }
+
+    @Test
+    public void removingFromTheMiddleOfAProbeRunKeepsTheRest() {
+        final Random random = new Random(2L);
+        final PasteIdIndex index = new PasteIdIndex();
+        final List<String> atFive = idsForSlot(random, 5, 3);
+        final List<String> atSix = idsForSlot(random, 6, 2);
+        final String atEight = idsForSlot(random, 8, 1).get(0);
+        // Slots 5 to 10 end up as a single run
+        index.add(atFive.get(0));
+        index.add(atSix.get(0));
+        index.add(atFive.get(1));
+        index.add(atSix.get(1));
+        index.add(atFive.get(2));
+        index.add(atEight);
+
+        index.remove(atSix.get(0));
+        index.remove(atFive.get(1));
+        assertFalse(index.contains(atSix.get(0)));
+        assertFalse(index.contains(atFive.get(1)));
+        assertTrue(index.contains(atFive.get(0)));
+        assertTrue(index.contains(atFive.get(2)));
+        assertTrue(index.contains(atSix.get(1)));
+        assertTrue(index.contains(atEight));
+        // Removing an ID that isn't indexed, but probes the same run, changes nothing
+        index.remove(atSix.get(0));
+        assertEquals(4L, index.getSize());
+    }
+
+    @Test
+    public void matchesASetUnderHeavyCollisions() {
+        final Random random = new Random(3L);
+        // IDs with ideal slots around the end of the table, so that runs wrap around
+        final List<String> pool = new ArrayList<>();
+        for (int slot = MASK - 3; slot <= MASK + 4; slot++) {
+            pool.addAll(idsForSlot(random, slot & MASK, 20));
+        }
+        final PasteIdIndex index = new PasteIdIndex();
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            final String id = pool.get(random.nextInt(pool.size()));
+            if (random.nextBoolean()) {
+                index.add(id);
+                expected.add(id);
+            } else {
+                index.remove(id);
+                expected.remove(id);
+            }
+            if (i % 100 == 0) {
+                for (final String pooled : pool) {
+                    assertEquals(pooled, expected.contains(pooled), index.contains(pooled));
+                }
+                assertEquals(expected.size(), index.getSize());
+            }
+        }
+    }
+
+    @Test
+    public void growsBeyondItsInitialCapacity() {
+        final Random random = new Random(4L);
+        final PasteIdIndex index = new PasteIdIndex();
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10 * PasteIdIndex.INITIAL_CAPACITY; i++) {
+            final String id = randomId(random);
+            ids.add(id);
+            index.add(id);
+        }
+        // Adding an ID twice doesn't count it twice
+        index.add(ids.get(0));
+        assertEquals(ids.size(), index.getSize());
+        for (int i = 0; i < ids.size(); i++) {
+            assertTrue(index.contains(ids.get(i)));
+            if (i % 2 == 0) {
+                index.remove(ids.get(i));
+            }
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i % 2 != 0, index.contains(ids.get(i)));
+        }
+        assertFalse(index.contains(randomId(random)));
+    }
+
+    @Test
+    public void keepsOtherIdsAsTheyAre() {
+        final PasteIdIndex index = new PasteIdIndex();
+        final String upperCase = "0123456789ABCDEF0123456789ABCDEF";
+        final String[] others = {upperCase, "short", "", "0123456789abcdef0123456789abcdeg",
+            "0123456789abcdef0123456789abcdef0", "pasteö"};
+        for (final String id : others) {
+            assertFalse(index.contains(id));
+            index.add(id);
+            assertTrue(index.contains(id));
+        }
+        // IDs are case sensitive, the upper case ID isn't packed
+        assertFalse(index.contains(upperCase.toLowerCase()));
+        assertEquals(others.length, index.getSize());
+        for (final String id : others) {
+            index.remove(id);
+            assertFalse(index.contains(id));
+        }
+        assertEquals(0L, index.getSize());
+    }
+
+    @Test
+    public void indexesTheAllZeroId() {
+        final PasteIdIndex index = new PasteIdIndex();
+        final String zero = "00000000000000000000000000000000";
+        assertFalse(index.contains(zero));
+        index.add(zero);
+        assertTrue(index.contains(zero));
+        assertEquals(1L, index.getSize());
+        index.remove(zero);
+        assertFalse(index.contains(zero));
+        assertEquals(0L, index.getSize());
+    }
+
+    @Test
+    public void readersSeeConsistentResultsWhileTheTableGrows() throws InterruptedException {
+        final Random random = new Random(5L);
+        final PasteIdIndex index = new PasteIdIndex();
+        final List<String> present = new ArrayList<>();
+        final List<String> absent = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            present.add(randomId(random));
+            absent.add(randomId(random));
+        }
+        present.forEach(index::add);
+        final List<String> added = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            added.add(randomId(random));
+        }
+        added.removeAll(absent);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    for (int j = 0; j < present.size(); j++) {
+                        if (!index.contains(present.get(j))) {
+                            failure.compareAndSet(null, String.format("Lost %s", present.get(j)));
+                        }
+                        if (index.contains(absent.get(j))) {
+                            failure.compareAndSet(null, String.format("Found %s", absent.get(j)));
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            added.forEach(index::add);
+        } finally {
+            done.set(true);
+            for (final Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull(failure.get());
+        assertEquals(present.size() + added.size(), index.getSize());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.GZIPInputStream;
+
+import static org.incendo.paste.TestPastes.paste;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SQLitePasteStoreTest {
+
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File databaseFile;
+    private SQLitePasteStore pasteStore;
+
+    @Before
+    public void setup() throws IOException {
+        this.databaseFile = new File(this.temporaryFolder.getRoot(), "pastes.db");
+        this.pasteStore = new SQLitePasteStore(this.databaseFile, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.pasteStore.close();
+    }
+
+    private long query(final String sql) throws SQLException {
+        try (final Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile);
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        }
+    }
+
+    @Test
+    public void sharedFilesAreStoredOnce() throws IOException, SQLException {
+        this.pasteStore.write(paste("first", "shared", "only in first"));
+        this.pasteStore.write(paste("second", "shared", "shared"));
+        assertEquals(2L, this.query("SELECT COUNT(*) FROM blobs"));
+        assertEquals(3L, this.query("SELECT MAX(ref_count) FROM blobs"));
+    }
+
+    @Test
+    public void blobsOutliveAllButTheirLastReference() throws IOException, SQLException {
+        this.pasteStore.write(paste("first", "shared", "only in first"));
+        this.pasteStore.write(paste("second", "shared", "shared"));
+
+        assertTrue(this.pasteStore.delete("first"));
+        assertEquals(1L, this.query("SELECT COUNT(*) FROM blobs"));
+        assertEquals(2L, this.query("SELECT ref_count FROM blobs"));
+        assertArrayEquals(new String[] {"shared", "shared"}, this.pasteStore.read("second").getFileContents());
+
+        assertTrue(this.pasteStore.delete("second"));
+        assertEquals(0L, this.query("SELECT COUNT(*) FROM blobs"));
+        assertEquals(0L, this.query("SELECT COUNT(*) FROM paste_file_refs"));
+        assertNull(this.pasteStore.read("second"));
+    }
+
+    @Test
+    public void contentIsStoredAgainAfterItsBlobWasReleased() throws IOException, SQLException {
+        this.pasteStore.write(paste("first", "content"));
+        this.pasteStore.delete("first");
+        this.pasteStore.write(paste("second", "content"));
+        assertEquals("content", this.pasteStore.read("second").getFileContents()[0]);
+        assertEquals(1L, this.query("SELECT ref_count FROM blobs"));
+    }
+
+    @Test
+    public void compressedRawJsonMatchesRawJson() throws IOException {
+        this.pasteStore.write(paste("first", "content", "more content"));
+        try (final InputStream inputStream = new GZIPInputStream(
+            new ByteArrayInputStream(this.pasteStore.readRawCompressed("first")))) {
+            assertArrayEquals(this.pasteStore.readRaw("first"), inputStream.readAllBytes());
+        }
+        assertNull(this.pasteStore.readRawCompressed("missing"));
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.template;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompiledTemplateTest {
+
+    private static String render(final CompiledTemplate template, final Object... values) {
+        final OutputBuffer output = OutputBuffer.acquire();
+        try {
+            template.render(output, values);
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            output.release();
+        }
+    }
+
+    @Test
+    public void replacesPlaceholders() {
+        final CompiledTemplate template = CompiledTemplate.compile("<h1>{paste_id}</h1><p>{paste_time}</p>",
+            "paste_id", "paste_time");
+        assertEquals("<h1>abc</h1><p>today</p>", render(template, "abc", "today"));
+    }
+
+    @Test
+    public void placeholdersMayRepeatAndTouch() {
+        final CompiledTemplate template = CompiledTemplate.compile("{b}{a}{b}", "a", "b");
+        assertEquals("yxy", render(template, "x", "y"));
+        assertEquals("plain", render(CompiledTemplate.compile("plain", "a"), "x"));
+        assertEquals("x", render(CompiledTemplate.compile("{a}", "a"), "x"));
+    }
+
+    @Test
+    public void undeclaredPlaceholdersStayLiteral() {
+        final CompiledTemplate template = CompiledTemplate.compile(
+            "function f() { return {a}; } {unknown} {a", "a");
+        assertEquals("function f() { return 1; } {unknown} {a", render(template, "1"));
+    }
+
+    @Test
+    public void valuesAreWrittenAsIs() {
+        final CompiledTemplate template = CompiledTemplate.compile("[{a}]", "a");
+        assertEquals("[<b>&amp;</b>]", render(template, "<b>&amp;</b>"));
+        assertEquals("[]", render(template, (Object) null));
+        assertEquals("[42]", render(template, 42));
+    }
+
+    @Test
+    public void iterablesAreWrittenOneElementPerLine() {
+        final CompiledTemplate template = CompiledTemplate.compile("<ul>{a}</ul>", "a");
+        assertEquals("<ul>one\ntwo\nthree</ul>", render(template, Arrays.asList("one", "two", "three")));
+        assertEquals("<ul></ul>", render(template, Collections.emptyList()));
+    }
+
+    @Test
+    public void encodesUtf8() {
+        final CompiledTemplate template = CompiledTemplate.compile("Café {a} ☃", "a");
+        assertEquals("Café 😀 ü ☃", render(template, "😀 ü"));
+    }
+
+    @Test
+    public void rendersValuesLargerThanTheBuffer() {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            value.append((char) ('a' + i % 26));
+            if (i % 1000 == 0) {
+                value.append("é😀");
+            }
+        }
+        final CompiledTemplate template = CompiledTemplate.compile("<{a}>", "a");
+        assertEquals("<" + value + ">", render(template, value.toString()));
+        // The buffer is reused by the next render on this thread
+        assertEquals("<x>", render(template, "x"));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *    _  __                     _
+ *    | |/ /__   __ __ _  _ __  | |_  _   _  _ __ ___
+ *    | ' / \ \ / // _` || '_ \ | __|| | | || '_ ` _ \
+ *    | . \  \ V /| (_| || | | || |_ | |_| || | | | | |
+ *    |_|\_\  \_/  \__,_||_| |_| \__| \__,_||_| |_| |_|
+ *
+ *    Copyright (C) 2019 Alexander Söderberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.incendo.paste.throttle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(100_000L);
+    private RateLimiter rateLimiter;
+
+    @Before
+    public void setup() {
+        // Three tokens, regaining one every second
+        this.rateLimiter = new RateLimiter(group -> new RateLimit(3, 1000L), 100L, 60_000L, this.clock::get);
+    }
+
+    @Test
+    public void allowsABurstOfTheCapacity() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0L, this.rateLimiter.tryAcquire("app", "client"));
+        }
+        assertEquals(1000L, this.rateLimiter.tryAcquire("app", "client"));
+        assertEquals(1L, this.rateLimiter.getRejections());
+    }
+
+    @Test
+    public void rejectionsDoNotTakeTokens() {
+        for (int i = 0; i < 3; i++) {
+            this.rateLimiter.tryAcquire("app", "client");
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1000L, this.rateLimiter.tryAcquire("app", "client"));
+        }
+        this.clock.addAndGet(1000L);
+        assertEquals(0L, this.rateLimiter.tryAcquire("app", "client"));
+        assertEquals(5L, this.rateLimiter.getRejections());
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        for (int i = 0; i < 3; i++) {
+            this.rateLimiter.tryAcquire("app", "client");
+        }
+        this.clock.addAndGet(400L);
+        assertEquals(600L, this.rateLimiter.tryAcquire("app", "client"));
+        this.clock.addAndGet(600L);
+        assertEquals(0L, this.rateLimiter.tryAcquire("app", "client"));
+        assertEquals(1000L, this.rateLimiter.tryAcquire("app", "client"));
+        // An idle bucket refills up to its capacity, but never beyond it
+        this.clock.addAndGet(60_000L);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0L, this.rateLimiter.tryAcquire("app", "client"));
+        }
+        assertEquals(1000L, this.rateLimiter.tryAcquire("app", "client"));
+    }
+
+    @Test
+    public void releaseReturnsAToken() {
+        for (int i = 0; i < 3; i++) {
+            this.rateLimiter.tryAcquire("app", "client");
+        }
+        this.rateLimiter.release("app", "client");
+        assertEquals(0L, this.rateLimiter.tryAcquire("app", "client"));
+        assertEquals(1000L, this.rateLimiter.tryAcquire("app", "client"));
+        // Releasing a bucket that isn't tracked does nothing
+        this.rateLimiter.release("app", "unknown");
+        assertEquals(0L, this.rateLimiter.tryAcquire("app", "unknown"));
+    }
+
+    @Test
+    public void bucketsAreKeyedByGroupAndKey() {
+        for (int i = 0; i < 3; i++) {
+            this.rateLimiter.tryAcquire("app", "client");
+        }
+        assertEquals(0L, this.rateLimiter.tryAcquire("app", "other"));
+        assertEquals(0L, this.rateLimiter.tryAcquire("other", "client"));
+        assertEquals(3L, this.rateLimiter.getTrackedKeys());
+    }
+
+}